@@ -0,0 +1,476 @@
+package com.att.paas.lj.webextract;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses web access log lines and adds the bytes delivered for each tenant into interval buckets. Lines are parsed as
+ * the bytes they were read as, rather than decoded into strings, so nothing is allocated for a line that is skipped,
+ * and only the new total for a line in the same bucket as the line before. An instance is not thread safe (it holds
+ * the fields of the line being parsed), so each collection worker uses its own.
+ * <p>
+ * Lines are in the usual combined format, unless the parser is given a LogFormat for a location that writes another.
+ * <p>
+ * If the parser is given an IntervalSketchMap, each tenant request is also added to the sketches of its intervals, in
+ * the same pass. If it is given an IpFilter, tenant requests from the client addresses in it are skipped.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class AccessLogParser {
+
+/** Size of the buffer lines are read into. It grows if a line is longer. */
+private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+/** Finds the fields of tenant requests in the usual format */
+private final AccessLogTokenizer accessLogTokenizer = new AccessLogTokenizer();
+
+/** Finds the fields of tenant requests held as bytes: the tokenizer, or one compiled from the log format */
+private final LogFieldExtractor logFieldExtractor;
+
+/** Format of the lines, or null for the usual format */
+private final LogFormat logFormat;
+
+/** Finds the interval of a timestamp */
+private final AccessLogTimestampParser accessLogTimestampParser;
+
+/** Returned by parseInt() for bytes that are not an int */
+private static final long NOT_AN_INT = Long.MIN_VALUE;
+
+/** Lines parsed, and how long they took */
+private final ParseStatistics parseStatistics = new ParseStatistics();
+
+/** Interval durations for data collection, in minutes. Each line is added to a bucket of each. */
+private final int[] intervalDurations;
+
+/** Sketches of each interval that tenant requests are added to, or null if none are kept */
+private final IntervalSketchMap intervalSketchMap;
+
+/** Finds whether a client address is one whose requests are skipped, or null if none are */
+private final IpFilter.Matcher ipFilterMatcher;
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ */
+public AccessLogParser(int[] intervalDurationsArg) {
+	this(intervalDurationsArg, null);
+}
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param logFormatArg Format of the lines, or null for the usual format
+ */
+public AccessLogParser(int[] intervalDurationsArg, LogFormat logFormatArg) {
+	this(intervalDurationsArg, logFormatArg, null);
+}
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param logFormatArg Format of the lines, or null for the usual format
+ * @param intervalSketchMapArg Sketches of each interval that tenant requests are added to, or null if none are kept
+ */
+public AccessLogParser(int[] intervalDurationsArg, LogFormat logFormatArg, IntervalSketchMap intervalSketchMapArg) {
+	this(intervalDurationsArg, logFormatArg, intervalSketchMapArg, null);
+}
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param logFormatArg Format of the lines, or null for the usual format
+ * @param intervalSketchMapArg Sketches of each interval that tenant requests are added to, or null if none are kept
+ * @param ipFilterArg Client addresses whose requests are skipped (e.g. AVPN), or null to skip none
+ */
+public AccessLogParser(int[] intervalDurationsArg, LogFormat logFormatArg, IntervalSketchMap intervalSketchMapArg,
+		IpFilter ipFilterArg) {
+	this.intervalDurations = intervalDurationsArg;
+	this.intervalSketchMap = intervalSketchMapArg;
+	this.ipFilterMatcher = ipFilterArg == null ? null : ipFilterArg.createMatcher();
+
+	// Timestamps are parsed once, into intervals that fit inside an interval of every duration
+	this.accessLogTimestampParser =
+			new AccessLogTimestampParser(AccessLogTimestampParser.getCommonIntervalDuration(intervalDurationsArg));
+	this.logFormat = logFormatArg;
+	this.logFieldExtractor = logFormatArg == null ? accessLogTokenizer : logFormatArg.createExtractor();
+}
+
+/**
+ * Reads the lines from an access log as it arrives and adds them to the buckets. Only lines ending in a newline are
+ * counted as read, unless parseUnterminatedLine is set; a log that is still being written may end part way through a
+ * line, and that line is picked up complete on the next run.
+ *
+ * @param inputStream Access log contents
+ * @param mapBytesUsed Map holding bytes used
+ * @param parseUnterminatedLine Parse a last line that does not end in a newline?
+ * @return Number of bytes read, up to and including the last newline (or to the end, if parseUnterminatedLine)
+ * @throws IOException On error reading the log
+ */
+public long parse(InputStream inputStream, BytesUsedAccumulator mapBytesUsed,
+		boolean parseUnterminatedLine) throws IOException {
+
+	byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+	// Bytes in the buffer, and the start of the line not yet parsed
+	int length = 0;
+	int lineStart = 0;
+
+	// Bytes before the start of the buffer that have been parsed
+	long bytesParsed = 0;
+
+	while (true) {
+		int count = inputStream.read(buffer, length, buffer.length - length);
+		if (count == -1) {
+			break;
+		}
+
+		int scanStart = length;
+		length += count;
+
+		// Parse each complete line in the buffer
+		for (int i = scanStart; i < length; i++) {
+			if (buffer[i] == '\n') {
+				parseLine(buffer, lineStart, trimCarriageReturn(buffer, lineStart, i), mapBytesUsed);
+				lineStart = i + 1;
+			}
+		}
+
+		// Move the incomplete line to the start of the buffer, growing it if the line fills it
+		bytesParsed += lineStart;
+		length -= lineStart;
+		if (lineStart > 0) {
+			System.arraycopy(buffer, lineStart, buffer, 0, length);
+		} else if (length == buffer.length) {
+			byte[] bufferLarger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, bufferLarger, 0, length);
+			buffer = bufferLarger;
+		}
+		lineStart = 0;
+	}
+
+	if (length > 0 && parseUnterminatedLine) {
+		parseLine(buffer, 0, trimCarriageReturn(buffer, 0, length), mapBytesUsed);
+		bytesParsed += length;
+	}
+
+	return bytesParsed;
+}
+
+/**
+ * Gets the end of a line without its carriage return, if it has one
+ *
+ * @param buffer Bytes read
+ * @param start Start of the line
+ * @param end End of the line (exclusive), not including the newline
+ * @return End of the line (exclusive), without its line terminator
+ */
+private static int trimCarriageReturn(byte[] buffer, int start, int end) {
+	return end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+}
+
+/**
+ * Parses one access log line held as bytes and, if it is a tenant request, adds its bytes to the bucket. The fields
+ * are found and read where they are, without decoding the line, unless the line might have a line terminator in it.
+ *
+ * @param line Bytes holding the line from the access log
+ * @param start Start of the line
+ * @param end End of the line (exclusive), without its line terminator
+ * @param mapBytesUsed Map holding bytes used
+ * @return true if the line was added to a bucket. false if it was skipped.
+ * @throws IOException On error spilling the map to disk
+ */
+public boolean parseLine(byte[] line, int start, int end, BytesUsedAccumulator mapBytesUsed) throws IOException {
+
+	long startTime = parseStatistics.isSample() ? System.nanoTime() : -1;
+
+	// Most lines are rejected here, after looking at a few of their bytes. Whatever the format, a tenant request has
+	// the service path with the id parameter after it.
+	if (!AccessLogTokenizer.prefilter(line, start, end)) {
+		parseStatistics.addRejected(startTime == -1 ? -1 : System.nanoTime() - startTime);
+		return false;
+	}
+
+	// The patterns of the usual format treat line terminators specially, so such a line is matched as a string, as it
+	// always was
+	boolean added =
+			logFormat == null && AccessLogTokenizer.hasLineTerminator(line, start, end) ? addLine(new String(line,
+					start, end - start), mapBytesUsed) : addLine(line, start, end, mapBytesUsed);
+
+	parseStatistics.addAccepted(added, startTime == -1 ? -1 : System.nanoTime() - startTime);
+	return added;
+}
+
+/**
+ * Finds the fields of a line held as bytes that passed the prefilter and, if it is a tenant request, adds its bytes
+ * to the bucket
+ *
+ * @param line Bytes holding the line from the access log
+ * @param start Start of the line
+ * @param end End of the line (exclusive), without its line terminator. In the usual format, it must not have one in
+ *            it.
+ * @param mapBytesUsed Map holding bytes used
+ * @return true if the line was added to a bucket. false if it was skipped.
+ * @throws IOException On error spilling the map to disk
+ */
+private boolean addLine(byte[] line, int start, int end, BytesUsedAccumulator mapBytesUsed) throws IOException {
+
+	if (!logFieldExtractor.tokenize(line, start, end)) {
+		// Not a tenant request in the format. Skip this record.
+		return false;
+	}
+
+	if (isFiltered(line, logFieldExtractor.getRemoteAddressStartPosition(),
+			logFieldExtractor.getRemoteAddressEndPosition())) {
+		return false;
+	}
+
+	long intervalStart =
+			accessLogTimestampParser.parseIntervalStart(line, logFieldExtractor.getTimestampStartPosition(),
+					logFieldExtractor.getTimestampEndPosition());
+	if (intervalStart == AccessLogTimestampParser.INVALID) {
+		return false;
+	}
+
+	long numberOfBytes =
+			parseInt(line, logFieldExtractor.getNumberOfBytesStartPosition(),
+					logFieldExtractor.getNumberOfBytesEndPosition());
+	if (numberOfBytes == NOT_AN_INT) {
+		return false;
+	}
+
+	int tenantIdStart = logFieldExtractor.getTenantIdStartPosition();
+	int tenantIdEnd = logFieldExtractor.getTenantIdEndPosition();
+	long tenantId = parseInt(line, tenantIdStart, tenantIdEnd);
+	if (tenantId == NOT_AN_INT) {
+		// Integer.parseInt also takes digits that are not ASCII
+		if (!isAscii(line, tenantIdStart, tenantIdEnd)) {
+			try {
+				tenantId = Integer.parseInt(new String(line, tenantIdStart, tenantIdEnd - tenantIdStart));
+			} catch (NumberFormatException ex) {
+				return false;
+			}
+		} else {
+			return false;
+		}
+	}
+
+	if (tenantId == -1) {
+		return false;
+	}
+
+	addToBucket((int) tenantId, intervalStart, (int) numberOfBytes, mapBytesUsed);
+	if (intervalSketchMap != null) {
+		intervalSketchMap.add(intervalStart, (int) tenantId, numberOfBytes, line,
+				logFieldExtractor.getRemoteAddressStartPosition(), logFieldExtractor.getRemoteAddressEndPosition());
+	}
+	return true;
+}
+
+/**
+ * Reads an int held as ASCII bytes, as Integer.parseInt does: an optional sign, then one or more digits, in range
+ *
+ * @param bytes Bytes holding the int
+ * @param start Start of the int
+ * @param end End of the int (exclusive)
+ * @return the int, or NOT_AN_INT if the bytes are not one
+ */
+private static long parseInt(byte[] bytes, int start, int end) {
+	int position = start;
+	boolean negative = false;
+	if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+		negative = bytes[position] == '-';
+		position++;
+	}
+	if (position == end) {
+		return NOT_AN_INT;
+	}
+
+	long value = 0;
+	for (; position < end; position++) {
+		byte b = bytes[position];
+		if (b < '0' || b > '9') {
+			return NOT_AN_INT;
+		}
+		value = value * 10 + b - '0';
+		if (value > -(long) Integer.MIN_VALUE) {
+			return NOT_AN_INT;
+		}
+	}
+
+	value = negative ? -value : value;
+	return value > Integer.MAX_VALUE ? NOT_AN_INT : value;
+}
+
+/**
+ * Are bytes all ASCII?
+ *
+ * @param bytes Bytes
+ * @param start Start of the range
+ * @param end End of the range (exclusive)
+ * @return true if there is no byte above 0x7f
+ */
+private static boolean isAscii(byte[] bytes, int start, int end) {
+	for (int position = start; position < end; position++) {
+		if (bytes[position] < 0) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+ * Parses one access log line and, if it is a tenant request, adds its bytes to the bucket
+ *
+ * @param accessLogLine Line from the access log
+ * @param mapBytesUsed Map holding bytes used
+ * @return true if the line was added to a bucket. false if it was skipped.
+ * @throws IOException On error spilling the map to disk
+ */
+public boolean parseLine(String accessLogLine, BytesUsedAccumulator mapBytesUsed) throws IOException {
+
+	long startTime = parseStatistics.isSample() ? System.nanoTime() : -1;
+
+	if (!AccessLogTokenizer.prefilter(accessLogLine)) {
+		parseStatistics.addRejected(startTime == -1 ? -1 : System.nanoTime() - startTime);
+		return false;
+	}
+
+	// Lines in another format are only parsed as bytes
+	boolean added = false;
+	if (logFormat == null) {
+		added = addLine(accessLogLine, mapBytesUsed);
+	} else {
+		byte[] line = accessLogLine.getBytes();
+		added = addLine(line, 0, line.length, mapBytesUsed);
+	}
+
+	parseStatistics.addAccepted(added, startTime == -1 ? -1 : System.nanoTime() - startTime);
+	return added;
+}
+
+/**
+ * Finds the fields of a line that passed the prefilter and, if it is a tenant request, adds its bytes to the bucket
+ *
+ * @param accessLogLine Line from the access log
+ * @param mapBytesUsed Map holding bytes used
+ * @return true if the line was added to a bucket. false if it was skipped.
+ * @throws IOException On error spilling the map to disk
+ */
+private boolean addLine(String accessLogLine, BytesUsedAccumulator mapBytesUsed) throws IOException {
+
+	// Remote ip, filtered and counted in the sketches of distinct client addresses
+	String remoteIpAddress = null;
+
+	// Interval start date/time
+	String intervalStartString = null;
+
+	// Number of bytes delivered for the request
+	String numberOfBytesString = null;
+
+	// tenant id
+	String tenantIdString = null;
+
+	// There are two patterns to match against, and the tokenizer finds the fields as they do
+	if (!accessLogTokenizer.tokenize(accessLogLine)) {
+		// No match against either pattern. Skip this record.
+		return false;
+	}
+
+	remoteIpAddress = accessLogTokenizer.getRemoteAddress();
+	byte[] remoteIpAddressBytes = remoteIpAddress.getBytes();
+	if (isFiltered(remoteIpAddressBytes, 0, remoteIpAddressBytes.length)) {
+		return false;
+	}
+
+	intervalStartString = accessLogTokenizer.getTimestamp();
+
+	numberOfBytesString = accessLogTokenizer.getNumberOfBytes();
+
+	tenantIdString = accessLogTokenizer.getTenantId();
+
+	long intervalStart = accessLogTimestampParser.parseIntervalStart(intervalStartString);
+	if (intervalStart == AccessLogTimestampParser.INVALID) {
+		return false;
+	}
+
+	int numberOfBytes = 0;
+	try {
+		numberOfBytes = Integer.parseInt(numberOfBytesString);
+	} catch (NumberFormatException ex) {
+		return false;
+	}
+
+	int tenantId = 0;
+	try {
+		tenantId = Integer.parseInt(tenantIdString);
+	} catch (NumberFormatException ex) {
+		return false;
+	}
+
+	if (tenantId == -1) {
+		return false;
+	}
+
+	addToBucket(tenantId, intervalStart, numberOfBytes, mapBytesUsed);
+	if (intervalSketchMap != null) {
+		intervalSketchMap.add(intervalStart, tenantId, numberOfBytes, remoteIpAddressBytes, 0,
+				remoteIpAddressBytes.length);
+	}
+	return true;
+}
+
+/**
+ * Is the client address of a tenant request one whose requests are skipped? If so, the line is counted as filtered.
+ *
+ * @param bytes Bytes holding the client address
+ * @param start Start of the client address, or -1 if the line has none
+ * @param end End of the client address (exclusive)
+ * @return true if the request should be skipped
+ */
+private boolean isFiltered(byte[] bytes, int start, int end) {
+	if (ipFilterMatcher == null || start == -1 || !ipFilterMatcher.matches(bytes, start, end)) {
+		return false;
+	}
+	parseStatistics.addFiltered();
+	return true;
+}
+
+/**
+ * Adds the bytes of a tenant request to its bucket of each interval duration
+ *
+ * @param tenantId Tenant id
+ * @param commonIntervalStart Start of its interval of the duration all the durations are multiples of, in
+ *            milliseconds since the epoch
+ * @param numberOfBytes Number of bytes delivered for the request
+ * @param mapBytesUsed Map holding bytes used
+ * @throws IOException On error spilling the map to disk
+ */
+private void addToBucket(int tenantId, long commonIntervalStart, int numberOfBytes, BytesUsedAccumulator mapBytesUsed)
+		throws IOException {
+	for (int intervalDuration : intervalDurations) {
+		mapBytesUsed.add(tenantId, commonIntervalStart, intervalDuration, numberOfBytes);
+	}
+}
+
+/**
+ * Gets intervalSketchMap
+ *
+ * @return Sketches of each interval that tenant requests are added to, or null if none are kept
+ */
+public IntervalSketchMap getIntervalSketchMap() {
+	return intervalSketchMap;
+}
+
+/**
+ * Gets parseStatistics
+ *
+ * @return Lines parsed, and how long they took
+ */
+public ParseStatistics getParseStatistics() {
+	return parseStatistics;
+}
+}
@@ -0,0 +1,351 @@
+package com.att.paas.lj.webextract;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Turns access log timestamps, "[dd/MMM/yyyy:HH:mm:ss Z", into the start of their interval. The fields are read from
+ * their fixed positions rather than with a SimpleDateFormat, and a timestamp in the same second, or the same minute,
+ * as the last one (as most lines in a log are) needs little work. A timestamp held as bytes is parsed where it is, with
+ * nothing allocated unless its second is new. A timestamp that is not in the fixed layout is left to a
+ * SimpleDateFormat. An instance can be shared by threads parsing at the same time.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class AccessLogTimestampParser {
+
+/** Returned for a timestamp that can't be parsed */
+public static final long INVALID = Long.MIN_VALUE;
+
+/** Date format in web access logs, for timestamps that are not in the fixed layout */
+private static final String ACCESS_LOG_DATE_FORMAT = "[dd/MMM/yyyy:HH:mm:ss Z";
+
+/** Month abbreviations, in lower case */
+private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov",
+		"dec" };
+
+/** Length of the fixed layout, "[dd/MMM/yyyy:HH:mm:ss +hhmm" */
+private static final int LAYOUT_LENGTH = 27;
+
+/** Position of the seconds in the fixed layout. Everything before them is the minute. */
+private static final int SECOND_POSITION = 19;
+
+/** Position of the time zone in the fixed layout, after the seconds and a space */
+private static final int ZONE_POSITION = 22;
+
+/** Interval duration, in seconds */
+private final long intervalSeconds;
+
+/** The last timestamp parsed in the fixed layout. Replaced, never changed, so threads can share it. */
+private volatile CachedTimestamp cachedTimestamp = null;
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationArg Interval duration, in minutes
+ */
+public AccessLogTimestampParser(int intervalDurationArg) {
+	this.intervalSeconds = intervalDurationArg * 60L;
+}
+
+/**
+ * Gets the start of the interval a timestamp held as bytes is in. Nothing is allocated unless the timestamp is in a
+ * different second to the last one.
+ *
+ * @param timestamp Bytes holding the timestamp from the access log, starting with its "[". Anything after the time
+ *            zone is ignored.
+ * @param start Start of the timestamp
+ * @param end End of the timestamp (exclusive)
+ * @return Start of the interval, in milliseconds since the epoch, or INVALID if the timestamp can't be parsed
+ */
+public long parseIntervalStart(byte[] timestamp, int start, int end) {
+	long intervalStart = parseFixedLayoutCached(timestamp, start, end);
+	if (intervalStart == INVALID) {
+		return parseOtherLayout(new String(timestamp, start, end - start));
+	}
+	return intervalStart;
+}
+
+/**
+ * Gets the start of the interval a timestamp is in
+ *
+ * @param timestamp Timestamp from the access log, starting with its "[". Anything after the time zone is ignored.
+ * @return Start of the interval, in milliseconds since the epoch, or INVALID if the timestamp can't be parsed
+ */
+public long parseIntervalStart(String timestamp) {
+	if (timestamp.length() >= LAYOUT_LENGTH) {
+		// Characters that are not ASCII can't be part of the fixed layout
+		byte[] bytes = new byte[LAYOUT_LENGTH];
+		for (int i = 0; i < LAYOUT_LENGTH; i++) {
+			char c = timestamp.charAt(i);
+			bytes[i] = c < 0x80 ? (byte) c : (byte) '?';
+		}
+		long intervalStart = parseFixedLayoutCached(bytes, 0, LAYOUT_LENGTH);
+		if (intervalStart != INVALID) {
+			return intervalStart;
+		}
+	}
+	return parseOtherLayout(timestamp);
+}
+
+/**
+ * Gets the start of the interval a timestamp in the fixed layout is in, from the last timestamp if it is in the same
+ * second or minute
+ *
+ * @param timestamp Bytes holding the timestamp
+ * @param start Start of the timestamp
+ * @param end End of the timestamp (exclusive)
+ * @return Start of the interval, in milliseconds since the epoch, or INVALID if the timestamp is not in the fixed
+ *         layout
+ */
+private long parseFixedLayoutCached(byte[] timestamp, int start, int end) {
+	if (end - start < LAYOUT_LENGTH) {
+		return INVALID;
+	}
+
+	CachedTimestamp cached = cachedTimestamp;
+
+	// Same second as the last timestamp
+	if (cached != null && regionMatches(timestamp, start, cached.timestamp, 0, LAYOUT_LENGTH)) {
+		return cached.intervalStart;
+	}
+
+	long epochSecond = INVALID;
+	if (cached != null && regionMatches(timestamp, start, cached.timestamp, 0, SECOND_POSITION)
+			&& regionMatches(timestamp, start + ZONE_POSITION - 1, cached.timestamp, ZONE_POSITION - 1, LAYOUT_LENGTH
+					- ZONE_POSITION + 1)) {
+
+		// Same minute as the last timestamp, so only the seconds need reading
+		int second = parseDigits(timestamp, start + SECOND_POSITION, 2);
+		if (second != -1) {
+			epochSecond = cached.minuteEpochSecond + second;
+		}
+	} else {
+		epochSecond = parseFixedLayout(timestamp, start);
+	}
+
+	if (epochSecond == INVALID) {
+		return INVALID;
+	}
+
+	long intervalStart = getIntervalStart(epochSecond);
+	byte[] timestampCopy = new byte[LAYOUT_LENGTH];
+	System.arraycopy(timestamp, start, timestampCopy, 0, LAYOUT_LENGTH);
+	cachedTimestamp =
+			new CachedTimestamp(timestampCopy, epochSecond - parseDigits(timestamp, start + SECOND_POSITION, 2),
+					intervalStart);
+	return intervalStart;
+}
+
+/**
+ * Are two ranges of bytes the same?
+ *
+ * @param bytes1 First bytes
+ * @param start1 Start of the range in bytes1
+ * @param bytes2 Second bytes
+ * @param start2 Start of the range in bytes2
+ * @param length Length of the ranges
+ * @return true if they are the same
+ */
+private static boolean regionMatches(byte[] bytes1, int start1, byte[] bytes2, int start2, int length) {
+	for (int i = 0; i < length; i++) {
+		if (bytes1[start1 + i] != bytes2[start2 + i]) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+ * Gets the start of the interval a time is in
+ *
+ * @param epochSecond Time, in seconds since the epoch
+ * @return Start of the interval, in milliseconds since the epoch
+ */
+private long getIntervalStart(long epochSecond) {
+	long interval = epochSecond / intervalSeconds;
+	if (epochSecond < 0 && epochSecond % intervalSeconds != 0) {
+		interval--;
+	}
+	return interval * intervalSeconds * 1000;
+}
+
+/**
+ * Gets the start of the interval a time is in
+ *
+ * @param time Time, in milliseconds since the epoch
+ * @param intervalDuration Interval duration, in minutes
+ * @return Start of the interval, in milliseconds since the epoch
+ */
+public static long getIntervalStart(long time, int intervalDuration) {
+	long intervalMillis = intervalDuration * 60000L;
+	long interval = time / intervalMillis;
+	if (time < 0 && time % intervalMillis != 0) {
+		interval--;
+	}
+	return interval * intervalMillis;
+}
+
+/**
+ * Gets the longest interval duration that all of some interval durations are whole multiples of. An interval of it
+ * is always inside one interval of each of them, so a time can be put in its interval of this duration once, and
+ * then into its interval of each duration from there.
+ *
+ * @param intervalDurations Interval durations, in minutes
+ * @return their greatest common divisor, in minutes
+ */
+public static int getCommonIntervalDuration(int[] intervalDurations) {
+	int common = 0;
+	for (int intervalDuration : intervalDurations) {
+		int a = common;
+		int b = intervalDuration;
+		while (b != 0) {
+			int remainder = a % b;
+			a = b;
+			b = remainder;
+		}
+		common = a;
+	}
+	return common;
+}
+
+/**
+ * Reads a timestamp in the fixed layout, "[dd/MMM/yyyy:HH:mm:ss +hhmm"
+ *
+ * @param timestamp Bytes holding the timestamp, at least LAYOUT_LENGTH of them from start
+ * @param start Start of the timestamp
+ * @return Seconds since the epoch, or INVALID if the timestamp is not in the fixed layout
+ */
+private static long parseFixedLayout(byte[] timestamp, int start) {
+	if (timestamp[start] != '[' || timestamp[start + 3] != '/' || timestamp[start + 7] != '/'
+			|| timestamp[start + 12] != ':' || timestamp[start + 15] != ':' || timestamp[start + 18] != ':'
+			|| timestamp[start + 21] != ' ') {
+		return INVALID;
+	}
+
+	int day = parseDigits(timestamp, start + 1, 2);
+	int month = parseMonth(timestamp, start + 4);
+	int year = parseDigits(timestamp, start + 8, 4);
+	int hour = parseDigits(timestamp, start + 13, 2);
+	int minute = parseDigits(timestamp, start + 16, 2);
+	int second = parseDigits(timestamp, start + SECOND_POSITION, 2);
+	int zoneHours = parseDigits(timestamp, start + ZONE_POSITION + 1, 2);
+	int zoneMinutes = parseDigits(timestamp, start + ZONE_POSITION + 3, 2);
+	byte zoneSign = timestamp[start + ZONE_POSITION];
+	if (day == -1 || month == -1 || year == -1 || hour == -1 || minute == -1 || second == -1 || zoneHours == -1
+			|| zoneMinutes == -1 || (zoneSign != '+' && zoneSign != '-')) {
+		return INVALID;
+	}
+
+	// Fields out of their range carry over, as a lenient SimpleDateFormat does
+	long zoneOffset = (zoneHours * 60 + zoneMinutes) * 60;
+	return (getEpochDay(year, month) + day - 1) * 86400 + hour * 3600 + minute * 60 + second
+			- (zoneSign == '+' ? zoneOffset : -zoneOffset);
+}
+
+/**
+ * Gets the day since the epoch that a month starts on, in the proleptic Gregorian calendar
+ *
+ * @param year Year
+ * @param month Month, 1 to 12
+ * @return Days from 1970-01-01 to the first of the month
+ */
+private static long getEpochDay(int year, int month) {
+	// Years start in March, so the leap day is at the end of the year
+	long y = month <= 2 ? year - 1 : year;
+	long era = (y >= 0 ? y : y - 399) / 400;
+	long yearOfEra = y - era * 400;
+	long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+	long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+	return era * 146097 + dayOfEra - 719468;
+}
+
+/**
+ * Reads ASCII digits at a position
+ *
+ * @param timestamp Bytes holding the timestamp
+ * @param position Position of the first digit
+ * @param count Number of digits
+ * @return their value, or -1 if they are not all digits
+ */
+private static int parseDigits(byte[] timestamp, int position, int count) {
+	int value = 0;
+	for (int i = position; i < position + count; i++) {
+		byte b = timestamp[i];
+		if (b < '0' || b > '9') {
+			return -1;
+		}
+		value = value * 10 + b - '0';
+	}
+	return value;
+}
+
+/**
+ * Reads an English month abbreviation at a position, in any case
+ *
+ * @param timestamp Bytes holding the timestamp
+ * @param position Position of the abbreviation
+ * @return Month, 1 to 12, or -1 if it is not a month abbreviation
+ */
+private static int parseMonth(byte[] timestamp, int position) {
+	// Setting the 0x20 bit makes ASCII letters lower case, and makes nothing else a lower case letter
+	int b0 = timestamp[position] | 0x20;
+	int b1 = timestamp[position + 1] | 0x20;
+	int b2 = timestamp[position + 2] | 0x20;
+	for (int i = 0; i < MONTHS.length; i++) {
+		if (b0 == MONTHS[i].charAt(0) && b1 == MONTHS[i].charAt(1) && b2 == MONTHS[i].charAt(2)) {
+			return i + 1;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Parses a timestamp that is not in the fixed layout (e.g. a month name in full) with a SimpleDateFormat. Logs
+ * written by Apache don't have any, so this is not made fast.
+ *
+ * @param timestamp Timestamp from the access log
+ * @return Start of the interval, in milliseconds since the epoch, or INVALID if the timestamp can't be parsed
+ */
+private long parseOtherLayout(String timestamp) {
+	try {
+		long time = new SimpleDateFormat(ACCESS_LOG_DATE_FORMAT, Locale.ENGLISH).parse(timestamp).getTime();
+		long epochSecond = time / 1000;
+		if (time < 0 && time % 1000 != 0) {
+			epochSecond--;
+		}
+		return getIntervalStart(epochSecond);
+	} catch (ParseException ex) {
+		return INVALID;
+	}
+}
+
+/**
+ * A timestamp in the fixed layout, with its minute and interval
+ */
+private static class CachedTimestamp {
+
+/** Timestamp, as it was in the access log, in the fixed layout */
+private final byte[] timestamp;
+
+/** Start of its minute, in seconds since the epoch */
+private final long minuteEpochSecond;
+
+/** Start of its interval, in milliseconds since the epoch */
+private final long intervalStart;
+
+/**
+ * Constructor.
+ *
+ * @param timestampArg Timestamp, as it was in the access log, in the fixed layout
+ * @param minuteEpochSecondArg Start of its minute, in seconds since the epoch
+ * @param intervalStartArg Start of its interval, in milliseconds since the epoch
+ */
+CachedTimestamp(byte[] timestampArg, long minuteEpochSecondArg, long intervalStartArg) {
+	this.timestamp = timestampArg;
+	this.minuteEpochSecond = minuteEpochSecondArg;
+	this.intervalStart = intervalStartArg;
+}
+}
+}
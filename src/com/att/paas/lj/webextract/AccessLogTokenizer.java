@@ -0,0 +1,744 @@
+package com.att.paas.lj.webextract;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.att.paas.lj.webextract.util.ByteSearcher;
+
+/**
+ * Finds the fields of a tenant request in an access log line: remote address, timestamp, byte count and tenant id.
+ * It accepts exactly the lines the two patterns below accept, and finds the same fields in them, but with a single
+ * left to right scan for literals instead of the backtracking the patterns' reluctant groups need. The tenant id is in
+ * the referer when the page requested has it (pattern 1), or in the request itself (pattern 2). A line that has any
+ * line terminator other than a final newline in it, which the patterns' "." does not match, is left to the patterns.
+ * Lines can also be tokenized as bytes, in which case the fields are given as positions in the line rather than as
+ * strings. An instance holds the fields of the last line, so it is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class AccessLogTokenizer implements LogFieldExtractor {
+
+/** This pattern is when the request for a page has the tenant id */
+static final Pattern PATTERN1 =
+		Pattern.compile("(.*?) - - (\\[.*?\\]) \".*?\" \\d*? (\\d*?) \"http://.*?/networking/Service\\?.*?[\\&\\?]id=(.*?)[\\&\"].*");
+
+/** This is when the referring page has the tenant id */
+static final Pattern PATTERN2 =
+		Pattern.compile("(.*?) - - (\\[.*?\\]) \"GET /networking/Service\\?.*?[\\&\\?]id=(.*?)[\\&\"].*? \\d*? (\\d*?) .*");
+
+/** Ends the remote address, and starts the timestamp */
+private static final String REMOTE_ADDRESS_END = " - - [";
+
+/** Ends the timestamp, and starts the request */
+private static final String TIMESTAMP_END = "] \"";
+
+/** Starts a referer that can have the tenant id */
+private static final String REFERER_START = " \"http://";
+
+/** Ends the timestamp, with the start of a request that can have the tenant id */
+private static final String TIMESTAMP_END_SERVICE_REQUEST = "] \"GET /networking/Service?";
+
+/** Path of the page that has the tenant id */
+private static final String SERVICE_PATH = "/networking/Service?";
+
+/** Name of the tenant id parameter */
+private static final String TENANT_ID_PARAMETER = "id=";
+
+/** Finds " - - [" in bytes */
+private static final ByteSearcher REMOTE_ADDRESS_END_SEARCHER = new ByteSearcher(REMOTE_ADDRESS_END);
+
+/** Finds "] \"" in bytes */
+private static final ByteSearcher TIMESTAMP_END_SEARCHER = new ByteSearcher(TIMESTAMP_END);
+
+/** " \"http://" as bytes */
+private static final byte[] REFERER_START_BYTES = toBytes(REFERER_START);
+
+/** Finds "] \"GET /networking/Service?" in bytes */
+private static final ByteSearcher TIMESTAMP_END_SERVICE_REQUEST_SEARCHER = new ByteSearcher(
+		TIMESTAMP_END_SERVICE_REQUEST);
+
+/** Finds "/networking/Service?" in bytes */
+private static final ByteSearcher SERVICE_PATH_SEARCHER = new ByteSearcher(SERVICE_PATH);
+
+/** Finds "id=" in bytes */
+private static final ByteSearcher TENANT_ID_PARAMETER_SEARCHER = new ByteSearcher(TENANT_ID_PARAMETER);
+
+/** Remote address of the last line */
+private String remoteAddress;
+
+/** Timestamp of the last line, with its brackets */
+private String timestamp;
+
+/** Number of bytes delivered for the last line */
+private String numberOfBytes;
+
+/** Tenant id of the last line */
+private String tenantId;
+
+/** Start of the remote address in the last line tokenized as bytes, which is the start of the line */
+private int remoteAddressStartPosition;
+
+/** End of the remote address in the last line tokenized as bytes */
+private int remoteAddressEndPosition;
+
+/** Start of the timestamp in the last line tokenized as bytes, at its "[" */
+private int timestampStartPosition;
+
+/** End of the timestamp in the last line tokenized as bytes, after its "]" */
+private int timestampEndPosition;
+
+/** Start of the number of bytes in the last line tokenized as bytes */
+private int numberOfBytesStartPosition;
+
+/** End of the number of bytes in the last line tokenized as bytes */
+private int numberOfBytesEndPosition;
+
+/** Start of the tenant id in the last line tokenized as bytes */
+private int tenantIdStartPosition;
+
+/** End of the tenant id in the last line tokenized as bytes */
+private int tenantIdEndPosition;
+
+/**
+ * Finds the fields of a line
+ *
+ * @param line Line from the access log, without its line terminator
+ * @return true if the line is a tenant request. Its fields can then be got.
+ */
+public boolean tokenize(String line) {
+	if (hasLineTerminator(line)) {
+		return matchPatterns(line);
+	}
+
+	if (!prefilter(line)) {
+		return false;
+	}
+
+	// The remote address is everything before the first " - - [". A later one could only match less.
+	int remoteAddressEnd = line.indexOf(REMOTE_ADDRESS_END);
+	if (remoteAddressEnd == -1) {
+		return false;
+	}
+	int timestampStart = remoteAddressEnd + REMOTE_ADDRESS_END.length() - 1;
+
+	return tokenizeReferer(line, remoteAddressEnd, timestampStart)
+			|| tokenizeRequest(line, remoteAddressEnd, timestampStart);
+}
+
+/**
+ * Could a line be a tenant request? Both patterns need the service path, and the tenant id parameter after it. Most
+ * lines have neither.
+ *
+ * @param line Line from the access log
+ * @return false if the line can't be a tenant request
+ */
+public static boolean prefilter(String line) {
+	int servicePathStart = line.indexOf(SERVICE_PATH);
+	return servicePathStart != -1 && line.indexOf(TENANT_ID_PARAMETER, servicePathStart + SERVICE_PATH.length()) != -1;
+}
+
+/**
+ * Finds the fields of a line where the referer has the tenant id, as pattern 1 does. The first timestamp end, and the
+ * first request end that is followed by a status, byte count and http referer, are the ones pattern 1 settles on;
+ * later ones leave less of the line to find the tenant id in.
+ *
+ * @param line Line from the access log
+ * @param remoteAddressEnd Position of the first " - - ["
+ * @param timestampStart Position of the "[" starting the timestamp
+ * @return true if the line matches pattern 1, even if the fields turn out not to be valid
+ */
+private boolean tokenizeReferer(String line, int remoteAddressEnd, int timestampStart) {
+	int timestampEnd = line.indexOf(TIMESTAMP_END, timestampStart + 1);
+	if (timestampEnd == -1) {
+		return false;
+	}
+
+	// The request ends at the first quote followed by ' <status> <bytes> "http://'. Status and bytes may be empty.
+	int length = line.length();
+	for (int requestEnd = line.indexOf('"', timestampEnd + TIMESTAMP_END.length()); requestEnd != -1; requestEnd =
+			line.indexOf('"', requestEnd + 1)) {
+
+		if (requestEnd + 1 >= length || line.charAt(requestEnd + 1) != ' ') {
+			continue;
+		}
+		int statusEnd = skipDigits(line, requestEnd + 2);
+		if (statusEnd >= length || line.charAt(statusEnd) != ' ') {
+			continue;
+		}
+		int bytesEnd = skipDigits(line, statusEnd + 1);
+		if (!line.startsWith(REFERER_START, bytesEnd)) {
+			continue;
+		}
+
+		// The tenant id is the first id= parameter after the service path in the rest of the line
+		int servicePathStart = line.indexOf(SERVICE_PATH, bytesEnd + REFERER_START.length());
+		if (servicePathStart == -1) {
+			return false;
+		}
+		int tenantIdStart = findTenantId(line, servicePathStart + SERVICE_PATH.length());
+		if (tenantIdStart == -1) {
+			return false;
+		}
+		int tenantIdEnd = findParameterEnd(line, tenantIdStart);
+		if (tenantIdEnd == -1) {
+			return false;
+		}
+
+		remoteAddress = line.substring(0, remoteAddressEnd);
+		timestamp = line.substring(timestampStart, timestampEnd + 1);
+		numberOfBytes = line.substring(statusEnd + 1, bytesEnd);
+		tenantId = line.substring(tenantIdStart, tenantIdEnd);
+		return true;
+	}
+
+	return false;
+}
+
+/**
+ * Finds the fields of a line where the request has the tenant id, as pattern 2 does. The request must follow the
+ * first timestamp end that is followed by the service request.
+ *
+ * @param line Line from the access log
+ * @param remoteAddressEnd Position of the first " - - ["
+ * @param timestampStart Position of the "[" starting the timestamp
+ * @return true if the line matches pattern 2, even if the fields turn out not to be valid
+ */
+private boolean tokenizeRequest(String line, int remoteAddressEnd, int timestampStart) {
+	int timestampEnd = line.indexOf(TIMESTAMP_END_SERVICE_REQUEST, timestampStart + 1);
+	if (timestampEnd == -1) {
+		return false;
+	}
+
+	int tenantIdStart = findTenantId(line, timestampEnd + TIMESTAMP_END_SERVICE_REQUEST.length());
+	if (tenantIdStart == -1) {
+		return false;
+	}
+	int tenantIdEnd = findParameterEnd(line, tenantIdStart);
+	if (tenantIdEnd == -1) {
+		return false;
+	}
+
+	// The byte count is in the first ' <status> <bytes> ' after the tenant id. Status and bytes may be empty.
+	int length = line.length();
+	for (int statusStart = line.indexOf(' ', tenantIdEnd + 1); statusStart != -1; statusStart =
+			line.indexOf(' ', statusStart + 1)) {
+
+		int statusEnd = skipDigits(line, statusStart + 1);
+		if (statusEnd >= length || line.charAt(statusEnd) != ' ') {
+			continue;
+		}
+		int bytesEnd = skipDigits(line, statusEnd + 1);
+		if (bytesEnd >= length || line.charAt(bytesEnd) != ' ') {
+			continue;
+		}
+
+		remoteAddress = line.substring(0, remoteAddressEnd);
+		timestamp = line.substring(timestampStart, timestampEnd + 1);
+		numberOfBytes = line.substring(statusEnd + 1, bytesEnd);
+		tenantId = line.substring(tenantIdStart, tenantIdEnd);
+		return true;
+	}
+
+	return false;
+}
+
+/**
+ * Finds the first "&id=" or "?id=" from a position
+ *
+ * @param line Line from the access log
+ * @param from Position to start at
+ * @return Position of the tenant id value, or -1 if there is none
+ */
+private static int findTenantId(String line, int from) {
+	for (int position = line.indexOf(TENANT_ID_PARAMETER, from + 1); position != -1; position =
+			line.indexOf(TENANT_ID_PARAMETER, position + 1)) {
+		char separator = line.charAt(position - 1);
+		if (separator == '&' || separator == '?') {
+			return position + TENANT_ID_PARAMETER.length();
+		}
+	}
+	return -1;
+}
+
+/**
+ * Finds the first "&" or quote from a position, which ends a parameter value
+ *
+ * @param line Line from the access log
+ * @param from Position to start at
+ * @return Position of the end, or -1 if there is none
+ */
+private static int findParameterEnd(String line, int from) {
+	int length = line.length();
+	for (int position = from; position < length; position++) {
+		char c = line.charAt(position);
+		if (c == '&' || c == '"') {
+			return position;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Skips ASCII digits, as \d matches
+ *
+ * @param line Line from the access log
+ * @param from Position to start at
+ * @return Position of the first character that is not a digit, or the length of the line
+ */
+private static int skipDigits(String line, int from) {
+	int length = line.length();
+	int position = from;
+	while (position < length && line.charAt(position) >= '0' && line.charAt(position) <= '9') {
+		position++;
+	}
+	return position;
+}
+
+/**
+ * Does a line have a character the patterns' "." does not match?
+ *
+ * @param line Line from the access log
+ * @return true if it has a line terminator in it
+ */
+private static boolean hasLineTerminator(String line) {
+	int length = line.length();
+	for (int position = 0; position < length; position++) {
+		char c = line.charAt(position);
+		if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+			return true;
+		}
+	}
+	return false;
+}
+
+/**
+ * Could a line held as bytes be a tenant request? Both patterns need the service path, and the tenant id parameter
+ * after it, and most lines have neither, so this rejects most lines after looking at a fraction of their bytes. It
+ * only looks for ASCII, so a line it rejects would be rejected by tokenize() however it is decoded.
+ *
+ * @param line Bytes holding the line from the access log
+ * @param start Start of the line
+ * @param end End of the line (exclusive)
+ * @return false if the line can't be a tenant request
+ */
+public static boolean prefilter(byte[] line, int start, int end) {
+	int servicePathStart = SERVICE_PATH_SEARCHER.indexOf(line, start, end);
+	return servicePathStart != -1
+			&& TENANT_ID_PARAMETER_SEARCHER.indexOf(line, servicePathStart + SERVICE_PATH_SEARCHER.length(), end) != -1;
+}
+
+/**
+ * Finds the fields of a line held as bytes, in the same way as tokenize(String) does for the line decoded. All the
+ * text looked for is ASCII, so this gives the same fields for any ASCII compatible encoding. The line must not have a
+ * line terminator in it (see hasLineTerminator); such a line must be decoded and tokenized as a string. Lines should
+ * be passed through prefilter() first, as this does not reject lines as quickly.
+ *
+ * @param line Bytes holding the line from the access log
+ * @param start Start of the line
+ * @param end End of the line (exclusive), without its line terminator
+ * @return true if the line is a tenant request. The positions of its fields can then be got.
+ */
+public boolean tokenize(byte[] line, int start, int end) {
+	// The remote address is everything before the first " - - [". A later one could only match less.
+	remoteAddressStartPosition = start;
+	int remoteAddressEnd = REMOTE_ADDRESS_END_SEARCHER.indexOf(line, start, end);
+	if (remoteAddressEnd == -1) {
+		return false;
+	}
+	int timestampStart = remoteAddressEnd + REMOTE_ADDRESS_END_SEARCHER.length() - 1;
+
+	return tokenizeReferer(line, end, remoteAddressEnd, timestampStart)
+			|| tokenizeRequest(line, end, remoteAddressEnd, timestampStart);
+}
+
+/**
+ * Finds the fields of a line held as bytes where the referer has the tenant id, as tokenizeReferer(String, ...) does
+ *
+ * @param line Bytes holding the line from the access log
+ * @param end End of the line (exclusive)
+ * @param remoteAddressEnd Position of the first " - - ["
+ * @param timestampStart Position of the "[" starting the timestamp
+ * @return true if the line matches pattern 1, even if the fields turn out not to be valid
+ */
+private boolean tokenizeReferer(byte[] line, int end, int remoteAddressEnd, int timestampStart) {
+	int timestampEnd = TIMESTAMP_END_SEARCHER.indexOf(line, timestampStart + 1, end);
+	if (timestampEnd == -1) {
+		return false;
+	}
+
+	// The request ends at the first quote followed by ' <status> <bytes> "http://'. Status and bytes may be empty.
+	for (int requestEnd = indexOf(line, (byte) '"', timestampEnd + TIMESTAMP_END_SEARCHER.length(), end);
+			requestEnd != -1; requestEnd = indexOf(line, (byte) '"', requestEnd + 1, end)) {
+
+		if (requestEnd + 1 >= end || line[requestEnd + 1] != ' ') {
+			continue;
+		}
+		int statusEnd = skipDigits(line, requestEnd + 2, end);
+		if (statusEnd >= end || line[statusEnd] != ' ') {
+			continue;
+		}
+		int bytesEnd = skipDigits(line, statusEnd + 1, end);
+		if (!startsWith(line, REFERER_START_BYTES, bytesEnd, end)) {
+			continue;
+		}
+
+		// The tenant id is the first id= parameter after the service path in the rest of the line
+		int servicePathStart = SERVICE_PATH_SEARCHER.indexOf(line, bytesEnd + REFERER_START_BYTES.length, end);
+		if (servicePathStart == -1) {
+			return false;
+		}
+		int tenantIdStart = findTenantId(line, servicePathStart + SERVICE_PATH_SEARCHER.length(), end);
+		if (tenantIdStart == -1) {
+			return false;
+		}
+		int tenantIdEnd = findParameterEnd(line, tenantIdStart, end);
+		if (tenantIdEnd == -1) {
+			return false;
+		}
+
+		setPositions(remoteAddressEnd, timestampStart, timestampEnd + 1, statusEnd + 1, bytesEnd, tenantIdStart,
+				tenantIdEnd);
+		return true;
+	}
+
+	return false;
+}
+
+/**
+ * Finds the fields of a line held as bytes where the request has the tenant id, as tokenizeRequest(String, ...) does
+ *
+ * @param line Bytes holding the line from the access log
+ * @param end End of the line (exclusive)
+ * @param remoteAddressEnd Position of the first " - - ["
+ * @param timestampStart Position of the "[" starting the timestamp
+ * @return true if the line matches pattern 2, even if the fields turn out not to be valid
+ */
+private boolean tokenizeRequest(byte[] line, int end, int remoteAddressEnd, int timestampStart) {
+	int timestampEnd = TIMESTAMP_END_SERVICE_REQUEST_SEARCHER.indexOf(line, timestampStart + 1, end);
+	if (timestampEnd == -1) {
+		return false;
+	}
+
+	int tenantIdStart = findTenantId(line, timestampEnd + TIMESTAMP_END_SERVICE_REQUEST_SEARCHER.length(), end);
+	if (tenantIdStart == -1) {
+		return false;
+	}
+	int tenantIdEnd = findParameterEnd(line, tenantIdStart, end);
+	if (tenantIdEnd == -1) {
+		return false;
+	}
+
+	// The byte count is in the first ' <status> <bytes> ' after the tenant id. Status and bytes may be empty.
+	for (int statusStart = indexOf(line, (byte) ' ', tenantIdEnd + 1, end); statusStart != -1; statusStart =
+			indexOf(line, (byte) ' ', statusStart + 1, end)) {
+
+		int statusEnd = skipDigits(line, statusStart + 1, end);
+		if (statusEnd >= end || line[statusEnd] != ' ') {
+			continue;
+		}
+		int bytesEnd = skipDigits(line, statusEnd + 1, end);
+		if (bytesEnd >= end || line[bytesEnd] != ' ') {
+			continue;
+		}
+
+		setPositions(remoteAddressEnd, timestampStart, timestampEnd + 1, statusEnd + 1, bytesEnd, tenantIdStart,
+				tenantIdEnd);
+		return true;
+	}
+
+	return false;
+}
+
+/**
+ * Sets the positions of the fields of a line tokenized as bytes
+ *
+ * @param remoteAddressEnd End of the remote address
+ * @param timestampStart Start of the timestamp
+ * @param timestampEnd End of the timestamp
+ * @param numberOfBytesStart Start of the number of bytes
+ * @param numberOfBytesEnd End of the number of bytes
+ * @param tenantIdStart Start of the tenant id
+ * @param tenantIdEnd End of the tenant id
+ */
+private void setPositions(int remoteAddressEnd, int timestampStart, int timestampEnd, int numberOfBytesStart,
+		int numberOfBytesEnd, int tenantIdStart, int tenantIdEnd) {
+	this.remoteAddressEndPosition = remoteAddressEnd;
+	this.timestampStartPosition = timestampStart;
+	this.timestampEndPosition = timestampEnd;
+	this.numberOfBytesStartPosition = numberOfBytesStart;
+	this.numberOfBytesEndPosition = numberOfBytesEnd;
+	this.tenantIdStartPosition = tenantIdStart;
+	this.tenantIdEndPosition = tenantIdEnd;
+}
+
+/**
+ * Finds the first "&id=" or "?id=" from a position in a line held as bytes
+ *
+ * @param line Bytes holding the line
+ * @param from Position to start at
+ * @param end End of the line (exclusive)
+ * @return Position of the tenant id value, or -1 if there is none
+ */
+private static int findTenantId(byte[] line, int from, int end) {
+	for (int position = TENANT_ID_PARAMETER_SEARCHER.indexOf(line, from + 1, end); position != -1; position =
+			TENANT_ID_PARAMETER_SEARCHER.indexOf(line, position + 1, end)) {
+		byte separator = line[position - 1];
+		if (separator == '&' || separator == '?') {
+			return position + TENANT_ID_PARAMETER_SEARCHER.length();
+		}
+	}
+	return -1;
+}
+
+/**
+ * Finds the first "&" or quote from a position in a line held as bytes
+ *
+ * @param line Bytes holding the line
+ * @param from Position to start at
+ * @param end End of the line (exclusive)
+ * @return Position of the end, or -1 if there is none
+ */
+private static int findParameterEnd(byte[] line, int from, int end) {
+	for (int position = from; position < end; position++) {
+		byte b = line[position];
+		if (b == '&' || b == '"') {
+			return position;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Skips ASCII digits in a line held as bytes
+ *
+ * @param line Bytes holding the line
+ * @param from Position to start at
+ * @param end End of the line (exclusive)
+ * @return Position of the first byte that is not a digit, or end
+ */
+private static int skipDigits(byte[] line, int from, int end) {
+	int position = from;
+	while (position < end && line[position] >= '0' && line[position] <= '9') {
+		position++;
+	}
+	return position;
+}
+
+/**
+ * Finds a byte in a line held as bytes
+ *
+ * @param line Bytes holding the line
+ * @param b Byte to find
+ * @param from Position to start at
+ * @param end End of the line (exclusive)
+ * @return Position of the byte, or -1 if it is not there
+ */
+private static int indexOf(byte[] line, byte b, int from, int end) {
+	for (int position = from; position < end; position++) {
+		if (line[position] == b) {
+			return position;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Are bytes at a position in a line held as bytes?
+ *
+ * @param line Bytes holding the line
+ * @param target Bytes to look for
+ * @param position Position to look at
+ * @param end End of the line (exclusive)
+ * @return true if the line has the bytes at the position
+ */
+private static boolean startsWith(byte[] line, byte[] target, int position, int end) {
+	if (position + target.length > end) {
+		return false;
+	}
+	for (int i = 0; i < target.length; i++) {
+		if (line[position + i] != target[i]) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+ * Might a line held as bytes have a character the patterns' "." does not match, once decoded? A carriage return, and
+ * any 0x85 byte (NEL in ISO-8859-1, and part of NEL in UTF-8) or UTF-8 LINE or PARAGRAPH SEPARATOR, count. Such lines
+ * are rare, and are left to tokenize(String).
+ *
+ * @param line Bytes holding the line
+ * @param start Start of the line
+ * @param end End of the line (exclusive), without its line terminator
+ * @return true if the line might have a line terminator in it
+ */
+public static boolean hasLineTerminator(byte[] line, int start, int end) {
+	for (int position = start; position < end; position++) {
+		byte b = line[position];
+
+		// Printable ASCII, which most bytes are, is neither
+		if (b > '\r') {
+			continue;
+		}
+		if (b == '\n' || b == '\r' || b == (byte) 0x85) {
+			return true;
+		}
+		if (b == (byte) 0xe2 && position + 2 < end && line[position + 1] == (byte) 0x80
+				&& (line[position + 2] == (byte) 0xa8 || line[position + 2] == (byte) 0xa9)) {
+			return true;
+		}
+	}
+	return false;
+}
+
+/**
+ * Makes bytes of ASCII text
+ *
+ * @param text ASCII text
+ * @return its bytes
+ */
+private static byte[] toBytes(String text) {
+	byte[] bytes = new byte[text.length()];
+	for (int i = 0; i < bytes.length; i++) {
+		bytes[i] = (byte) text.charAt(i);
+	}
+	return bytes;
+}
+
+/**
+ * Finds the fields of a line with the patterns
+ *
+ * @param line Line from the access log
+ * @return true if the line matches either pattern
+ */
+private boolean matchPatterns(String line) {
+	Matcher matcher1 = PATTERN1.matcher(line);
+	if (matcher1.find()) {
+		remoteAddress = matcher1.group(1);
+		timestamp = matcher1.group(2);
+		numberOfBytes = matcher1.group(3);
+		tenantId = matcher1.group(4);
+		return true;
+	}
+
+	Matcher matcher2 = PATTERN2.matcher(line);
+	if (matcher2.find()) {
+		remoteAddress = matcher2.group(1);
+		timestamp = matcher2.group(2);
+		tenantId = matcher2.group(3);
+		numberOfBytes = matcher2.group(4);
+		return true;
+	}
+
+	return false;
+}
+
+/**
+ * Gets remoteAddress
+ *
+ * @return Remote address of the last line
+ */
+public String getRemoteAddress() {
+	return remoteAddress;
+}
+
+/**
+ * Gets timestamp
+ *
+ * @return Timestamp of the last line, with its brackets
+ */
+public String getTimestamp() {
+	return timestamp;
+}
+
+/**
+ * Gets numberOfBytes
+ *
+ * @return Number of bytes delivered for the last line
+ */
+public String getNumberOfBytes() {
+	return numberOfBytes;
+}
+
+/**
+ * Gets tenantId
+ *
+ * @return Tenant id of the last line
+ */
+public String getTenantId() {
+	return tenantId;
+}
+
+/**
+ * Gets remoteAddressStartPosition
+ *
+ * @return Start of the remote address in the last line tokenized as bytes
+ */
+public int getRemoteAddressStartPosition() {
+	return remoteAddressStartPosition;
+}
+
+/**
+ * Gets remoteAddressEndPosition
+ *
+ * @return End of the remote address in the last line tokenized as bytes
+ */
+public int getRemoteAddressEndPosition() {
+	return remoteAddressEndPosition;
+}
+
+/**
+ * Gets timestampStartPosition
+ *
+ * @return Start of the timestamp in the last line tokenized as bytes, at its "["
+ */
+public int getTimestampStartPosition() {
+	return timestampStartPosition;
+}
+
+/**
+ * Gets timestampEndPosition
+ *
+ * @return End of the timestamp in the last line tokenized as bytes, after its "]"
+ */
+public int getTimestampEndPosition() {
+	return timestampEndPosition;
+}
+
+/**
+ * Gets numberOfBytesStartPosition
+ *
+ * @return Start of the number of bytes in the last line tokenized as bytes
+ */
+public int getNumberOfBytesStartPosition() {
+	return numberOfBytesStartPosition;
+}
+
+/**
+ * Gets numberOfBytesEndPosition
+ *
+ * @return End of the number of bytes in the last line tokenized as bytes
+ */
+public int getNumberOfBytesEndPosition() {
+	return numberOfBytesEndPosition;
+}
+
+/**
+ * Gets tenantIdStartPosition
+ *
+ * @return Start of the tenant id in the last line tokenized as bytes
+ */
+public int getTenantIdStartPosition() {
+	return tenantIdStartPosition;
+}
+
+/**
+ * Gets tenantIdEndPosition
+ *
+ * @return End of the tenant id in the last line tokenized as bytes
+ */
+public int getTenantIdEndPosition() {
+	return tenantIdEndPosition;
+}
+}
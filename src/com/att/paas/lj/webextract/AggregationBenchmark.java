@@ -0,0 +1,113 @@
+package com.att.paas.lj.webextract;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import com.att.paas.lj.webextract.util.GetOpt;
+import com.att.paas.lj.webextract.util.SimpleLog4jConfig;
+
+/**
+ * Measures how fast a local access log is parsed on several threads when each chunk is parsed into its own map and
+ * the maps are merged, and when all the chunks add into one ConcurrentBytesUsedMap. The file is parsed a few times
+ * each way, taking turns, after a round each way to warm up, and the totals of the two ways are checked to be the
+ * same.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class AggregationBenchmark {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(AggregationBenchmark.class);
+
+/**
+ * Main
+ *
+ * @param args -f access log [-w threads] [-n rounds] [-i interval durations]
+ */
+public static void main(String[] args) {
+
+	// If log4j is not configured, create a simple configuration
+	SimpleLog4jConfig.doIt("INFO");
+
+	File file = null;
+	int threads = CollectionOptions.DEFAULT_WORKERS;
+	int rounds = 5;
+	int[] intervalDurations = { 5, 15, 60, 1440 };
+
+	GetOpt go = new GetOpt(args, "f:i:n:w:");
+	int ch = -1;
+	while ((ch = go.getopt()) != GetOpt.optEOF) {
+		if ((char) ch == 'f') {
+			file = new File(go.optArgGet());
+		} else if ((char) ch == 'i') {
+			String[] durations = go.optArgGet().split(",");
+			intervalDurations = new int[durations.length];
+			for (int i = 0; i < durations.length; i++) {
+				intervalDurations[i] = go.processArg(durations[i].trim(), 15);
+			}
+		} else if ((char) ch == 'n') {
+			rounds = go.processArg(go.optArgGet(), rounds);
+		} else if ((char) ch == 'w') {
+			threads = go.processArg(go.optArgGet(), threads);
+		}
+	}
+
+	if (file == null || threads <= 0 || rounds <= 0) {
+		logger.error("Usage: com.att.paas.lj.webextract.AggregationBenchmark -f <access log>"
+				+ " [-w <threads (default " + CollectionOptions.DEFAULT_WORKERS + ")>] [-n <rounds (default 5)>]"
+				+ " [-i <interval durations (default 5,15,60,1440)>]");
+		return;
+	}
+
+	try {
+		long[] nanos = new long[2];
+		long[] checksums = new long[2];
+		for (int round = 0; round <= rounds; round++) {
+			for (int way = 0; way < 2; way++) {
+				ParallelLogParser parallelLogParser = new ParallelLogParser(intervalDurations, threads, way == 1);
+				BytesUsedMap mapBytesUsed = new BytesUsedMap();
+
+				long start = System.nanoTime();
+				parallelLogParser.parse(file, mapBytesUsed);
+				long elapsed = System.nanoTime() - start;
+
+				// The first round is to warm up
+				if (round > 0) {
+					nanos[way] += elapsed;
+				}
+				checksums[way] = checksum(mapBytesUsed);
+				logger.debug(parallelLogParser.getParseStatistics());
+			}
+		}
+
+		long bytes = file.length() * rounds;
+		logger.info("Merge per thread: " + (bytes * 1000 / Math.max(1, nanos[0])) + " MB/s");
+		logger.info("Striped concurrent map: " + (bytes * 1000 / Math.max(1, nanos[1])) + " MB/s");
+		logger.info(checksums[0] == checksums[1] ? "Totals are the same" : "Totals differ");
+	} catch (IOException ex) {
+		logger.error("Parsing " + file + ": " + ex.getMessage());
+	}
+}
+
+/**
+ * Adds up a hash of every bucket, emptying the map
+ *
+ * @param mapBytesUsed Buckets
+ * @return the sum of the hashes
+ * @throws IOException On error reading buckets spilled to disk
+ */
+private static long checksum(BytesUsedMap mapBytesUsed) throws IOException {
+	final long[] checksum = new long[1];
+	mapBytesUsed.emit(new BytesUsedMap.BucketHandler() {
+
+		public void handle(TenantTimeIntervalKey ttik, long numberOfBytes) {
+			checksum[0] +=
+					(ttik.getTenantId() * 31L + ttik.getIntervalStart().getTime()) * 31 + ttik.getInterval() * 17
+							+ numberOfBytes;
+		}
+	});
+	return checksum[0];
+}
+}
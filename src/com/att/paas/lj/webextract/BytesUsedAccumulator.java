@@ -0,0 +1,22 @@
+package com.att.paas.lj.webextract;
+
+import java.io.IOException;
+
+/**
+ * Adds up the bytes used in each bucket (tenant, interval start, interval duration) as lines are parsed.
+ *
+ * @author Amarpreet geadhoke
+ */
+public interface BytesUsedAccumulator {
+
+/**
+ * Adds bytes to the bucket of the interval a time is in, creating the bucket if it is not there
+ *
+ * @param tenantId Tenant id
+ * @param time Time in the interval (e.g. its start), in milliseconds since the epoch
+ * @param intervalDuration Interval duration, in minutes
+ * @param numberOfBytes Number of bytes to add
+ * @throws IOException On error spilling buckets to disk
+ */
+void add(int tenantId, long time, int intervalDuration, long numberOfBytes) throws IOException;
+}
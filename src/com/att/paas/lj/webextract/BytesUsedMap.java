@@ -0,0 +1,679 @@
+package com.att.paas.lj.webextract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Holds the bytes used in each bucket (tenant, interval start, interval duration), adding to them as lines are parsed.
+ * It takes the place of a TreeMap of TenantTimeIntervalKey to Integer: there is one open addressing hash table of
+ * primitive longs per interval duration, keyed by the tenant id and the index of the interval packed into a long, so
+ * adding to a bucket is a single probe that allocates nothing, and the totals are longs that do not overflow.
+ * <p>
+ * The tables are held in direct memory, off the heap, up to a memory cap. A table that would grow past the cap, or
+ * past MAX_CAPACITY slots, is sorted and written to a run file instead, and emptied. The runs and the tables are
+ * merged, in order, when the buckets are emitted, so memory use is bounded whatever the number of buckets. The buckets
+ * are only made into keys then. An instance is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class BytesUsedMap implements BytesUsedAccumulator {
+
+/** Number of slots a table starts with. Always a power of 2. */
+private static final int INITIAL_CAPACITY = 1024;
+
+/** Most slots a table may have, so its buffer (1 GB) stays within what one direct buffer can hold */
+private static final int MAX_CAPACITY = 1 << 26;
+
+/** Bytes of memory a slot takes: its key and its value */
+private static final int SLOT_BYTES = 16;
+
+/** Default most bytes of memory the tables may take, before they are spilled to runs */
+public static final long DEFAULT_MEMORY_CAP = 256L * 1024 * 1024;
+
+/** Buffer size for reading and writing runs */
+private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+/** Orders cursors by the bucket they are on, as TenantTimeIntervalKey orders buckets */
+private static final Comparator<BucketCursor> BUCKET_CURSOR_COMPARATOR = new Comparator<BucketCursor>() {
+
+	public int compare(BucketCursor cursor1, BucketCursor cursor2) {
+		if (cursor1.tenantId != cursor2.tenantId) {
+			return cursor1.tenantId > cursor2.tenantId ? 1 : -1;
+		}
+		if (cursor1.intervalStart != cursor2.intervalStart) {
+			return cursor1.intervalStart > cursor2.intervalStart ? 1 : -1;
+		}
+		if (cursor1.intervalDuration != cursor2.intervalDuration) {
+			return cursor1.intervalDuration > cursor2.intervalDuration ? 1 : -1;
+		}
+		return 0;
+	}
+};
+
+/** Most bytes of memory the tables may take, before they are spilled to runs */
+private final long memoryCap;
+
+/** Directory to write runs in. If null, the default temporary directory. */
+private final File spillDirectory;
+
+/** Bytes of memory the tables take */
+private long memoryUsed = 0;
+
+/** Interval durations there is a table for, in minutes */
+private int[] intervalDurations = new int[0];
+
+/** Table for each interval duration */
+private BucketTable[] bucketTables = new BucketTable[0];
+
+/** Table last added to. Lines are added to each duration in turn, so this is the table before the one wanted. */
+private int lastTable = 0;
+
+/** Runs spilled to disk, not yet merged */
+private final List<SpilledRun> spilledRuns = new ArrayList<SpilledRun>();
+
+/**
+ * Does what is needed with each bucket as it is emitted
+ */
+public interface BucketHandler {
+
+/**
+ * Does what is needed with a bucket
+ *
+ * @param ttik Bucket
+ * @param numberOfBytes Bytes used in the bucket
+ * @throws IOException On error
+ */
+void handle(TenantTimeIntervalKey ttik, long numberOfBytes) throws IOException;
+}
+
+/**
+ * Constructor, for a map with the default memory cap, spilled to the default temporary directory
+ */
+public BytesUsedMap() {
+	this(DEFAULT_MEMORY_CAP, null);
+}
+
+/**
+ * Constructor.
+ *
+ * @param memoryCapArg Most bytes of memory the tables may take, before they are spilled to runs
+ * @param spillDirectoryArg Directory to write runs in. If null, the default temporary directory.
+ */
+public BytesUsedMap(long memoryCapArg, File spillDirectoryArg) {
+	this.memoryCap = memoryCapArg;
+	this.spillDirectory = spillDirectoryArg;
+}
+
+/**
+ * Adds bytes to the bucket of the interval a time is in, creating the bucket if it is not there
+ *
+ * @param tenantId Tenant id
+ * @param time Time in the interval (e.g. its start), in milliseconds since the epoch
+ * @param intervalDuration Interval duration, in minutes
+ * @param numberOfBytes Number of bytes to add
+ * @throws IOException On error spilling a table to a run
+ */
+public void add(int tenantId, long time, int intervalDuration, long numberOfBytes) throws IOException {
+	getBucketTable(intervalDuration).add(tenantId, time, numberOfBytes);
+}
+
+/**
+ * Adds all the buckets of another map into this one, and empties the other map. Its runs are taken over as they are.
+ *
+ * @param other other map
+ * @throws IOException On error spilling a table to a run
+ */
+public void addAll(BytesUsedMap other) throws IOException {
+	for (BucketTable bucketTableOther : other.bucketTables) {
+		BucketTable bucketTable = getBucketTable(bucketTableOther.intervalDuration);
+		LongBuffer slots = bucketTableOther.slots;
+		for (int slot = 0; slot < bucketTableOther.capacity; slot++) {
+			long key = slots.get(slot * 2);
+			if (key != BucketTable.EMPTY) {
+				bucketTable.addPacked(key, slots.get(slot * 2 + 1));
+			}
+		}
+		if (bucketTableOther.hasEmptyKey) {
+			bucketTable.addPacked(BucketTable.EMPTY, bucketTableOther.emptyKeyValue);
+		}
+		bucketTableOther.clear();
+	}
+
+	spilledRuns.addAll(other.spilledRuns);
+	other.spilledRuns.clear();
+}
+
+/**
+ * Emits the buckets in order (tenant, interval start, interval duration), adding up the parts of a bucket that are in
+ * different runs, and empties the map
+ *
+ * @param handler Does what is needed with each bucket
+ * @throws IOException On error reading a run, or from the handler
+ */
+public void emit(BucketHandler handler) throws IOException {
+	List<BucketCursor> cursors = new ArrayList<BucketCursor>();
+	try {
+		for (BucketTable bucketTable : bucketTables) {
+			cursors.add(new TableCursor(bucketTable, bucketTable.sort()));
+		}
+		for (SpilledRun spilledRun : spilledRuns) {
+			cursors.add(new RunCursor(spilledRun));
+		}
+
+		PriorityQueue<BucketCursor> queue =
+				new PriorityQueue<BucketCursor>(Math.max(1, cursors.size()), BUCKET_CURSOR_COMPARATOR);
+		for (BucketCursor cursor : cursors) {
+			if (cursor.next()) {
+				queue.add(cursor);
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			BucketCursor cursor = queue.poll();
+			int tenantId = cursor.tenantId;
+			long intervalStart = cursor.intervalStart;
+			int intervalDuration = cursor.intervalDuration;
+			long numberOfBytes = cursor.numberOfBytes;
+			if (cursor.next()) {
+				queue.add(cursor);
+			}
+
+			// The same bucket in other runs
+			while (!queue.isEmpty() && queue.peek().tenantId == tenantId && queue.peek().intervalStart == intervalStart
+					&& queue.peek().intervalDuration == intervalDuration) {
+				BucketCursor cursorSame = queue.poll();
+				numberOfBytes += cursorSame.numberOfBytes;
+				if (cursorSame.next()) {
+					queue.add(cursorSame);
+				}
+			}
+
+			handler.handle(new TenantTimeIntervalKey(tenantId, new Date(intervalStart), intervalDuration),
+					numberOfBytes);
+		}
+	} finally {
+		for (BucketCursor cursor : cursors) {
+			cursor.close();
+		}
+		clear();
+	}
+}
+
+/**
+ * Empties the map, deleting its runs
+ */
+public void clear() {
+	for (BucketTable bucketTable : bucketTables) {
+		bucketTable.clear();
+	}
+	for (SpilledRun spilledRun : spilledRuns) {
+		spilledRun.file.delete();
+	}
+	spilledRuns.clear();
+}
+
+/**
+ * Gets the table for an interval duration, adding one if there is none
+ *
+ * @param intervalDuration Interval duration, in minutes
+ * @return the table
+ */
+private BucketTable getBucketTable(int intervalDuration) {
+	// Lines are added to the durations in the same order each time, so the next table is usually the one
+	int next = lastTable + 1 < intervalDurations.length ? lastTable + 1 : 0;
+	if (next < intervalDurations.length && intervalDurations[next] == intervalDuration) {
+		lastTable = next;
+		return bucketTables[next];
+	}
+
+	for (int i = 0; i < intervalDurations.length; i++) {
+		if (intervalDurations[i] == intervalDuration) {
+			lastTable = i;
+			return bucketTables[i];
+		}
+	}
+
+	int[] intervalDurationsLarger = new int[intervalDurations.length + 1];
+	System.arraycopy(intervalDurations, 0, intervalDurationsLarger, 0, intervalDurations.length);
+	intervalDurationsLarger[intervalDurations.length] = intervalDuration;
+	BucketTable[] bucketTablesLarger = new BucketTable[bucketTables.length + 1];
+	System.arraycopy(bucketTables, 0, bucketTablesLarger, 0, bucketTables.length);
+	bucketTablesLarger[bucketTables.length] = new BucketTable(intervalDuration);
+
+	intervalDurations = intervalDurationsLarger;
+	bucketTables = bucketTablesLarger;
+	lastTable = bucketTables.length - 1;
+	return bucketTables[lastTable];
+}
+
+/**
+ * A run of buckets of one interval duration spilled to disk, in order
+ */
+private static class SpilledRun {
+
+/** File holding the run: the key and value of each bucket, as longs */
+private final File file;
+
+/** Interval duration, in minutes */
+private final int intervalDuration;
+
+/** Number of buckets in the run */
+private final int count;
+
+/**
+ * Constructor.
+ *
+ * @param fileArg File holding the run
+ * @param intervalDurationArg Interval duration, in minutes
+ * @param countArg Number of buckets in the run
+ */
+SpilledRun(File fileArg, int intervalDurationArg, int countArg) {
+	this.file = fileArg;
+	this.intervalDuration = intervalDurationArg;
+	this.count = countArg;
+}
+}
+
+/**
+ * The buckets of one interval duration, in an open addressing hash table with linear probing held in direct memory.
+ * A key is the tenant id in the high 32 bits and the index of the interval since the epoch in the low 32 bits, which
+ * lasts past the year 6000 with 1 minute intervals.
+ */
+private class BucketTable {
+
+/** Key of an empty slot. The bucket that has this key is held apart from the table. */
+private static final long EMPTY = Long.MIN_VALUE;
+
+/** Multiplier spreading the bits of a key over the top bits of its hash (2^64 divided by the golden ratio) */
+private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+/** Interval duration, in minutes */
+private final int intervalDuration;
+
+/** Interval duration, in milliseconds */
+private final long intervalMillis;
+
+/** Key of each slot (or EMPTY), followed by the bytes used in its bucket */
+private LongBuffer slots;
+
+/** Number of slots */
+private int capacity;
+
+/** Shift leaving as many top bits of a hash as it takes to index the slots */
+private int shift;
+
+/** Number of buckets in the table, not including the one with the EMPTY key */
+private int size = 0;
+
+/** Is there a bucket with the EMPTY key? */
+private boolean hasEmptyKey = false;
+
+/** Bytes used in the bucket with the EMPTY key */
+private long emptyKeyValue = 0;
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationArg Interval duration, in minutes
+ */
+BucketTable(int intervalDurationArg) {
+	this.intervalDuration = intervalDurationArg;
+	this.intervalMillis = intervalDurationArg * 60000L;
+	allocate(INITIAL_CAPACITY);
+}
+
+/**
+ * Adds bytes to the bucket of the interval a time is in
+ *
+ * @param tenantId Tenant id
+ * @param time Time in the interval, in milliseconds since the epoch
+ * @param numberOfBytes Number of bytes to add
+ * @throws IOException On error spilling the table to a run
+ */
+void add(int tenantId, long time, long numberOfBytes) throws IOException {
+	long interval = time / intervalMillis;
+	if (time < 0 && time % intervalMillis != 0) {
+		interval--;
+	}
+	addPacked(((long) tenantId << 32) | (interval & 0xffffffffL), numberOfBytes);
+}
+
+/**
+ * Adds bytes to the bucket with a key
+ *
+ * @param key Tenant id and interval index
+ * @param numberOfBytes Number of bytes to add
+ * @throws IOException On error spilling the table to a run
+ */
+void addPacked(long key, long numberOfBytes) throws IOException {
+	if (key == EMPTY) {
+		hasEmptyKey = true;
+		emptyKeyValue += numberOfBytes;
+		return;
+	}
+
+	int mask = capacity - 1;
+	for (int slot = (int) ((key * HASH_MULTIPLIER) >>> shift);; slot = (slot + 1) & mask) {
+		long keySlot = slots.get(slot * 2);
+		if (keySlot == key) {
+			slots.put(slot * 2 + 1, slots.get(slot * 2 + 1) + numberOfBytes);
+			return;
+		}
+		if (keySlot == EMPTY) {
+			slots.put(slot * 2, key);
+			slots.put(slot * 2 + 1, numberOfBytes);
+
+			// Kept at most half full, so probes stay short. Doubling it must stay within MAX_CAPACITY, and within
+			// the cap while the old and new slots are both held.
+			if (++size * 2 > capacity) {
+				if (capacity < MAX_CAPACITY && memoryUsed + (long) capacity * SLOT_BYTES * 2 <= memoryCap) {
+					grow();
+				} else {
+					spill();
+				}
+			}
+			return;
+		}
+	}
+}
+
+/**
+ * Moves the buckets to the start of the slots, in order
+ *
+ * @return Number of buckets, including the one with the EMPTY key
+ */
+int sort() {
+	int count = 0;
+	for (int slot = 0; slot < capacity; slot++) {
+		long key = slots.get(slot * 2);
+		if (key != EMPTY) {
+			slots.put(count * 2, key);
+			slots.put(count * 2 + 1, slots.get(slot * 2 + 1));
+			count++;
+		}
+	}
+	if (hasEmptyKey) {
+		slots.put(count * 2, EMPTY);
+		slots.put(count * 2 + 1, emptyKeyValue);
+		count++;
+	}
+
+	// Heapsort, which needs no more memory
+	for (int i = count / 2 - 1; i >= 0; i--) {
+		siftDown(i, count);
+	}
+	for (int end = count - 1; end > 0; end--) {
+		swap(0, end);
+		siftDown(0, end);
+	}
+
+	// The slots are no longer a hash table
+	size = 0;
+	hasEmptyKey = false;
+	emptyKeyValue = 0;
+	return count;
+}
+
+/**
+ * Moves a bucket down the heap until it is no smaller than the buckets under it
+ *
+ * @param start Position of the bucket
+ * @param end Number of buckets in the heap
+ */
+private void siftDown(int start, int end) {
+	int parent = start;
+	while (parent * 2 + 1 < end) {
+		int child = parent * 2 + 1;
+		if (child + 1 < end && order(slots.get(child * 2)) < order(slots.get(child * 2 + 2))) {
+			child++;
+		}
+		if (order(slots.get(parent * 2)) >= order(slots.get(child * 2))) {
+			return;
+		}
+		swap(parent, child);
+		parent = child;
+	}
+}
+
+/**
+ * Swaps two buckets
+ *
+ * @param i Position of one bucket
+ * @param j Position of the other bucket
+ */
+private void swap(int i, int j) {
+	long key = slots.get(i * 2);
+	long value = slots.get(i * 2 + 1);
+	slots.put(i * 2, slots.get(j * 2));
+	slots.put(i * 2 + 1, slots.get(j * 2 + 1));
+	slots.put(j * 2, key);
+	slots.put(j * 2 + 1, value);
+}
+
+/**
+ * Sorts the table and writes it to a run, then empties it
+ *
+ * @throws IOException On error writing the run
+ */
+private void spill() throws IOException {
+	int count = sort();
+	File file = File.createTempFile("bytesused", ".run", spillDirectory);
+	file.deleteOnExit();
+	spilledRuns.add(new SpilledRun(file, intervalDuration, count));
+
+	DataOutputStream dosRun =
+			new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), RUN_BUFFER_SIZE));
+	try {
+		for (int i = 0; i < count; i++) {
+			dosRun.writeLong(slots.get(i * 2));
+			dosRun.writeLong(slots.get(i * 2 + 1));
+		}
+	} finally {
+		dosRun.close();
+	}
+	clear();
+}
+
+/**
+ * Doubles the number of slots, moving the buckets into them
+ */
+private void grow() {
+	LongBuffer slotsOld = slots;
+	int capacityOld = capacity;
+	allocate(capacity * 2);
+	memoryUsed -= (long) capacityOld * SLOT_BYTES;
+
+	int mask = capacity - 1;
+	for (int slotOld = 0; slotOld < capacityOld; slotOld++) {
+		long key = slotsOld.get(slotOld * 2);
+		if (key != EMPTY) {
+			int slot = (int) ((key * HASH_MULTIPLIER) >>> shift);
+			while (slots.get(slot * 2) != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			slots.put(slot * 2, key);
+			slots.put(slot * 2 + 1, slotsOld.get(slotOld * 2 + 1));
+		}
+	}
+}
+
+/**
+ * Makes empty slots
+ *
+ * @param capacityArg Number of slots, a power of 2
+ */
+private void allocate(int capacityArg) {
+	capacity = capacityArg;
+	// No more than MAX_CAPACITY slots, so the size fits in an int
+	slots =
+			ByteBuffer.allocateDirect((int) ((long) capacity * SLOT_BYTES)).order(ByteOrder.nativeOrder())
+					.asLongBuffer();
+	shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	memoryUsed += (long) capacity * SLOT_BYTES;
+	clear();
+}
+
+/**
+ * Empties the table
+ */
+void clear() {
+	for (int slot = 0; slot < capacity; slot++) {
+		slots.put(slot * 2, EMPTY);
+	}
+	size = 0;
+	hasEmptyKey = false;
+	emptyKeyValue = 0;
+}
+}
+
+/**
+ * Sort order of a key: by tenant id, then by interval index, both signed
+ *
+ * @param key Tenant id and interval index
+ * @return a long that orders as the key's bucket does
+ */
+private static long order(long key) {
+	return key ^ 0x80000000L;
+}
+
+/**
+ * Goes through the buckets of a table or a run, in order
+ */
+private abstract static class BucketCursor {
+
+/** Tenant id of the current bucket */
+protected int tenantId;
+
+/** Interval start of the current bucket, in milliseconds since the epoch */
+protected long intervalStart;
+
+/** Interval duration of the current bucket, in minutes */
+protected int intervalDuration;
+
+/** Bytes used in the current bucket */
+protected long numberOfBytes;
+
+/**
+ * Moves to the next bucket
+ *
+ * @return false if there are no more
+ * @throws IOException On error reading
+ */
+abstract boolean next() throws IOException;
+
+/**
+ * Makes a key the current bucket
+ *
+ * @param key Tenant id and interval index
+ * @param value Bytes used
+ * @param intervalDurationArg Interval duration, in minutes
+ */
+protected void setBucket(long key, long value, int intervalDurationArg) {
+	tenantId = (int) (key >>> 32);
+	intervalStart = (int) key * (intervalDurationArg * 60000L);
+	intervalDuration = intervalDurationArg;
+	numberOfBytes = value;
+}
+
+/**
+ * Lets go of what the cursor reads
+ */
+void close() {
+	// Nothing to let go of
+}
+}
+
+/**
+ * Goes through the buckets of a sorted table
+ */
+private static class TableCursor extends BucketCursor {
+
+/** The table */
+private final BucketTable bucketTable;
+
+/** Number of buckets in it */
+private final int count;
+
+/** Position of the current bucket */
+private int position = -1;
+
+/**
+ * Constructor.
+ *
+ * @param bucketTableArg The table, sorted
+ * @param countArg Number of buckets in it
+ */
+TableCursor(BucketTable bucketTableArg, int countArg) {
+	this.bucketTable = bucketTableArg;
+	this.count = countArg;
+}
+
+boolean next() {
+	if (++position >= count) {
+		return false;
+	}
+	setBucket(bucketTable.slots.get(position * 2), bucketTable.slots.get(position * 2 + 1),
+			bucketTable.intervalDuration);
+	return true;
+}
+}
+
+/**
+ * Goes through the buckets of a run
+ */
+private static class RunCursor extends BucketCursor {
+
+/** The run */
+private final SpilledRun spilledRun;
+
+/** Reads the run file */
+private final DataInputStream disRun;
+
+/** Number of buckets read */
+private int read = 0;
+
+/**
+ * Constructor.
+ *
+ * @param spilledRunArg The run
+ * @throws IOException On error opening the run file
+ */
+RunCursor(SpilledRun spilledRunArg) throws IOException {
+	this.spilledRun = spilledRunArg;
+	this.disRun =
+			new DataInputStream(new BufferedInputStream(new FileInputStream(spilledRunArg.file), RUN_BUFFER_SIZE));
+}
+
+boolean next() throws IOException {
+	if (read == spilledRun.count) {
+		return false;
+	}
+	read++;
+	long key = disRun.readLong();
+	setBucket(key, disRun.readLong(), spilledRun.intervalDuration);
+	return true;
+}
+
+void close() {
+	try {
+		disRun.close();
+	} catch (IOException ex) {
+		// Only read from, so nothing is lost
+	}
+}
+}
+}
@@ -0,0 +1,133 @@
+package com.att.paas.lj.webextract;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+import com.att.paas.lj.webextract.db.HostConnection;
+import com.att.paas.lj.webextract.db.LogCheckpoint;
+import com.att.paas.lj.webextract.db.LogLocation;
+
+/**
+ * Collects the bytes used from all the log locations of all the hosts, using a bounded pool of worker threads. Each
+ * log location is collected by a LocationCollector into its own result, and the results are merged as they finish.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class CollectionEngine {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(CollectionEngine.class);
+
+/** Options controlling the collection */
+private final CollectionOptions collectionOptions;
+
+/**
+ * Constructor.
+ *
+ * @param collectionOptionsArg Options controlling the collection
+ */
+public CollectionEngine(CollectionOptions collectionOptionsArg) {
+	this.collectionOptions = collectionOptionsArg;
+}
+
+/**
+ * Collects from all locations for all hosts
+ *
+ * @param hostConnections Hosts to collect from
+ * @param checkpoints Checkpoints from the last run, when collecting incrementally. Otherwise, null.
+ * @return Bytes used and checkpoints, or null if the collection failed and nothing should be stored
+ */
+public CollectionResult collect(List<HostConnection> hostConnections, List<LogCheckpoint> checkpoints) {
+
+	// Checkpoints by location
+	Map<String, List<LogCheckpoint>> mapCheckpoints = new HashMap<String, List<LogCheckpoint>>();
+	if (checkpoints != null) {
+		for (LogCheckpoint checkpoint : checkpoints) {
+			String locationKey = checkpoint.getHost() + ":" + checkpoint.getDirectoryname();
+			List<LogCheckpoint> listLocationCheckpoints = mapCheckpoints.get(locationKey);
+			if (listLocationCheckpoints == null) {
+				listLocationCheckpoints = new ArrayList<LogCheckpoint>();
+				mapCheckpoints.put(locationKey, listLocationCheckpoints);
+			}
+			listLocationCheckpoints.add(checkpoint);
+		}
+	}
+
+	// One permit pool per host, shared by all the locations on that host
+	Map<String, Semaphore> mapHostSessionLimits = new HashMap<String, Semaphore>();
+
+	List<LocationCollector> locationCollectors = new ArrayList<LocationCollector>();
+
+	for (HostConnection hcCurrent : hostConnections) {
+		Semaphore hostSessionLimit = mapHostSessionLimits.get(hcCurrent.getHost());
+		if (hostSessionLimit == null) {
+			hostSessionLimit = new Semaphore(collectionOptions.getSessionsPerHost());
+			mapHostSessionLimits.put(hcCurrent.getHost(), hostSessionLimit);
+		}
+
+		for (LogLocation llCurrent : hcCurrent.getLogLocations()) {
+
+			// If there is no log location, go on to the next
+			if (llCurrent == null) {
+				continue;
+			}
+
+			List<LogCheckpoint> listLocationCheckpoints =
+					mapCheckpoints.remove(hcCurrent.getHost() + ":" + llCurrent.getDirectoryname());
+			if (listLocationCheckpoints == null) {
+				listLocationCheckpoints = new ArrayList<LogCheckpoint>();
+			}
+
+			locationCollectors.add(new LocationCollector(hcCurrent, llCurrent, hostSessionLimit, collectionOptions,
+					listLocationCheckpoints));
+		}
+	}
+
+	ExecutorService executorService = Executors.newFixedThreadPool(collectionOptions.getWorkers());
+
+	CollectionResult collectionResult =
+			new CollectionResult(collectionOptions.newBytesUsedMap(), collectionOptions.newIntervalSketchMap());
+
+	CompletionService<CollectionResult> completionService =
+			new ExecutorCompletionService<CollectionResult>(executorService);
+
+	try {
+		for (LocationCollector locationCollector : locationCollectors) {
+			completionService.submit(locationCollector);
+		}
+
+		// Merge the result from each location into the combined result as each location finishes
+		for (int i = 0; i < locationCollectors.size(); i++) {
+			Future<CollectionResult> future = completionService.take();
+			collectionResult.merge(future.get());
+		}
+	} catch (ExecutionException ex) {
+		// Stop the other locations, as a failure in any location means nothing is stored
+		logger.error(ex.getCause().getMessage());
+		return null;
+	} catch (IOException ex) {
+		logger.error("Merging the bytes used: " + ex.getMessage());
+		return null;
+	} catch (InterruptedException ex) {
+		logger.error("Interrupted while collecting: " + ex);
+		Thread.currentThread().interrupt();
+		return null;
+	} finally {
+		executorService.shutdownNow();
+	}
+
+	return collectionResult;
+}
+}
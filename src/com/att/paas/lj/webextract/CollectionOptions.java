@@ -0,0 +1,397 @@
+package com.att.paas.lj.webextract;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the options that control how the access logs are collected.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class CollectionOptions {
+
+/** Default number of worker threads */
+public static final int DEFAULT_WORKERS = 8;
+
+/** Default number of locations collected at the same time on one host */
+public static final int DEFAULT_SESSIONS_PER_HOST = 2;
+
+/** Default time a remote command may run for, in seconds. 0 is no limit. */
+public static final int DEFAULT_COMMAND_TIMEOUT = 0;
+
+/** Interval durations for data collection, in minutes, shortest first. Every line is added to each of them. */
+private int[] intervalDurations = { 15 };
+
+/** Number of worker threads */
+private int workers = DEFAULT_WORKERS;
+
+/** Number of locations collected at the same time on one host */
+private int sessionsPerHost = DEFAULT_SESSIONS_PER_HOST;
+
+/** Time a remote command may run for, in seconds. 0 is no limit. */
+private int commandTimeout = DEFAULT_COMMAND_TIMEOUT;
+
+/** Collect only what has been added since the last run? */
+private boolean incremental = false;
+
+/** Directory to keep the local spool of collected access logs in. If null, there is no spool. */
+private File spoolDirectory = null;
+
+/** Size limit of the spool, in megabytes */
+private long spoolMaxMegabytes = LogSpool.DEFAULT_MAX_MEGABYTES;
+
+/** Age limit of the spool segments, in days */
+private int spoolMaxAgeDays = LogSpool.DEFAULT_MAX_AGE_DAYS;
+
+/** Parse the spool again, rather than collecting from the hosts? */
+private boolean replay = false;
+
+/** Most megabytes of memory each map of bytes used may take before it is spilled to disk */
+private long aggregationMaxMegabytes = BytesUsedMap.DEFAULT_MEMORY_CAP / (1024 * 1024);
+
+/** Directory to spill maps of bytes used to. If null, the default temporary directory. */
+private File aggregationSpillDirectory = null;
+
+/** Keep sketches of each interval (top tenants, distinct client addresses, response sizes)? */
+private boolean intervalSketches = false;
+
+/** Client addresses whose requests are skipped (e.g. AVPN), or null to skip none */
+private IpFilter ipFilter = null;
+
+/** Local access log files to parse, rather than collecting from the hosts */
+private final List<File> localFiles = new ArrayList<File>();
+
+/** Bucket the access logs on the remote hosts, so only the totals are sent? */
+private boolean remoteAggregation = false;
+
+/** Fetch the access logs through SFTP, rather than by running commands on the remote hosts? */
+private boolean sftpTransfer = false;
+
+/** Directory to keep local copies of the fetched access logs in. If null, no copies are kept. */
+private File teeDirectory = null;
+
+/**
+ * Gets intervalDurations
+ *
+ * @return intervalDurations
+ */
+public int[] getIntervalDurations() {
+	return intervalDurations;
+}
+
+/**
+ * Sets intervalDurations
+ *
+ * @param intervalDurations intervalDurations
+ */
+public void setIntervalDurations(int[] intervalDurations) {
+	this.intervalDurations = intervalDurations;
+}
+
+/**
+ * Gets workers
+ *
+ * @return workers
+ */
+public int getWorkers() {
+	return workers;
+}
+
+/**
+ * Sets workers
+ *
+ * @param workers workers
+ */
+public void setWorkers(int workers) {
+	this.workers = workers;
+}
+
+/**
+ * Gets sessionsPerHost
+ *
+ * @return sessionsPerHost
+ */
+public int getSessionsPerHost() {
+	return sessionsPerHost;
+}
+
+/**
+ * Sets sessionsPerHost
+ *
+ * @param sessionsPerHost sessionsPerHost
+ */
+public void setSessionsPerHost(int sessionsPerHost) {
+	this.sessionsPerHost = sessionsPerHost;
+}
+
+/**
+ * Gets teeDirectory
+ *
+ * @return teeDirectory
+ */
+public File getTeeDirectory() {
+	return teeDirectory;
+}
+
+/**
+ * Sets teeDirectory
+ *
+ * @param teeDirectory teeDirectory
+ */
+public void setTeeDirectory(File teeDirectory) {
+	this.teeDirectory = teeDirectory;
+}
+
+/**
+ * Gets incremental
+ *
+ * @return incremental
+ */
+public boolean isIncremental() {
+	return incremental;
+}
+
+/**
+ * Sets incremental
+ *
+ * @param incremental incremental
+ */
+public void setIncremental(boolean incremental) {
+	this.incremental = incremental;
+}
+
+/**
+ * Gets remoteAggregation
+ *
+ * @return remoteAggregation
+ */
+public boolean isRemoteAggregation() {
+	return remoteAggregation;
+}
+
+/**
+ * Sets remoteAggregation
+ *
+ * @param remoteAggregation remoteAggregation
+ */
+public void setRemoteAggregation(boolean remoteAggregation) {
+	this.remoteAggregation = remoteAggregation;
+}
+
+/**
+ * Gets sftpTransfer
+ *
+ * @return sftpTransfer
+ */
+public boolean isSftpTransfer() {
+	return sftpTransfer;
+}
+
+/**
+ * Sets sftpTransfer
+ *
+ * @param sftpTransfer sftpTransfer
+ */
+public void setSftpTransfer(boolean sftpTransfer) {
+	this.sftpTransfer = sftpTransfer;
+}
+
+/**
+ * Gets commandTimeout
+ *
+ * @return commandTimeout
+ */
+public int getCommandTimeout() {
+	return commandTimeout;
+}
+
+/**
+ * Sets commandTimeout
+ *
+ * @param commandTimeout commandTimeout
+ */
+public void setCommandTimeout(int commandTimeout) {
+	this.commandTimeout = commandTimeout;
+}
+
+/**
+ * Gets spoolDirectory
+ *
+ * @return spoolDirectory
+ */
+public File getSpoolDirectory() {
+	return spoolDirectory;
+}
+
+/**
+ * Sets spoolDirectory
+ *
+ * @param spoolDirectory spoolDirectory
+ */
+public void setSpoolDirectory(File spoolDirectory) {
+	this.spoolDirectory = spoolDirectory;
+}
+
+/**
+ * Gets spoolMaxMegabytes
+ *
+ * @return spoolMaxMegabytes
+ */
+public long getSpoolMaxMegabytes() {
+	return spoolMaxMegabytes;
+}
+
+/**
+ * Sets spoolMaxMegabytes
+ *
+ * @param spoolMaxMegabytes spoolMaxMegabytes
+ */
+public void setSpoolMaxMegabytes(long spoolMaxMegabytes) {
+	this.spoolMaxMegabytes = spoolMaxMegabytes;
+}
+
+/**
+ * Gets spoolMaxAgeDays
+ *
+ * @return spoolMaxAgeDays
+ */
+public int getSpoolMaxAgeDays() {
+	return spoolMaxAgeDays;
+}
+
+/**
+ * Sets spoolMaxAgeDays
+ *
+ * @param spoolMaxAgeDays spoolMaxAgeDays
+ */
+public void setSpoolMaxAgeDays(int spoolMaxAgeDays) {
+	this.spoolMaxAgeDays = spoolMaxAgeDays;
+}
+
+/**
+ * Gets replay
+ *
+ * @return replay
+ */
+public boolean isReplay() {
+	return replay;
+}
+
+/**
+ * Sets replay
+ *
+ * @param replay replay
+ */
+public void setReplay(boolean replay) {
+	this.replay = replay;
+}
+
+/**
+ * Gets aggregationMaxMegabytes
+ *
+ * @return aggregationMaxMegabytes
+ */
+public long getAggregationMaxMegabytes() {
+	return aggregationMaxMegabytes;
+}
+
+/**
+ * Sets aggregationMaxMegabytes
+ *
+ * @param aggregationMaxMegabytes aggregationMaxMegabytes
+ */
+public void setAggregationMaxMegabytes(long aggregationMaxMegabytes) {
+	this.aggregationMaxMegabytes = aggregationMaxMegabytes;
+}
+
+/**
+ * Gets aggregationSpillDirectory
+ *
+ * @return aggregationSpillDirectory
+ */
+public File getAggregationSpillDirectory() {
+	return aggregationSpillDirectory;
+}
+
+/**
+ * Sets aggregationSpillDirectory
+ *
+ * @param aggregationSpillDirectory aggregationSpillDirectory
+ */
+public void setAggregationSpillDirectory(File aggregationSpillDirectory) {
+	this.aggregationSpillDirectory = aggregationSpillDirectory;
+}
+
+/**
+ * Gets the most bytes of memory each map of bytes used may take before it is spilled to disk
+ *
+ * @return aggregationMaxMegabytes, in bytes
+ */
+public long getAggregationMemoryCap() {
+	return aggregationMaxMegabytes * 1024 * 1024;
+}
+
+/**
+ * Makes an empty map of bytes used, with the memory limit and spill directory of these options
+ *
+ * @return the map
+ */
+public BytesUsedMap newBytesUsedMap() {
+	return new BytesUsedMap(getAggregationMemoryCap(), aggregationSpillDirectory);
+}
+
+/**
+ * Gets intervalSketches
+ *
+ * @return intervalSketches
+ */
+public boolean isIntervalSketches() {
+	return intervalSketches;
+}
+
+/**
+ * Sets intervalSketches
+ *
+ * @param intervalSketches intervalSketches
+ */
+public void setIntervalSketches(boolean intervalSketches) {
+	this.intervalSketches = intervalSketches;
+}
+
+/**
+ * Makes an empty map of the sketches of each interval, if they are kept
+ *
+ * @return the map, or null if no sketches are kept
+ */
+public IntervalSketchMap newIntervalSketchMap() {
+	return intervalSketches ? new IntervalSketchMap(intervalDurations) : null;
+}
+
+/**
+ * Gets ipFilter
+ *
+ * @return ipFilter
+ */
+public IpFilter getIpFilter() {
+	return ipFilter;
+}
+
+/**
+ * Sets ipFilter
+ *
+ * @param ipFilter ipFilter
+ */
+public void setIpFilter(IpFilter ipFilter) {
+	this.ipFilter = ipFilter;
+}
+
+/**
+ * Gets localFiles
+ *
+ * @return localFiles
+ */
+public List<File> getLocalFiles() {
+	return localFiles;
+}
+}
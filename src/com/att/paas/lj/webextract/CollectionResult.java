@@ -0,0 +1,103 @@
+package com.att.paas.lj.webextract;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.att.paas.lj.webextract.db.LogCheckpoint;
+
+/**
+ * Holds what was collected from one or more log locations: the bytes used, the sketches of each interval if they are
+ * kept, and, for incremental collection, the checkpoints to save and the checkpoints of files that no longer exist.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class CollectionResult {
+
+/** Map to hold bytes used */
+private final BytesUsedMap mapBytesUsed;
+
+/** Sketches of each interval, or null if none are kept */
+private final IntervalSketchMap intervalSketchMap;
+
+/** Lines parsed locally, and how long they took */
+private final ParseStatistics parseStatistics = new ParseStatistics();
+
+/** Checkpoints that are new or have moved on */
+private final List<LogCheckpoint> checkpoints = new ArrayList<LogCheckpoint>();
+
+/** Checkpoints of files that are no longer in their location */
+private final List<LogCheckpoint> obsoleteCheckpoints = new ArrayList<LogCheckpoint>();
+
+/**
+ * Constructor.
+ *
+ * @param mapBytesUsedArg Map to hold bytes used
+ * @param intervalSketchMapArg Sketches of each interval, or null if none are kept
+ */
+public CollectionResult(BytesUsedMap mapBytesUsedArg, IntervalSketchMap intervalSketchMapArg) {
+	this.mapBytesUsed = mapBytesUsedArg;
+	this.intervalSketchMap = intervalSketchMapArg;
+}
+
+/**
+ * Gets mapBytesUsed
+ *
+ * @return mapBytesUsed
+ */
+public BytesUsedMap getMapBytesUsed() {
+	return mapBytesUsed;
+}
+
+/**
+ * Gets intervalSketchMap
+ *
+ * @return Sketches of each interval, or null if none are kept
+ */
+public IntervalSketchMap getIntervalSketchMap() {
+	return intervalSketchMap;
+}
+
+/**
+ * Gets parseStatistics
+ *
+ * @return parseStatistics
+ */
+public ParseStatistics getParseStatistics() {
+	return parseStatistics;
+}
+
+/**
+ * Gets checkpoints
+ *
+ * @return checkpoints
+ */
+public List<LogCheckpoint> getCheckpoints() {
+	return checkpoints;
+}
+
+/**
+ * Gets obsoleteCheckpoints
+ *
+ * @return obsoleteCheckpoints
+ */
+public List<LogCheckpoint> getObsoleteCheckpoints() {
+	return obsoleteCheckpoints;
+}
+
+/**
+ * Adds another result into this one
+ *
+ * @param other other result, whose maps are left empty
+ * @throws IOException On error spilling the map to disk
+ */
+public void merge(CollectionResult other) throws IOException {
+	mapBytesUsed.addAll(other.getMapBytesUsed());
+	if (intervalSketchMap != null && other.getIntervalSketchMap() != null) {
+		intervalSketchMap.addAll(other.getIntervalSketchMap());
+	}
+	parseStatistics.merge(other.getParseStatistics());
+	checkpoints.addAll(other.getCheckpoints());
+	obsoleteCheckpoints.addAll(other.getObsoleteCheckpoints());
+}
+}
@@ -0,0 +1,105 @@
+package com.att.paas.lj.webextract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adds up the bytes used in each bucket from many threads at once. The buckets are spread over stripes, each a
+ * BytesUsedMap with its own lock, by a hash of the bucket's tenant id, interval duration and interval, so threads
+ * adding at the same time mostly take different locks and never one lock for the whole map. Each bucket is in exactly
+ * one stripe, so the stripes together take no more memory than one map would. Lines next to each other in a log are
+ * mostly in the same tenant and interval, so a thread keeps adding to the same stripes.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class ConcurrentBytesUsedMap implements BytesUsedAccumulator {
+
+/** Multiplier spreading the bits of a key over the top bits of its hash (2^64 divided by the golden ratio) */
+private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+/** Buckets of each stripe */
+private final BytesUsedMap[] stripes;
+
+/** Lock of each stripe */
+private final ReentrantLock[] locks;
+
+/** Shift leaving as many top bits of a hash as it takes to index the stripes */
+private final int shift;
+
+/**
+ * Constructor.
+ *
+ * @param stripesArg Number of stripes, rounded up to a power of 2. A few times the number of threads adding.
+ * @param memoryCap Most bytes of memory all the stripes may take, before they are spilled to disk
+ * @param spillDirectory Directory to spill to. If null, the default temporary directory.
+ */
+public ConcurrentBytesUsedMap(int stripesArg, long memoryCap, File spillDirectory) {
+	int count = Integer.highestOneBit(Math.max(1, stripesArg));
+	if (count < stripesArg) {
+		count *= 2;
+	}
+
+	stripes = new BytesUsedMap[count];
+	locks = new ReentrantLock[count];
+	for (int i = 0; i < count; i++) {
+		stripes[i] = new BytesUsedMap(memoryCap / count, spillDirectory);
+		locks[i] = new ReentrantLock();
+	}
+	shift = 64 - Integer.numberOfTrailingZeros(count);
+}
+
+/**
+ * Adds bytes to the bucket of the interval a time is in, taking only the lock of its stripe
+ *
+ * @param tenantId Tenant id
+ * @param time Time in the interval (e.g. its start), in milliseconds since the epoch
+ * @param intervalDuration Interval duration, in minutes
+ * @param numberOfBytes Number of bytes to add
+ * @throws IOException On error spilling a stripe to disk
+ */
+public void add(int tenantId, long time, int intervalDuration, long numberOfBytes) throws IOException {
+	// The interval the bucket is for, rounded down as the map does for times before the epoch
+	long intervalMillis = intervalDuration * 60000L;
+	long interval = time / intervalMillis;
+	if (time < 0 && time % intervalMillis != 0) {
+		interval--;
+	}
+
+	// With one stripe, the shift is 64, which Java takes as 0, so the mask is needed
+	long hash = ((tenantId * HASH_MULTIPLIER + intervalDuration) * HASH_MULTIPLIER + interval) * HASH_MULTIPLIER;
+	int stripe = (int) (hash >>> shift) & (stripes.length - 1);
+
+	ReentrantLock lock = locks[stripe];
+	lock.lock();
+	try {
+		stripes[stripe].add(tenantId, time, intervalDuration, numberOfBytes);
+	} finally {
+		lock.unlock();
+	}
+}
+
+/**
+ * Moves all the buckets into a map, leaving this one empty. Every stripe is locked while this is done, so what is
+ * moved is everything added before, and nothing added after: a consistent snapshot, even while other threads add.
+ *
+ * @param mapBytesUsed Map to move the buckets into
+ * @throws IOException On error spilling the map to disk
+ */
+public void drainTo(BytesUsedMap mapBytesUsed) throws IOException {
+	// Always locked in the same order, so two drains can't deadlock
+	int locked = 0;
+	try {
+		for (; locked < locks.length; locked++) {
+			locks[locked].lock();
+		}
+		for (BytesUsedMap stripe : stripes) {
+			mapBytesUsed.addAll(stripe);
+		}
+	} finally {
+		while (locked > 0) {
+			locks[--locked].unlock();
+		}
+	}
+}
+}
@@ -0,0 +1,139 @@
+package com.att.paas.lj.webextract;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import com.att.paas.lj.webextract.sketch.HyperLogLog;
+
+/**
+ * Stores buckets of bytes used in the datausage table with MySQL's INSERT ... ON DUPLICATE KEY UPDATE, sent in JDBC
+ * batches, rather than looking up each bucket and then inserting or updating it. A bucket already stored is found by
+ * the unique key on (idtenant, intervalstart, intervalduration), which the table must have. With the connection
+ * property rewriteBatchedStatements=true, the driver sends each batch as one multi-row statement, so there is one
+ * round trip per batch. The key of a new bucket is given by the AUTO_INCREMENT of iddatausage, so several collectors
+ * can store at once.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class DataUsageUpsertHandler implements BytesUsedMap.BucketHandler {
+
+/** Upsert replacing the bytes of a bucket already stored. The client addresses are kept if none were sketched. */
+private static final String SQL_UPSERT_REPLACE =
+		"insert into datausage (idtenant, intervalstart, intervalduration, numberofbytes, clientaddresses)"
+				+ " values (?, ?, ?, ?, ?) on duplicate key update numberofbytes = values(numberofbytes),"
+				+ " clientaddresses = coalesce(values(clientaddresses), clientaddresses)";
+
+/** Upsert adding to the bytes of a bucket already stored. The client addresses are kept if none were sketched. */
+private static final String SQL_UPSERT_ADD =
+		"insert into datausage (idtenant, intervalstart, intervalduration, numberofbytes, clientaddresses)"
+				+ " values (?, ?, ?, ?, ?) on duplicate key update"
+				+ " numberofbytes = numberofbytes + values(numberofbytes),"
+				+ " clientaddresses = coalesce(values(clientaddresses), clientaddresses)";
+
+/** Upsert, prepared once */
+private final PreparedStatement psUpsert;
+
+/** Number of rows sent in each batch */
+private final int batchSize;
+
+/** Sketches of each interval, whose client addresses are stored with their buckets, or null if none were kept */
+private final IntervalSketchMap intervalSketchMap;
+
+/** Number of rows in the batch not sent yet */
+private int pending = 0;
+
+/** Number of rows sent */
+private long upserted = 0;
+
+/**
+ * Constructor. Prepares the upsert.
+ *
+ * @param connection Connection to store with, in the transaction the buckets are stored in
+ * @param batchSizeArg Number of rows sent in each batch
+ * @param addToStoredBytes Add to the bytes already stored, rather than replacing them?
+ * @param intervalSketchMapArg Sketches of each interval, whose client addresses are stored with their buckets, or null
+ *            if none were kept. Any client addresses already stored must have been merged into them.
+ * @throws SQLException On error preparing the upsert
+ */
+public DataUsageUpsertHandler(Connection connection, int batchSizeArg, boolean addToStoredBytes,
+		IntervalSketchMap intervalSketchMapArg) throws SQLException {
+	this.batchSize = batchSizeArg;
+	this.intervalSketchMap = intervalSketchMapArg;
+	this.psUpsert = connection.prepareStatement(addToStoredBytes ? SQL_UPSERT_ADD : SQL_UPSERT_REPLACE);
+}
+
+/**
+ * Adds a bucket to the batch, sending the batch once it is full
+ *
+ * @param ttik Tenant, interval start and interval duration of the bucket
+ * @param numberOfBytes Number of bytes used in the bucket
+ * @throws IOException On error sending the batch
+ */
+public void handle(TenantTimeIntervalKey ttik, long numberOfBytes) throws IOException {
+	// The distinct client addresses, if they were sketched
+	HyperLogLog clientAddresses = null;
+	if (intervalSketchMap != null) {
+		IntervalSketches intervalSketches =
+				intervalSketchMap.get(ttik.getInterval(), ttik.getIntervalStart().getTime(), false);
+		clientAddresses =
+				intervalSketches == null ? null : intervalSketches.getClientAddresses(ttik.getTenantId(), false);
+	}
+
+	try {
+		psUpsert.setInt(1, ttik.getTenantId());
+		psUpsert.setTimestamp(2, new Timestamp(ttik.getIntervalStart().getTime()));
+		psUpsert.setInt(3, ttik.getInterval());
+		psUpsert.setLong(4, numberOfBytes);
+		if (clientAddresses == null) {
+			psUpsert.setNull(5, Types.VARBINARY);
+		} else {
+			psUpsert.setBytes(5, clientAddresses.toBytes());
+		}
+		psUpsert.addBatch();
+
+		if (++pending == batchSize) {
+			executeBatch();
+		}
+	} catch (SQLException ex) {
+		throw new IOException("Storing bucket " + ttik.getTenantId() + " " + ttik.getIntervalStart() + " "
+				+ ttik.getInterval() + ": " + ex.getMessage(), ex);
+	}
+}
+
+/**
+ * Sends the rest of the rows
+ *
+ * @return Number of rows sent
+ * @throws SQLException On error sending the rows
+ */
+public long finish() throws SQLException {
+	if (pending > 0) {
+		executeBatch();
+	}
+	return upserted;
+}
+
+/**
+ * Closes the upsert
+ *
+ * @throws SQLException On error closing it
+ */
+public void close() throws SQLException {
+	psUpsert.close();
+}
+
+/**
+ * Sends the rows in the batch
+ *
+ * @throws SQLException On error sending the rows
+ */
+private void executeBatch() throws SQLException {
+	psUpsert.executeBatch();
+	upserted += pending;
+	pending = 0;
+}
+}
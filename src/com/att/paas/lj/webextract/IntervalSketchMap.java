@@ -0,0 +1,142 @@
+package com.att.paas.lj.webextract;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.att.paas.lj.webextract.sketch.HyperLogLog;
+
+/**
+ * Holds the sketches of each interval of each interval duration, as a parser adds tenant requests to them. Like a
+ * BytesUsedMap, each parser adds to its own, and they are merged afterwards. An instance is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class IntervalSketchMap {
+
+/** Interval durations for data collection, in minutes */
+private final int[] intervalDurations;
+
+/** Sketches of each interval of each duration, by interval start, in milliseconds since the epoch, earliest first */
+private final Map<Integer, TreeMap<Long, IntervalSketches>> mapIntervals =
+		new HashMap<Integer, TreeMap<Long, IntervalSketches>>();
+
+/** Start of the last interval added to, of each duration. Lines next to each other are mostly in the same one. */
+private final long[] lastIntervalStarts;
+
+/** Sketches of the last interval added to, of each duration, or null */
+private final IntervalSketches[] lastIntervalSketches;
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ */
+public IntervalSketchMap(int[] intervalDurationsArg) {
+	this.intervalDurations = intervalDurationsArg;
+	this.lastIntervalStarts = new long[intervalDurationsArg.length];
+	this.lastIntervalSketches = new IntervalSketches[intervalDurationsArg.length];
+	for (int intervalDuration : intervalDurationsArg) {
+		mapIntervals.put(intervalDuration, new TreeMap<Long, IntervalSketches>());
+	}
+}
+
+/**
+ * Adds a tenant request to the sketches of its interval of each duration
+ *
+ * @param time Time of the request (e.g. the start of its interval of the common duration), in milliseconds since the
+ *            epoch
+ * @param tenantId Tenant id
+ * @param numberOfBytes Number of bytes delivered for the request
+ * @param line Bytes holding the line of the request
+ * @param clientAddressStart Start of the client address in the line, or -1 if it has none
+ * @param clientAddressEnd End of the client address in the line (exclusive)
+ */
+public void add(long time, int tenantId, long numberOfBytes, byte[] line, int clientAddressStart,
+		int clientAddressEnd) {
+	// The address is hashed once, for all the durations
+	boolean hasClientAddress = clientAddressStart != -1;
+	long clientAddressHash = hasClientAddress ? HyperLogLog.hash(line, clientAddressStart, clientAddressEnd) : 0;
+
+	for (int i = 0; i < intervalDurations.length; i++) {
+		long intervalStart = AccessLogTimestampParser.getIntervalStart(time, intervalDurations[i]);
+		IntervalSketches intervalSketches = lastIntervalSketches[i];
+		if (intervalSketches == null || intervalStart != lastIntervalStarts[i]) {
+			intervalSketches = get(intervalDurations[i], intervalStart, true);
+			lastIntervalSketches[i] = intervalSketches;
+			lastIntervalStarts[i] = intervalStart;
+		}
+		intervalSketches.add(tenantId, numberOfBytes, clientAddressHash, hasClientAddress);
+	}
+}
+
+/**
+ * Merges all the sketches of another map into this one, leaving the other empty
+ *
+ * @param other other map, of the same interval durations
+ */
+public void addAll(IntervalSketchMap other) {
+	for (Map.Entry<Integer, TreeMap<Long, IntervalSketches>> entryDuration : other.mapIntervals.entrySet()) {
+		for (Map.Entry<Long, IntervalSketches> entry : entryDuration.getValue().entrySet()) {
+			IntervalSketches intervalSketches = get(entryDuration.getKey(), entry.getKey(), false);
+			if (intervalSketches == null) {
+				getIntervals(entryDuration.getKey()).put(entry.getKey(), entry.getValue());
+			} else {
+				intervalSketches.merge(entry.getValue());
+			}
+		}
+		entryDuration.getValue().clear();
+	}
+	other.clearLast();
+}
+
+/**
+ * Gets the sketches of an interval
+ *
+ * @param intervalDuration Interval duration, in minutes
+ * @param intervalStart Interval start, in milliseconds since the epoch
+ * @param create Create empty sketches, if the interval has none?
+ * @return the sketches, or null if the interval has none and create is false
+ */
+public IntervalSketches get(int intervalDuration, long intervalStart, boolean create) {
+	TreeMap<Long, IntervalSketches> mapDurationIntervals = getIntervals(intervalDuration);
+	IntervalSketches intervalSketches = mapDurationIntervals.get(intervalStart);
+	if (intervalSketches == null && create) {
+		intervalSketches = new IntervalSketches();
+		mapDurationIntervals.put(intervalStart, intervalSketches);
+	}
+	return intervalSketches;
+}
+
+/**
+ * Gets the sketches of every interval of a duration
+ *
+ * @param intervalDuration Interval duration, in minutes
+ * @return the sketches, by interval start, in milliseconds since the epoch, earliest first
+ */
+public TreeMap<Long, IntervalSketches> getIntervals(int intervalDuration) {
+	TreeMap<Long, IntervalSketches> mapDurationIntervals = mapIntervals.get(intervalDuration);
+	if (mapDurationIntervals == null) {
+		throw new IllegalArgumentException("No sketches for interval duration " + intervalDuration);
+	}
+	return mapDurationIntervals;
+}
+
+/**
+ * Gets intervalDurations
+ *
+ * @return Interval durations for data collection, in minutes
+ */
+public int[] getIntervalDurations() {
+	return intervalDurations;
+}
+
+/**
+ * Forgets the last interval added to, of each duration, once they may no longer be in the map
+ */
+private void clearLast() {
+	for (int i = 0; i < lastIntervalSketches.length; i++) {
+		lastIntervalSketches[i] = null;
+	}
+}
+}
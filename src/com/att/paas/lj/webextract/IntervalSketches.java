@@ -0,0 +1,113 @@
+package com.att.paas.lj.webextract;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.att.paas.lj.webextract.sketch.HyperLogLog;
+import com.att.paas.lj.webextract.sketch.SpaceSaving;
+import com.att.paas.lj.webextract.sketch.TDigest;
+
+/**
+ * Sketches of the tenant requests in one interval, each in bounded memory: the tenants with the most bytes, the
+ * distinct client addresses of each tenant, and the percentiles of the response sizes. They answer what would
+ * otherwise need the log lines, and they can be merged with the sketches of the same interval from other hosts and
+ * runs.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class IntervalSketches {
+
+/** Number of tenants with the most bytes reported for an interval */
+public static final int TOP_TENANTS = 20;
+
+/** Counters kept for the tenants with the most bytes, a few times TOP_TENANTS so those are found exactly */
+private static final int TOP_TENANTS_CAPACITY = 5 * TOP_TENANTS;
+
+/** Tenants with the most bytes */
+private final SpaceSaving topTenants = new SpaceSaving(TOP_TENANTS_CAPACITY);
+
+/** Response sizes, in bytes */
+private final TDigest responseSizes = new TDigest();
+
+/** Distinct client addresses of each tenant */
+private final Map<Integer, HyperLogLog> mapClientAddresses = new HashMap<Integer, HyperLogLog>();
+
+/** Tenant of the last request with a client address. Lines next to each other are mostly for the same tenant. */
+private int lastTenantId = 0;
+
+/** Client addresses of lastTenantId, or null if there was no request with a client address yet */
+private HyperLogLog lastClientAddresses = null;
+
+/**
+ * Adds a tenant request
+ *
+ * @param tenantId Tenant id
+ * @param numberOfBytes Number of bytes delivered for the request
+ * @param clientAddressHash Hash of the client address, from HyperLogLog.hash()
+ * @param hasClientAddress Does the request have a client address? If not, clientAddressHash is ignored.
+ */
+public void add(int tenantId, long numberOfBytes, long clientAddressHash, boolean hasClientAddress) {
+	topTenants.add(tenantId, numberOfBytes);
+	responseSizes.add(numberOfBytes);
+
+	if (hasClientAddress) {
+		if (lastClientAddresses == null || tenantId != lastTenantId) {
+			lastClientAddresses = getClientAddresses(tenantId, true);
+			lastTenantId = tenantId;
+		}
+		lastClientAddresses.addHash(clientAddressHash);
+	}
+}
+
+/**
+ * Merges the sketches of the same interval into these
+ *
+ * @param other other sketches
+ */
+public void merge(IntervalSketches other) {
+	topTenants.merge(other.topTenants);
+	responseSizes.merge(other.responseSizes);
+	for (Map.Entry<Integer, HyperLogLog> entry : other.mapClientAddresses.entrySet()) {
+		HyperLogLog clientAddresses = mapClientAddresses.get(entry.getKey());
+		if (clientAddresses == null) {
+			mapClientAddresses.put(entry.getKey(), entry.getValue());
+		} else {
+			clientAddresses.merge(entry.getValue());
+		}
+	}
+}
+
+/**
+ * Gets the distinct client addresses of a tenant
+ *
+ * @param tenantId Tenant id
+ * @param create Create an empty sketch, if the tenant has none?
+ * @return the sketch, or null if the tenant has none and create is false
+ */
+public HyperLogLog getClientAddresses(int tenantId, boolean create) {
+	HyperLogLog clientAddresses = mapClientAddresses.get(tenantId);
+	if (clientAddresses == null && create) {
+		clientAddresses = new HyperLogLog();
+		mapClientAddresses.put(tenantId, clientAddresses);
+	}
+	return clientAddresses;
+}
+
+/**
+ * Gets topTenants
+ *
+ * @return Tenants with the most bytes
+ */
+public SpaceSaving getTopTenants() {
+	return topTenants;
+}
+
+/**
+ * Gets responseSizes
+ *
+ * @return Response sizes, in bytes
+ */
+public TDigest getResponseSizes() {
+	return responseSizes;
+}
+}
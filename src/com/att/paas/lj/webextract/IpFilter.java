@@ -0,0 +1,458 @@
+package com.att.paas.lj.webextract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of IPv4 and IPv6 address prefixes (e.g. "10.20.0.0/16", "2001:db8::/32"), such as the AVPN addresses whose
+ * requests are not counted, compiled into sorted, non-overlapping address ranges. An address is looked up with a
+ * binary search of the ranges, so the time does not grow with the number of prefixes, and it is read from the bytes of
+ * the log line where it is, with nothing allocated. IPv4 addresses written as IPv6 (::ffff:a.b.c.d) are looked up as
+ * IPv4.
+ * <p>
+ * A compiled filter does not change, so it can be shared; each parser gets its own matcher from it.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class IpFilter {
+
+/** Flips the top bit, so unsigned addresses compare in order as signed ints */
+private static final int IPV4_ORDER_BIT = Integer.MIN_VALUE;
+
+/** Flips the top bit, so unsigned halves of addresses compare in order as signed longs */
+private static final long IPV6_ORDER_BIT = Long.MIN_VALUE;
+
+/** The prefixes, as they were given */
+private final List<String> prefixes;
+
+/** Start of each IPv4 range, with IPV4_ORDER_BIT flipped, in order */
+private final int[] ipv4Starts;
+
+/** End of each IPv4 range (inclusive), with IPV4_ORDER_BIT flipped */
+private final int[] ipv4Ends;
+
+/** High 64 bits of the start of each IPv6 range, with IPV6_ORDER_BIT flipped, in order */
+private final long[] ipv6StartsHigh;
+
+/** Low 64 bits of the start of each IPv6 range, with IPV6_ORDER_BIT flipped */
+private final long[] ipv6StartsLow;
+
+/** High 64 bits of the end of each IPv6 range (inclusive), with IPV6_ORDER_BIT flipped */
+private final long[] ipv6EndsHigh;
+
+/** Low 64 bits of the end of each IPv6 range (inclusive), with IPV6_ORDER_BIT flipped */
+private final long[] ipv6EndsLow;
+
+/**
+ * Constructor.
+ *
+ * @param prefixesArg The prefixes, as they were given
+ * @param ipv4Ranges Start and end of each IPv4 range, merged and in order
+ * @param ipv6Ranges High and low 64 bits of the start, then of the end, of each IPv6 range, merged and in order
+ */
+private IpFilter(List<String> prefixesArg, List<int[]> ipv4Ranges, List<long[]> ipv6Ranges) {
+	this.prefixes = prefixesArg;
+
+	ipv4Starts = new int[ipv4Ranges.size()];
+	ipv4Ends = new int[ipv4Ranges.size()];
+	for (int i = 0; i < ipv4Starts.length; i++) {
+		ipv4Starts[i] = ipv4Ranges.get(i)[0];
+		ipv4Ends[i] = ipv4Ranges.get(i)[1];
+	}
+
+	ipv6StartsHigh = new long[ipv6Ranges.size()];
+	ipv6StartsLow = new long[ipv6Ranges.size()];
+	ipv6EndsHigh = new long[ipv6Ranges.size()];
+	ipv6EndsLow = new long[ipv6Ranges.size()];
+	for (int i = 0; i < ipv6StartsHigh.length; i++) {
+		long[] range = ipv6Ranges.get(i);
+		ipv6StartsHigh[i] = range[0];
+		ipv6StartsLow[i] = range[1];
+		ipv6EndsHigh[i] = range[2];
+		ipv6EndsLow[i] = range[3];
+	}
+}
+
+/**
+ * Compiles prefixes
+ *
+ * @param prefixes Prefixes, each an address and an optional "/" and prefix length (e.g. "10.20.0.0/16",
+ *            "2001:db8::/32", "192.0.2.7"). Bits of the address after the prefix length are ignored.
+ * @return the filter
+ * @throws IllegalArgumentException If a prefix is not valid
+ */
+public static IpFilter compile(Collection<String> prefixes) {
+	Ipv6Address ipv6Address = new Ipv6Address();
+
+	List<int[]> ipv4Ranges = new ArrayList<int[]>();
+	List<long[]> ipv6Ranges = new ArrayList<long[]>();
+	for (String prefix : prefixes) {
+		String trimmed = prefix.trim();
+		int slash = trimmed.indexOf('/');
+		byte[] address = (slash == -1 ? trimmed : trimmed.substring(0, slash)).getBytes();
+
+		int length = -1;
+		if (slash != -1) {
+			try {
+				length = Integer.parseInt(trimmed.substring(slash + 1));
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Not an IP prefix: " + prefix);
+			}
+		}
+
+		long ipv4 = parseIpv4(address, 0, address.length);
+		if (ipv4 != -1) {
+			length = length == -1 ? 32 : length;
+			if (length < 0 || length > 32) {
+				throw new IllegalArgumentException("IPv4 prefix length must be 0 to 32: " + prefix);
+			}
+			long hostMask = length == 0 ? 0xffffffffL : (1L << (32 - length)) - 1;
+			ipv4Ranges.add(new int[] { (int) (ipv4 & ~hostMask) ^ IPV4_ORDER_BIT,
+					(int) (ipv4 | hostMask) ^ IPV4_ORDER_BIT });
+		} else if (ipv6Address.parse(address, 0, address.length)) {
+			length = length == -1 ? 128 : length;
+			if (length < 0 || length > 128) {
+				throw new IllegalArgumentException("IPv6 prefix length must be 0 to 128: " + prefix);
+			}
+			long hostMaskHigh = length >= 64 ? 0 : length == 0 ? -1L : -1L >>> length;
+			long hostMaskLow = length <= 64 ? -1L : length == 128 ? 0 : -1L >>> (length - 64);
+			ipv6Ranges.add(new long[] { (ipv6Address.high & ~hostMaskHigh) ^ IPV6_ORDER_BIT,
+					(ipv6Address.low & ~hostMaskLow) ^ IPV6_ORDER_BIT,
+					(ipv6Address.high | hostMaskHigh) ^ IPV6_ORDER_BIT,
+					(ipv6Address.low | hostMaskLow) ^ IPV6_ORDER_BIT });
+		} else {
+			throw new IllegalArgumentException("Not an IP prefix: " + prefix);
+		}
+	}
+
+	return new IpFilter(new ArrayList<String>(prefixes), mergeIpv4Ranges(ipv4Ranges), mergeIpv6Ranges(ipv6Ranges));
+}
+
+/**
+ * Sorts IPv4 ranges and merges those that overlap, so an address is in at most one
+ *
+ * @param ranges Start and end of each range
+ * @return the merged ranges, in order
+ */
+private static List<int[]> mergeIpv4Ranges(List<int[]> ranges) {
+	int[][] sorted = ranges.toArray(new int[ranges.size()][]);
+	Arrays.sort(sorted, new Comparator<int[]>() {
+
+		public int compare(int[] range1, int[] range2) {
+			return range1[0] < range2[0] ? -1 : range1[0] > range2[0] ? 1 : 0;
+		}
+	});
+
+	List<int[]> merged = new ArrayList<int[]>();
+	for (int[] range : sorted) {
+		int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+		if (last != null && range[0] <= last[1]) {
+			last[1] = Math.max(last[1], range[1]);
+		} else {
+			merged.add(range);
+		}
+	}
+	return merged;
+}
+
+/**
+ * Sorts IPv6 ranges and merges those that overlap, so an address is in at most one
+ *
+ * @param ranges High and low 64 bits of the start, then of the end, of each range
+ * @return the merged ranges, in order
+ */
+private static List<long[]> mergeIpv6Ranges(List<long[]> ranges) {
+	long[][] sorted = ranges.toArray(new long[ranges.size()][]);
+	Arrays.sort(sorted, new Comparator<long[]>() {
+
+		public int compare(long[] range1, long[] range2) {
+			return compareIpv6(range1[0], range1[1], range2[0], range2[1]);
+		}
+	});
+
+	List<long[]> merged = new ArrayList<long[]>();
+	for (long[] range : sorted) {
+		long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+		if (last != null && compareIpv6(range[0], range[1], last[2], last[3]) <= 0) {
+			if (compareIpv6(range[2], range[3], last[2], last[3]) > 0) {
+				last[2] = range[2];
+				last[3] = range[3];
+			}
+		} else {
+			merged.add(range);
+		}
+	}
+	return merged;
+}
+
+/**
+ * Compares two IPv6 addresses whose halves have IPV6_ORDER_BIT flipped
+ *
+ * @param high1 High 64 bits of the first
+ * @param low1 Low 64 bits of the first
+ * @param high2 High 64 bits of the second
+ * @param low2 Low 64 bits of the second
+ * @return less than 0, 0 or more than 0 as the first is before, the same as or after the second
+ */
+private static int compareIpv6(long high1, long low1, long high2, long low2) {
+	if (high1 != high2) {
+		return high1 < high2 ? -1 : 1;
+	}
+	return low1 < low2 ? -1 : low1 > low2 ? 1 : 0;
+}
+
+/**
+ * Reads an IPv4 address held as ASCII bytes, in dotted decimal
+ *
+ * @param bytes Bytes holding the address
+ * @param start Start of the address
+ * @param end End of the address (exclusive)
+ * @return the address, 0 to 2^32 - 1, or -1 if the bytes are not one
+ */
+private static long parseIpv4(byte[] bytes, int start, int end) {
+	long address = 0;
+	int octets = 0;
+	int position = start;
+	while (position < end && octets < 4) {
+		int octet = 0;
+		int digits = 0;
+		for (; position < end && bytes[position] >= '0' && bytes[position] <= '9' && digits < 3; position++) {
+			octet = octet * 10 + bytes[position] - '0';
+			digits++;
+		}
+		if (digits == 0 || octet > 255) {
+			return -1;
+		}
+		address = address << 8 | octet;
+		octets++;
+
+		if (octets < 4) {
+			if (position >= end || bytes[position] != '.') {
+				return -1;
+			}
+			position++;
+		}
+	}
+	return octets == 4 && position == end ? address : -1;
+}
+
+/**
+ * Makes a matcher that looks up addresses in this filter
+ *
+ * @return the matcher, for use by one thread
+ */
+public Matcher createMatcher() {
+	return new Matcher();
+}
+
+/**
+ * Gets prefixes
+ *
+ * @return The prefixes, as they were given
+ */
+public List<String> getPrefixes() {
+	return prefixes;
+}
+
+/**
+ * Gets the number of ranges the prefixes were compiled into
+ *
+ * @return IPv4 and IPv6 ranges
+ */
+public int getRangeCount() {
+	return ipv4Starts.length + ipv6StartsHigh.length;
+}
+
+/**
+ * Looks up addresses in the filter. An instance holds the last IPv6 address read, so it is not thread safe.
+ */
+public class Matcher {
+
+/** Last IPv6 address read */
+private final Ipv6Address ipv6Address = new Ipv6Address();
+
+/**
+ * Is an address held as ASCII bytes in the filter?
+ *
+ * @param bytes Bytes holding the address (e.g. the client address of a log line)
+ * @param start Start of the address
+ * @param end End of the address (exclusive)
+ * @return true if it is in one of the prefixes. false if it is not, or is not an IP address (e.g. a host name).
+ */
+public boolean matches(byte[] bytes, int start, int end) {
+	long ipv4 = parseIpv4(bytes, start, end);
+	if (ipv4 != -1) {
+		return containsIpv4((int) ipv4);
+	}
+
+	if (!ipv6Address.parse(bytes, start, end)) {
+		return false;
+	}
+	if (ipv6Address.high == 0 && ipv6Address.low >>> 32 == 0xffffL) {
+		return containsIpv4((int) ipv6Address.low);
+	}
+	return containsIpv6(ipv6Address.high ^ IPV6_ORDER_BIT, ipv6Address.low ^ IPV6_ORDER_BIT);
+}
+
+/**
+ * Is an IPv4 address in one of the ranges?
+ *
+ * @param address Address
+ * @return true if it is
+ */
+private boolean containsIpv4(int address) {
+	int key = address ^ IPV4_ORDER_BIT;
+
+	// Find the last range starting at or before the address
+	int lowIndex = 0;
+	int highIndex = ipv4Starts.length - 1;
+	while (lowIndex <= highIndex) {
+		int middle = (lowIndex + highIndex) >>> 1;
+		if (ipv4Starts[middle] <= key) {
+			lowIndex = middle + 1;
+		} else {
+			highIndex = middle - 1;
+		}
+	}
+	return highIndex >= 0 && key <= ipv4Ends[highIndex];
+}
+
+/**
+ * Is an IPv6 address in one of the ranges?
+ *
+ * @param keyHigh High 64 bits of the address, with IPV6_ORDER_BIT flipped
+ * @param keyLow Low 64 bits of the address, with IPV6_ORDER_BIT flipped
+ * @return true if it is
+ */
+private boolean containsIpv6(long keyHigh, long keyLow) {
+	// Find the last range starting at or before the address
+	int lowIndex = 0;
+	int highIndex = ipv6StartsHigh.length - 1;
+	while (lowIndex <= highIndex) {
+		int middle = (lowIndex + highIndex) >>> 1;
+		if (compareIpv6(ipv6StartsHigh[middle], ipv6StartsLow[middle], keyHigh, keyLow) <= 0) {
+			lowIndex = middle + 1;
+		} else {
+			highIndex = middle - 1;
+		}
+	}
+	return highIndex >= 0 && compareIpv6(keyHigh, keyLow, ipv6EndsHigh[highIndex], ipv6EndsLow[highIndex]) <= 0;
+}
+}
+
+/**
+ * An IPv6 address read from bytes, as two halves, so reading one allocates nothing
+ */
+private static class Ipv6Address {
+
+/** High 64 bits */
+private long high;
+
+/** Low 64 bits */
+private long low;
+
+/**
+ * Reads an IPv6 address held as ASCII bytes: up to 8 groups of up to 4 hex digits, with at most one
+ * "::" standing for groups of zeros, and the last 32 bits optionally in dotted decimal. A zone ("%eth0") is ignored.
+ *
+ * @param bytes Bytes holding the address
+ * @param start Start of the address
+ * @param end End of the address (exclusive)
+ * @return true if the bytes are an IPv6 address
+ */
+boolean parse(byte[] bytes, int start, int end) {
+	for (int i = start; i < end; i++) {
+		if (bytes[i] == '%') {
+			end = i;
+			break;
+		}
+	}
+
+	// Groups before the "::", and after it, each shifted in from the right of a 128 bit number
+	long headHigh = 0;
+	long headLow = 0;
+	int headGroups = 0;
+	long tailHigh = 0;
+	long tailLow = 0;
+	int tailGroups = 0;
+	boolean compressed = false;
+
+	int position = start;
+	if (end - position >= 2 && bytes[position] == ':' && bytes[position + 1] == ':') {
+		compressed = true;
+		position += 2;
+	}
+	while (position < end) {
+		int group = 0;
+		int digits = 0;
+		int groupStart = position;
+		for (; position < end && digits <= 4; position++) {
+			int digit = Character.digit(bytes[position], 16);
+			if (digit == -1) {
+				break;
+			}
+			group = group << 4 | digit;
+			digits++;
+		}
+
+		int groups = 1;
+		if (position < end && bytes[position] == '.') {
+			// The last 32 bits, in dotted decimal
+			long ipv4 = parseIpv4(bytes, groupStart, end);
+			if (ipv4 == -1) {
+				return false;
+			}
+			group = (int) ipv4;
+			groups = 2;
+			position = end;
+		} else if (digits == 0 || digits > 4) {
+			return false;
+		}
+
+		if (compressed) {
+			tailHigh = tailHigh << (16 * groups) | tailLow >>> (64 - 16 * groups);
+			tailLow = tailLow << (16 * groups) | (group & 0xffffffffL);
+			tailGroups += groups;
+		} else {
+			headHigh = headHigh << (16 * groups) | headLow >>> (64 - 16 * groups);
+			headLow = headLow << (16 * groups) | (group & 0xffffffffL);
+			headGroups += groups;
+		}
+		if (headGroups + tailGroups > 8) {
+			return false;
+		}
+
+		if (position < end) {
+			// A ":" between groups, or the one "::"
+			if (bytes[position] != ':' || position + 1 == end) {
+				return false;
+			}
+			position++;
+			if (bytes[position] == ':') {
+				if (compressed) {
+					return false;
+				}
+				compressed = true;
+				position++;
+			}
+		}
+	}
+
+	if (compressed ? headGroups + tailGroups >= 8 : headGroups != 8) {
+		return false;
+	}
+
+	// Move the head groups up to the top, leaving the zeros of the "::" between them and the tail groups
+	for (int shift = 8 - headGroups; shift > 0; shift--) {
+		headHigh = headHigh << 16 | headLow >>> 48;
+		headLow = headLow << 16;
+	}
+	high = headHigh | tailHigh;
+	low = headLow | tailLow;
+	return true;
+}
+}
+}
@@ -1,27 +1,22 @@
 package com.att.paas.lj.webextract;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.Iterator;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -30,11 +25,17 @@ import org.hibernate.cfg.Configuration;
 
 import com.att.paas.lj.webextract.db.DataUsage;
 import com.att.paas.lj.webextract.db.HostConnection;
+import com.att.paas.lj.webextract.db.IntervalSketch;
+import com.att.paas.lj.webextract.db.IpFilterPrefix;
+import com.att.paas.lj.webextract.db.LogCheckpoint;
 import com.att.paas.lj.webextract.db.LogLocation;
+import com.att.paas.lj.webextract.sketch.HyperLogLog;
+import com.att.paas.lj.webextract.sketch.SpaceSaving;
+import com.att.paas.lj.webextract.sketch.TDigest;
 import com.att.paas.lj.webextract.util.ExecuteThroughSSH;
-import com.att.paas.lj.webextract.util.ExecuteThroughSSH.ExecuteThroughSSHException;
-import com.att.paas.lj.webextract.util.ExecuteThroughSSH.Response;
 import com.att.paas.lj.webextract.util.GetOpt;
+import com.att.paas.lj.webextract.util.PooledConnectionProvider;
+import com.att.paas.lj.webextract.util.SSHConnectionPool;
 import com.att.paas.lj.webextract.util.SimpleLog4jConfig;
 
 /**
@@ -46,11 +47,32 @@ public class LjWebDataExtract {
 /** Log4j logger */
 private static final Logger logger = Logger.getLogger(LjWebDataExtract.class);
 
-/** Local access log file */
-private static final String ACCESS_LOG_FILE = "data/access.log";
+/** Name of a local copy kept with -t, with the ids of its host and location */
+private static final Pattern TEE_FILE_NAME_PATTERN = Pattern.compile("access_(\\d+)_(\\d+)\\.log");
+
+/** Number of buckets stored between flushes of the Hibernate session, so the session does not hold them all */
+private static final int STORE_FLUSH_INTERVAL = 1000;
+
+/** Default number of buckets sent in each batch of upserts */
+public static final int DEFAULT_STORE_BATCH_SIZE = 500;
 
 /** Map to hold bytes used */
-private final Map<TenantTimeIntervalKey, Integer> mapBytesUsed = new TreeMap<TenantTimeIntervalKey, Integer>();
+private BytesUsedMap mapBytesUsed = null;
+
+/** Sketches of each interval, or null if none are kept */
+private IntervalSketchMap intervalSketchMap = null;
+
+/** Checkpoints to save, when collecting incrementally */
+private final List<LogCheckpoint> checkpoints = new ArrayList<LogCheckpoint>();
+
+/** Checkpoints to delete, when collecting incrementally */
+private final List<LogCheckpoint> obsoleteCheckpoints = new ArrayList<LogCheckpoint>();
+
+/** Number of buckets sent in each batch of upserts. 0 looks up each bucket instead. */
+private int storeBatchSize = DEFAULT_STORE_BATCH_SIZE;
+
+/** Add collected bytes to the bytes already stored, rather than replacing them? */
+private boolean addToStoredBytes = false;
 
 /** Hibernate session factory */
 private SessionFactory sessionFactory = null;
@@ -74,19 +96,8 @@ private void process(String[] args) {
 	// If log4j is not configured, create a simple configuration
 	SimpleLog4jConfig.doIt();
 
-	// Date format in web access logs
-	SimpleDateFormat sdfAccessLog = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z");
-
-	// This pattern is when the request for a page has the tenant id
-	Pattern pattern1 =
-			Pattern.compile("(.*?) - - (\\[.*?\\]) \".*?\" \\d*? (\\d*?) \"http://.*?/networking/Service\\?.*?[\\&\\?]id=(.*?)[\\&\"].*");
-
-	// This is when the referring page has the tenant id
-	Pattern pattern2 =
-			Pattern.compile("(.*?) - - (\\[.*?\\]) \"GET /networking/Service\\?.*?[\\&\\?]id=(.*?)[\\&\"].*? \\d*? (\\d*?) .*");
-
-	// Interval duration for data collection
-	int intervalDuration = 15;
+	// Options controlling the collection
+	CollectionOptions collectionOptions = new CollectionOptions();
 
 	// DB user name
 	String dbUser = null;
@@ -97,8 +108,11 @@ private void process(String[] args) {
 	// DB connection string
 	String dbConnectString = null;
 
+	// Skip the requests from the client addresses in the ipfilterprefix table?
+	boolean filterClientAddresses = false;
+
 	// GetOpt is a class that processes command line args.
-	GetOpt go = new GetOpt(args, "?c:i:p:u:");
+	GetOpt go = new GetOpt(args, "?ab:c:d:ef:g:h:i:k:lm:no:p:rst:u:w:x:");
 	int ch = -1;
 
 	/** Indicates whether to display a usage message. */
@@ -108,21 +122,82 @@ private void process(String[] args) {
 	while ((ch = go.getopt()) != GetOpt.optEOF) {
 		if ((char) ch == '?') {
 			bUsagePrint = true;
+		} else if ((char) ch == 'a') {
+			collectionOptions.setRemoteAggregation(true);
+		} else if ((char) ch == 'b') {
+			storeBatchSize = go.processArg(go.optArgGet(), -1);
 		} else if ((char) ch == 'c') {
 			dbConnectString = go.optArgGet();
+		} else if ((char) ch == 'd') {
+			collectionOptions.setSpoolDirectory(new File(go.optArgGet()));
+		} else if ((char) ch == 'e') {
+			collectionOptions.setIntervalSketches(true);
+		} else if ((char) ch == 'f') {
+			collectionOptions.getLocalFiles().add(new File(go.optArgGet()));
+		} else if ((char) ch == 'g') {
+			collectionOptions.setSpoolMaxAgeDays(go.processArg(go.optArgGet(), 0));
+		} else if ((char) ch == 'h') {
+			collectionOptions.setSessionsPerHost(go.processArg(go.optArgGet(), 0));
 		} else if ((char) ch == 'i') {
-			intervalDuration = go.processArg(go.optArgGet(), 0);
+			collectionOptions.setIntervalDurations(parseIntervalDurations(go, go.optArgGet()));
+		} else if ((char) ch == 'k') {
+			collectionOptions.setAggregationSpillDirectory(new File(go.optArgGet()));
+		} else if ((char) ch == 'l') {
+			collectionOptions.setReplay(true);
+		} else if ((char) ch == 'm') {
+			collectionOptions.setSpoolMaxMegabytes(go.processArg(go.optArgGet(), 0L));
+		} else if ((char) ch == 'n') {
+			filterClientAddresses = true;
+		} else if ((char) ch == 'o') {
+			collectionOptions.setCommandTimeout(go.processArg(go.optArgGet(), -1));
 		} else if ((char) ch == 'p') {
 			dbPassword = go.optArgGet();
+		} else if ((char) ch == 'r') {
+			collectionOptions.setIncremental(true);
+		} else if ((char) ch == 's') {
+			collectionOptions.setSftpTransfer(true);
+		} else if ((char) ch == 't') {
+			collectionOptions.setTeeDirectory(new File(go.optArgGet()));
 		} else if ((char) ch == 'u') {
 			dbUser = go.optArgGet();
+		} else if ((char) ch == 'w') {
+			collectionOptions.setWorkers(go.processArg(go.optArgGet(), 0));
+		} else if ((char) ch == 'x') {
+			collectionOptions.setAggregationMaxMegabytes(go.processArg(go.optArgGet(), -1L));
 		}
 	}
 
 	// Show the user how to call this program.
-	if (bUsagePrint || intervalDuration == 0 || dbUser == null || dbPassword == null || dbConnectString == null) {
-		logger.error("Usage: com.att.paas.lj.webextract.LjWebDataExtract -i <data collection interval> dn"
+	if (bUsagePrint || collectionOptions.getIntervalDurations() == null || collectionOptions.getWorkers() <= 0
+			|| collectionOptions.getSessionsPerHost() <= 0 || collectionOptions.getCommandTimeout() < 0
+			|| collectionOptions.getSpoolMaxMegabytes() <= 0 || collectionOptions.getSpoolMaxAgeDays() <= 0
+			|| collectionOptions.getAggregationMaxMegabytes() <= 0 || storeBatchSize < 0
+			|| (collectionOptions.isReplay() && collectionOptions.getSpoolDirectory() == null) || dbUser == null
+			|| dbPassword == null || dbConnectString == null) {
+		logger.error("Usage: com.att.paas.lj.webextract.LjWebDataExtract"
+				+ " -i <data collection intervals in minutes, e.g. 15,60,1440> dn"
 				+ "\t -c<db connection string> -u<db user> -p<db password>\n"
+				+ "\t[-w <worker threads (default " + CollectionOptions.DEFAULT_WORKERS + ")>]"
+				+ " [-h <locations collected at once per host (default " + CollectionOptions.DEFAULT_SESSIONS_PER_HOST
+				+ ")>]\n" + "\t[-t <directory to keep local copies of access logs in>]"
+				+ " [-r (collect only what was added since the last run)]\n"
+				+ "\t[-a (total the access logs on the remote hosts, which need perl; -t is ignored)]"
+				+ " [-s (fetch access logs through SFTP)]\n"
+				+ "\t[-o <seconds a remote command may run for (default no limit)>]\n"
+				+ "\t[-d <directory to spool compressed access logs in> [-m <spool size limit in MB (default "
+				+ LogSpool.DEFAULT_MAX_MEGABYTES + ")>] [-g <spool age limit in days (default "
+				+ LogSpool.DEFAULT_MAX_AGE_DAYS + ")>]]\n"
+				+ "\t[-l (parse the spool again instead of collecting from the hosts; needs -d)]\n"
+				+ "\t[-f <local access log to parse instead of collecting from the hosts, on -w threads; in the usual"
+				+ " format, unless it was kept with -t> ...]\n"
+				+ "\t[-x <MB of memory each map of bytes used may take before spilling to disk (default "
+				+ BytesUsedMap.DEFAULT_MEMORY_CAP / (1024 * 1024) + ")>"
+				+ " [-k <directory to spill to (default temporary directory)>]]\n"
+				+ "\t[-b <buckets stored per batch of upserts (default " + DEFAULT_STORE_BATCH_SIZE
+				+ "); 0 looks up each bucket, for a datausage table with no unique key on the bucket>]\n"
+				+ "\t[-n (skip requests from the client addresses in the ipfilterprefix table, e.g. AVPN;"
+				+ " -a is ignored)]\n"
+				+ "\t[-e (keep sketches of each interval: top tenants, distinct client addresses, response sizes)]\n"
 				+ "\t-v <allowed variance (in muinutes) between mainframe time and audit log time (default 1)]");
 		return;
 	}
@@ -132,249 +207,304 @@ private void process(String[] args) {
 	hibernateConfiguration.setProperty("hibernate.connection.username", dbUser);
 	hibernateConfiguration.setProperty("hibernate.connection.password", dbPassword);
 
-	// Get Hibernate session factory
-	sessionFactory = hibernateConfiguration.configure().buildSessionFactory();
-
-	// Open a hibernate session
-	Session session = sessionFactory.openSession();
-
-	// Get host connection and directory information
-	session.beginTransaction();
-	@SuppressWarnings("unchecked")
-	List<HostConnection> hostConnections = session.createQuery("from HostConnection").list();
-	session.getTransaction().commit();
-
-	ExecuteThroughSSH ets = new ExecuteThroughSSH();
-
-	// Loop through all locations for all hosts
-	for (HostConnection hcCurrent : hostConnections) {
-		for (LogLocation llCurrent : hcCurrent.getLogLocations()) {
-
-			// If there is no log location, go on to the next
-			if (llCurrent == null) {
-				continue;
-			}
+	// Send each batch of upserts as one multi-row insert
+	hibernateConfiguration.setProperty("hibernate.connection.rewriteBatchedStatements", "true");
 
-			// Perform an ls on the log location, to get all the "access_log*" files (e.g. access_log, access_log.1,
-			// access_log.2, ...
-			Response response = null;
-			try {
-				response =
-						ets.executeCommand(hcCurrent.getHost(), hcCurrent.getUsername(), hcCurrent.getPassword(), null,
-								"ls -1 " + llCurrent.getDirectoryname() + "/access_log*");
-			} catch (IOException ex) {
-				logger.error("Trying to perform 'ls' command on " + hcCurrent.getUsername() + "@" + hcCurrent.getHost()
-						+ ":" + llCurrent.getDirectoryname() + ": " + ex);
-				return;
-			}
-
-			// Get stdout from the ls command
-			InputStream inputstreamToUseOut = response.getStdOut();
-
-			// Reader for standard error
-			BufferedReader brErr = new BufferedReader(new InputStreamReader(response.getStdErr()));
-
-			// Buffer for error messages
-			StringBuffer sbErr = new StringBuffer();
+	// Each worker and this thread can hold a pooled connection at the same time, so none waits on another
+	hibernateConfiguration.configure();
+	if (hibernateConfiguration.getProperty(PooledConnectionProvider.MAX_SIZE) == null) {
+		hibernateConfiguration.setProperty(PooledConnectionProvider.MAX_SIZE,
+				String.valueOf(collectionOptions.getWorkers() + 1));
+	}
 
-			// Line of output
-			String strLineErr = null;
-			try {
-				while ((strLineErr = brErr.readLine()) != null) {
-					sbErr.append("\t").append(strLineErr);
-				}
-			} catch (IOException ex) {
-				logger.error("Reading stderr after  'ls' command on " + hcCurrent.getUsername() + "@"
-						+ hcCurrent.getHost() + ":" + llCurrent.getDirectoryname() + ": " + ex);
-				return;
-			}
+	// Get Hibernate session factory
+	sessionFactory = hibernateConfiguration.buildSessionFactory();
 
-			if (sbErr.length() != 0) {
-				logger.warn("No stderr for 'ls' command on " + hcCurrent.getUsername() + "@" + hcCurrent.getHost()
-						+ ":" + llCurrent.getDirectoryname());
-				return;
-			}
+	// Load the client addresses whose requests are skipped
+	if (filterClientAddresses) {
+		IpFilter ipFilter = loadIpFilter();
+		if (ipFilter == null) {
+			return;
+		}
+		collectionOptions.setIpFilter(ipFilter);
+	}
 
-			// Close the ssh session to release resources
-			ets.close();
-
-			// Create a set to hold the file names, ordered by name to make the earliest first, like:
-			// access_log.2, access_log.1, access_log
-			// NB: It's not necessary to put the files in time order, it just makes it easier to track when debugging.
-			Set<String> setLogFiles = new TreeSet<String>(new Comparator<String>() {
-
-				public int compare(String string1, String string2) {
-					// Get the numeric extension, if any
-					int positionNumericExtension1 = string1.lastIndexOf('.');
-					int positionNumericExtension2 = string2.lastIndexOf('.');
-
-					// The current access_log has no extension, put it at the end of the list
-					if (positionNumericExtension1 == -1 || positionNumericExtension1 == string1.length() - 1) {
-						return 1;
-					}
-
-					if (positionNumericExtension2 == -1 || positionNumericExtension2 == string2.length() - 1) {
-						return -1;
-					}
-
-					// Convert numeric extensions into int
-					int numericExtension1 = 0;
-					try {
-						numericExtension1 = Integer.parseInt(string1.substring(positionNumericExtension1 + 1));
-					} catch (NumberFormatException ex) {
-						return 1;
-					}
-
-					int numericExtension2 = 0;
-					try {
-						numericExtension2 = Integer.parseInt(string2.substring(positionNumericExtension2 + 1));
-					} catch (NumberFormatException ex) {
-						return -1;
-					}
-
-					return numericExtension1 < numericExtension2 ? 1 : numericExtension2 < numericExtension1 ? -1 : 0;
+	// Where the bytes used are added up
+	mapBytesUsed = collectionOptions.newBytesUsedMap();
 
-				}
-			});
+	// Where the sketches of each interval are kept, if they are wanted
+	intervalSketchMap = collectionOptions.newIntervalSketchMap();
+	if (intervalSketchMap != null && collectionOptions.isRemoteAggregation()) {
+		logger.warn("No sketches are kept for locations totalled on the hosts");
+	}
 
-			// Reader for standard out
-			LineNumberReader lnrOut = new LineNumberReader(new InputStreamReader(inputstreamToUseOut));
+	// The spool, if one is kept
+	LogSpool logSpool = null;
+	if (collectionOptions.getSpoolDirectory() != null) {
+		logSpool =
+				new LogSpool(collectionOptions.getSpoolDirectory(), collectionOptions.getSpoolMaxMegabytes(),
+						collectionOptions.getSpoolMaxAgeDays());
+	}
 
-			String line = null;
-			try {
-				while ((line = lnrOut.readLine()) != null) {
-					setLogFiles.add(line.trim());
-				}
-			} catch (IOException ex) {
-				logger.error("Reading stdout after  'ls' command on " + hcCurrent.getUsername() + "@"
-						+ hcCurrent.getHost() + ":" + llCurrent.getDirectoryname() + ": " + ex);
+	if (collectionOptions.isReplay() || !collectionOptions.getLocalFiles().isEmpty()) {
+		// Lines are parsed in the format of the location they came from, so the locations are needed
+		List<HostConnection> hostConnections = loadHostConnections();
+		if (hostConnections == null) {
+			return;
+		}
+		if (collectionOptions.isReplay()) {
+			if (!replaySpool(collectionOptions, logSpool, hostConnections)) {
 				return;
 			}
+		} else if (!parseLocalFiles(collectionOptions, hostConnections)) {
+			return;
+		}
 
-			// Get an iterator, earliest files first
-			Iterator<String> iteratorSetLogFiles = setLogFiles.iterator();
-
-			boolean append = false;
-			while (iteratorSetLogFiles.hasNext()) {
-				String filenameCurrent = iteratorSetLogFiles.next();
-
-				try {
-					// Create(if first file)/append local access log file
-					ExecuteThroughSSH.getRemoteFile(hcCurrent.getHost(), hcCurrent.getUsername(),
-							hcCurrent.getPassword(), null, filenameCurrent, new File(ACCESS_LOG_FILE), append);
-				} catch (ExecuteThroughSSHException ex) {
-					logger.error("Getting file " + hcCurrent.getUsername() + "@" + hcCurrent.getHost() + ":"
-							+ filenameCurrent + ": " + ex);
-					return;
-				}
-
-				append = true;
-			}
-
-			// Read the combined access log file
-			LineNumberReader accessLogReader = null;
-			try {
-				accessLogReader = new LineNumberReader(new FileReader(ACCESS_LOG_FILE));
-			} catch (FileNotFoundException ex) {
-				logger.warn("Access log file " + ACCESS_LOG_FILE + " not found. Nothing to do for location "
-						+ hcCurrent.getHost() + ":" + llCurrent.getDirectoryname());
-				continue;
-			}
-
-			String accessLogLine = null;
-			try {
-				while ((accessLogLine = accessLogReader.readLine()) != null) {
-
-					// We capture remote ip, but we don't use it now. We will use it later to filter AVPN traffic
-					@SuppressWarnings("unused")
-					String remoteIpAddress = null;
+		// What is stored for each bucket found is replaced
+		addToStoredBytes = false;
+		storeUsageData();
+		return;
+	}
 
-					// Interval start date/time
-					String intervalStartString = null;
+	// Open a hibernate session
+	Session session = sessionFactory.openSession();
 
-					// Number of bytes delivered for the request
-					String numberOfBytesString = null;
+	// Get host connection and directory information
+	session.beginTransaction();
+	@SuppressWarnings("unchecked")
+	List<HostConnection> hostConnections = session.createQuery("from HostConnection").list();
 
-					// tenant id
-					String tenantIdString = null;
+	// Get where the last run got to in each file
+	List<LogCheckpoint> previousCheckpoints = null;
+	if (collectionOptions.isIncremental()) {
+		@SuppressWarnings("unchecked")
+		List<LogCheckpoint> listCheckpoints = session.createQuery("from LogCheckpoint").list();
+		previousCheckpoints = listCheckpoints;
+	}
+	session.getTransaction().commit();
 
-					// There are two patterns to try and match against
-					Matcher matcher1 = pattern1.matcher(accessLogLine);
+	// Collect from all locations for all hosts. A remote command that hangs is stopped rather than holding up the run.
+	ExecuteThroughSSH.setDefaultTimeout(collectionOptions.getCommandTimeout() * 1000L);
+	CollectionEngine collectionEngine = new CollectionEngine(collectionOptions);
+	CollectionResult collectionResult = collectionEngine.collect(hostConnections, previousCheckpoints);
 
-					if (matcher1.find()) {
+	// All the SSH work is done, so close the pooled connections
+	SSHConnectionPool.closeInstance();
 
-						remoteIpAddress = matcher1.group(1);
+	if (logSpool != null) {
+		logSpool.evict();
+	}
 
-						intervalStartString = matcher1.group(2);
+	if (collectionResult == null) {
+		return;
+	}
+	mapBytesUsed = collectionResult.getMapBytesUsed();
+	intervalSketchMap = collectionResult.getIntervalSketchMap();
+	if (collectionResult.getParseStatistics().getLinesParsed() > 0) {
+		logger.info("Parsed " + collectionResult.getParseStatistics());
+	}
 
-						numberOfBytesString = matcher1.group(3);
+	// Only what was added since the last run was collected, so it is added to what is stored
+	checkpoints.addAll(collectionResult.getCheckpoints());
+	obsoleteCheckpoints.addAll(collectionResult.getObsoleteCheckpoints());
+	addToStoredBytes = collectionOptions.isIncremental();
 
-						tenantIdString = matcher1.group(4);
-					} else {
-						Matcher matcher2 = pattern2.matcher(accessLogLine);
+	// Store the data
+	storeUsageData();
+} // main
 
-						if (matcher2.find()) {
-							remoteIpAddress = matcher2.group(1);
+/**
+ * Reads the interval durations given with -i
+ *
+ * @param go Command line args
+ * @param arg Interval durations, in minutes, separated by commas (e.g. 15,60,1440)
+ * @return the durations, shortest first and each once, or null if any is not a positive number
+ */
+private static int[] parseIntervalDurations(GetOpt go, String arg) {
+	Set<Integer> setIntervalDurations = new TreeSet<Integer>();
+	for (String intervalDuration : arg.split(",")) {
+		int minutes = go.processArg(intervalDuration.trim(), 0);
+		if (minutes <= 0) {
+			return null;
+		}
+		setIntervalDurations.add(minutes);
+	}
 
-							intervalStartString = matcher2.group(2);
+	int[] intervalDurations = new int[setIntervalDurations.size()];
+	int i = 0;
+	for (int minutes : setIntervalDurations) {
+		intervalDurations[i++] = minutes;
+	}
+	return intervalDurations;
+}
 
-							tenantIdString = matcher2.group(3);
+/**
+ * Loads the client address prefixes whose requests are skipped
+ *
+ * @return the compiled prefixes, or null if one is not valid
+ */
+private IpFilter loadIpFilter() {
+	Session session = sessionFactory.openSession();
+	try {
+		session.beginTransaction();
+		@SuppressWarnings("unchecked")
+		List<IpFilterPrefix> ipFilterPrefixes = session.createQuery("from IpFilterPrefix").list();
+		session.getTransaction().commit();
+
+		List<String> prefixes = new ArrayList<String>(ipFilterPrefixes.size());
+		for (IpFilterPrefix ipFilterPrefix : ipFilterPrefixes) {
+			prefixes.add(ipFilterPrefix.getPrefix());
+		}
 
-							numberOfBytesString = matcher2.group(4);
-						} else {
-							// No match against either pattern. Skip this record.
-							continue;
-						}
-					}
-					Date timeStamp = null;
-					try {
-						timeStamp = sdfAccessLog.parse(intervalStartString);
-					} catch (ParseException ex) {
-						continue;
-					}
+		IpFilter ipFilter = IpFilter.compile(prefixes);
+		logger.info("Skipping requests from " + prefixes.size() + " client address prefixes, in "
+				+ ipFilter.getRangeCount() + " ranges");
+		return ipFilter;
+	} catch (IllegalArgumentException ex) {
+		logger.error("Loading the client address filter: " + ex.getMessage());
+		return null;
+	} finally {
+		session.close();
+	}
+}
 
-					int numberOfBytes = 0;
-					try {
-						numberOfBytes = Integer.parseInt(numberOfBytesString);
-					} catch (NumberFormatException ex) {
-						continue;
-					}
+/**
+ * Loads the hosts, with their log locations
+ *
+ * @return the hosts, or null on error
+ */
+private List<HostConnection> loadHostConnections() {
+	Session session = sessionFactory.openSession();
+	try {
+		session.beginTransaction();
+		@SuppressWarnings("unchecked")
+		List<HostConnection> hostConnections = session.createQuery("from HostConnection").list();
+		for (HostConnection hostConnection : hostConnections) {
+			Hibernate.initialize(hostConnection.getLogLocations());
+		}
+		session.getTransaction().commit();
+		return hostConnections;
+	} catch (HibernateException ex) {
+		logger.error("Loading the log locations: " + ex.getMessage());
+		return null;
+	} finally {
+		session.close();
+	}
+}
 
-					int tenantId = 0;
-					try {
-						tenantId = Integer.parseInt(tenantIdString);
-					} catch (NumberFormatException ex) {
-						continue;
-					}
+/**
+ * Compiles the format of a location
+ *
+ * @param hostConnection Host the location is on
+ * @param logLocation Location
+ * @return the format, or null if the location is in the usual format
+ * @throws IOException If the format is not valid
+ */
+private static LogFormat compileLogFormat(HostConnection hostConnection, LogLocation logLocation)
+		throws IOException {
+	if (logLocation.getFormat() == null) {
+		return null;
+	}
+	try {
+		return LogFormat.compile(logLocation.getFormat());
+	} catch (IllegalArgumentException ex) {
+		throw new IOException("Log format of " + hostConnection.getHost() + ":" + logLocation.getDirectoryname()
+				+ ": " + ex.getMessage());
+	}
+}
 
-					if (tenantId == -1) {
-						continue;
-					}
+/**
+ * Parses the spool again, with no SSH traffic. Each segment is parsed in the format of the location it came from.
+ *
+ * @param collectionOptions Options the spool is parsed with
+ * @param logSpool Spool
+ * @param hostConnections Hosts, with their log locations
+ * @return true if the whole spool was parsed
+ */
+private boolean replaySpool(CollectionOptions collectionOptions, LogSpool logSpool,
+		List<HostConnection> hostConnections) {
+	try {
+		Map<String, AccessLogParser> mapAccessLogParsers = new HashMap<String, AccessLogParser>();
+		for (HostConnection hostConnection : hostConnections) {
+			for (LogLocation logLocation : hostConnection.getLogLocations()) {
+				AccessLogParser accessLogParser =
+						new AccessLogParser(collectionOptions.getIntervalDurations(), compileLogFormat(hostConnection,
+								logLocation), intervalSketchMap, collectionOptions.getIpFilter());
+				mapAccessLogParsers.put(LogSpool.getLocationKey(hostConnection.getHost(),
+						logLocation.getDirectoryname()), accessLogParser);
+			}
+		}
 
-					Date startInterval =
-							new Date((timeStamp.getTime() / (intervalDuration * 60 * 1000)) * intervalDuration * 60
-									* 1000);
+		int segments = logSpool.replay(mapAccessLogParsers, mapBytesUsed);
 
-					// Create key object
-					TenantTimeIntervalKey ttik = new TenantTimeIntervalKey(tenantId, startInterval, intervalDuration);
+		ParseStatistics parseStatistics = new ParseStatistics();
+		for (AccessLogParser accessLogParser : mapAccessLogParsers.values()) {
+			parseStatistics.merge(accessLogParser.getParseStatistics());
+		}
+		logger.info("Parsed " + segments + " spool segments, " + parseStatistics);
+		return true;
+	} catch (IOException ex) {
+		logger.error("Parsing the spool: " + ex.getMessage());
+		return false;
+	}
+}
 
-					// Create map entry if it doesn't exist. If it exists, add to the value there.
-					mapBytesUsed.put(ttik, mapBytesUsed.containsKey(ttik) ? mapBytesUsed.get(ttik) + numberOfBytes
-							: numberOfBytes);
+/**
+ * Parses local copies of access logs, with no SSH traffic. A copy kept with -t is parsed in the format of its
+ * location, found by the ids in its name. Any other file is taken to be in the usual format, which is only safe if no
+ * location has a format of its own.
+ *
+ * @param collectionOptions Options the files are parsed with, with the files
+ * @param hostConnections Hosts, with their log locations
+ * @return true if all the files were parsed
+ */
+private boolean parseLocalFiles(CollectionOptions collectionOptions, List<HostConnection> hostConnections) {
+	ParallelLogParser parallelLogParser =
+			new ParallelLogParser(collectionOptions.getIntervalDurations(), collectionOptions.getWorkers(), false,
+					collectionOptions.getIpFilter(), collectionOptions.getAggregationMemoryCap(),
+					collectionOptions.getAggregationSpillDirectory());
+	for (File localFile : collectionOptions.getLocalFiles()) {
+		try {
+			parallelLogParser.parse(localFile, findLogFormat(localFile, hostConnections), mapBytesUsed,
+					intervalSketchMap);
+		} catch (IOException ex) {
+			logger.error("Parsing " + localFile + ": " + ex.getMessage());
+			return false;
+		}
+	}
+	logger.info("Parsed " + parallelLogParser.getParseStatistics());
+	return true;
+}
 
+/**
+ * Finds the format a local copy of an access log is in
+ *
+ * @param localFile Local copy
+ * @param hostConnections Hosts, with their log locations
+ * @return the format, or null if it is in the usual format
+ * @throws IOException If the format can't be told, or is not valid
+ */
+private static LogFormat findLogFormat(File localFile, List<HostConnection> hostConnections) throws IOException {
+	Matcher matcher = TEE_FILE_NAME_PATTERN.matcher(localFile.getName());
+	boolean teeFile = matcher.matches();
+	for (HostConnection hostConnection : hostConnections) {
+		for (LogLocation logLocation : hostConnection.getLogLocations()) {
+			if (teeFile) {
+				if (matcher.group(1).equals(Integer.toString(hostConnection.getIdhostconnection()))
+						&& matcher.group(2).equals(Integer.toString(logLocation.getIdloglocation()))) {
+					return compileLogFormat(hostConnection, logLocation);
 				}
-			} catch (IOException ex) {
-				logger.error("Reading file " + hcCurrent.getHost() + ":" + llCurrent.getDirectoryname() + "/"
-						+ ACCESS_LOG_FILE);
-				continue;
+			} else if (logLocation.getFormat() != null) {
+				throw new IOException("Format not known, as the file was not kept with -t, and "
+						+ hostConnection.getHost() + ":" + logLocation.getDirectoryname() + " has a format of its own");
 			}
-
-		} // log location loop
-	} // host connection loop
-
-	// Store the data
-	storeUsageData();
-} // main
+		}
+	}
+	if (teeFile) {
+		throw new IOException("Not from a known log location");
+	}
+	return null;
+}
 
 /**
  * Put the collected data in the db
@@ -382,133 +512,227 @@ private void process(String[] args) {
 private void storeUsageData() {
 
 	// Open a hibernate session
-	Session session = sessionFactory.openSession();
-
-	Iterator<TenantTimeIntervalKey> iterator = mapBytesUsed.keySet().iterator();
-
-	Transaction transaction = session.beginTransaction();
+	final Session session = sessionFactory.openSession();
 
-	// Process each buckwet
-	while (iterator.hasNext()) {
-		TenantTimeIntervalKey ttikCurrent = iterator.next();
+	Transaction transaction = null;
+	try {
+		transaction = session.beginTransaction();
 
-		int numberOfBytes = mapBytesUsed.get(ttikCurrent);
-
-		// Find out if the bucket is already in the db
-		Query query =
-				session.createQuery("from DataUsage where idTenant=:idtenant and intervalStart=:intervalstart and intervalDuration=:intervalduration");
-		query.setInteger("idtenant", ttikCurrent.getTenantId());
-		query.setTimestamp("intervalstart", ttikCurrent.getIntervalStart());
-		query.setInteger("intervalduration", ttikCurrent.getInterval());
-		DataUsage dataUsageExisting = (DataUsage) query.uniqueResult();
+		// The client addresses of a bucket are stored whole, so when adding, what is stored is merged in first
+		if (intervalSketchMap != null && addToStoredBytes) {
+			mergeStoredClientAddresses(session);
+		}
 
-		if (dataUsageExisting != null) {
-			// Bucket exists, update byte count and replace
-			dataUsageExisting.setNumberOfBytes(numberOfBytes);
-			session.update(dataUsageExisting);
+		if (storeBatchSize > 0) {
+			upsertUsageData(session);
 		} else {
-			// Bucket does not exist, create and insert.
-			DataUsage dataUsage = new DataUsage();
-			dataUsage.setIdTenant(ttikCurrent.getTenantId());
-			dataUsage.setIntervalStart(ttikCurrent.getIntervalStart());
-			dataUsage.setIntervalDuration(ttikCurrent.getInterval());
-			dataUsage.setNumberOfBytes(numberOfBytes);
-
-			session.save(dataUsage);
+			lookUpAndStoreUsageData(session);
 		}
-	} // data usage map iterator loop
-
-	transaction.commit();
-}
 
-/**
- * Inner class to hold the keys to the byte collecting buckets
- */
-private class TenantTimeIntervalKey implements Comparable<TenantTimeIntervalKey> {
-
-/** Tenant id */
-private final int tenantId;
+		if (intervalSketchMap != null) {
+			storeIntervalSketches(session);
+		}
 
-/** Interval start date/time */
-private final Date intervalStart;
+		// Save the checkpoints in the same transaction, so they always match what has been stored
+		for (LogCheckpoint checkpoint : checkpoints) {
+			session.saveOrUpdate(checkpoint);
+		}
 
-/** Interval duration */
-private final int intervalDuration;
+		for (LogCheckpoint checkpoint : obsoleteCheckpoints) {
+			session.delete(checkpoint);
+		}
 
-/**
- * 
- * Constructor.
- *
- * @param tenantIdArg tenant id
- * @param dateTimeStampArg timestamp
- * @param intervalArg interval
- */
-public TenantTimeIntervalKey(int tenantIdArg, Date dateTimeStampArg, int intervalArg) {
-	this.tenantId = tenantIdArg;
-	this.intervalStart = dateTimeStampArg;
-	this.intervalDuration = intervalArg;
+		transaction.commit();
+	} catch (IOException ex) {
+		logger.error("Storing the usage data: " + ex.getMessage());
+		rollback(transaction);
+	} catch (RuntimeException ex) {
+		// Hibernate errors, e.g. from saving the checkpoints or the commit, leave nothing half stored either
+		logger.error("Storing the usage data: " + ex.getMessage());
+		rollback(transaction);
+	} finally {
+		session.close();
+	}
 }
 
 /**
- * Gets tenantId
+ * Rolls back a transaction that failed, if it was begun, only logging an error
  *
- * @return tenantId
+ * @param transaction Transaction, or null if it could not be begun
  */
-public int getTenantId() {
-	return tenantId;
+private static void rollback(Transaction transaction) {
+	if (transaction == null || !transaction.isActive()) {
+		return;
+	}
+	try {
+		transaction.rollback();
+	} catch (HibernateException ex) {
+		logger.error("Rolling back: " + ex.getMessage());
+	}
 }
 
 /**
- * Gets dateTimeStamp
+ * Puts each bucket in the db with an upsert, in JDBC batches of storeBatchSize rows. The datausage table must have a
+ * unique key on (idtenant, intervalstart, intervalduration).
  *
- * @return dateTimeStamp
+ * @param session Session to store in
+ * @throws IOException On error reading the bytes used spilled to disk, or storing them
  */
-public Date getIntervalStart() {
-	return intervalStart;
+@SuppressWarnings("deprecation")
+private void upsertUsageData(Session session) throws IOException {
+	try {
+		DataUsageUpsertHandler dataUsageUpsertHandler =
+				new DataUsageUpsertHandler(session.connection(), storeBatchSize, addToStoredBytes, intervalSketchMap);
+		try {
+			mapBytesUsed.emit(dataUsageUpsertHandler);
+			logger.info("Stored " + dataUsageUpsertHandler.finish() + " buckets in batches of " + storeBatchSize);
+		} finally {
+			dataUsageUpsertHandler.close();
+		}
+	} catch (SQLException ex) {
+		throw new IOException("Storing the bytes used: " + ex.getMessage(), ex);
+	}
 }
 
 /**
- * Gets interval
+ * Puts each bucket in the db by looking it up, then updating or inserting it. For a table with no unique key on
+ * (idtenant, intervalstart, intervalduration).
  *
- * @return interval
+ * @param session Session to store in
+ * @throws IOException On error reading the bytes used spilled to disk
  */
-public int getInterval() {
-	return intervalDuration;
+private void lookUpAndStoreUsageData(final Session session) throws IOException {
+	// Process each bucket, in order
+	mapBytesUsed.emit(new BytesUsedMap.BucketHandler() {
+
+		/** Number of buckets stored */
+		private int stored = 0;
+
+		public void handle(TenantTimeIntervalKey ttikCurrent, long numberOfBytes) {
+			// Find out if the bucket is already in the db
+			Query query =
+					session.createQuery("from DataUsage where idTenant=:idtenant and intervalStart=:intervalstart and intervalDuration=:intervalduration");
+			query.setInteger("idtenant", ttikCurrent.getTenantId());
+			query.setTimestamp("intervalstart", ttikCurrent.getIntervalStart());
+			query.setInteger("intervalduration", ttikCurrent.getInterval());
+
+			// Each bucket is looked up once, so the buckets not written yet can't be it. Leaving them unwritten lets
+			// them be inserted and updated in batches.
+			query.setFlushMode(FlushMode.MANUAL);
+			DataUsage dataUsageExisting = (DataUsage) query.uniqueResult();
+
+			// The distinct client addresses, if they were sketched
+			HyperLogLog clientAddresses = null;
+			if (intervalSketchMap != null) {
+				IntervalSketches intervalSketches =
+						intervalSketchMap.get(ttikCurrent.getInterval(), ttikCurrent.getIntervalStart().getTime(),
+								false);
+				clientAddresses =
+						intervalSketches == null ? null : intervalSketches.getClientAddresses(
+								ttikCurrent.getTenantId(), false);
+			}
+
+			if (dataUsageExisting != null) {
+				// Bucket exists, update byte count and replace
+				dataUsageExisting.setNumberOfBytes(addToStoredBytes ? dataUsageExisting.getNumberOfBytes()
+						+ numberOfBytes : numberOfBytes);
+				if (clientAddresses != null) {
+					dataUsageExisting.setClientAddresses(clientAddresses.toBytes());
+				}
+				session.update(dataUsageExisting);
+			} else {
+				// Bucket does not exist, create and insert.
+				DataUsage dataUsage = new DataUsage();
+				dataUsage.setIdTenant(ttikCurrent.getTenantId());
+				dataUsage.setIntervalStart(ttikCurrent.getIntervalStart());
+				dataUsage.setIntervalDuration(ttikCurrent.getInterval());
+				dataUsage.setNumberOfBytes(numberOfBytes);
+				if (clientAddresses != null) {
+					dataUsage.setClientAddresses(clientAddresses.toBytes());
+				}
+
+				session.save(dataUsage);
+			}
+
+			// Write what is pending and let go of it, so the session does not hold every bucket
+			if (++stored % STORE_FLUSH_INTERVAL == 0) {
+				session.flush();
+				session.clear();
+			}
+		}
+	});
 }
 
 /**
- * Is this object equal to another? 
+ * Merges the client addresses stored for each sketched bucket into its sketch, with one query per interval rather
+ * than per bucket
  *
- * @param other other object
- * @return true if all the instance vars have the same value. false otherwise.
+ * @param session Session to read with
+ * @throws IOException If a stored sketch can't be read
  */
-@SuppressWarnings("unused")
-// Not used locally, but used by Map to hash.
-public boolean equals(TenantTimeIntervalKey other) {
-	return compareTo(other) == 0;
+private void mergeStoredClientAddresses(Session session) throws IOException {
+	for (int intervalDuration : intervalSketchMap.getIntervalDurations()) {
+		for (Map.Entry<Long, IntervalSketches> entry : intervalSketchMap.getIntervals(intervalDuration).entrySet()) {
+			Query query =
+					session.createQuery("select idTenant, clientAddresses from DataUsage where intervalStart=:intervalstart and intervalDuration=:intervalduration and clientAddresses is not null");
+			query.setTimestamp("intervalstart", new Timestamp(entry.getKey()));
+			query.setInteger("intervalduration", intervalDuration);
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = query.list();
+
+			for (Object[] row : rows) {
+				HyperLogLog clientAddresses = entry.getValue().getClientAddresses((Integer) row[0], false);
+				if (clientAddresses != null) {
+					clientAddresses.merge(HyperLogLog.fromBytes((byte[]) row[1]));
+				}
+			}
+		}
+	}
 }
 
 /**
- * compares objects of this type
- * 
- * @param other other object to comapre to
- * @return 1 if this object is greater than other, -1 if this object is less then other, 0 if they are equal.
+ * Puts the sketches of each interval in the db, in the session of the usage data. When adding to what is stored, the
+ * stored sketches are merged in; otherwise they are replaced.
+ *
+ * @param session Session to store in
+ * @throws IOException If a stored sketch can't be read
  */
-public int compareTo(TenantTimeIntervalKey other) {
-	if (this.getTenantId() != other.getTenantId()) {
-		return this.getTenantId() > other.getTenantId() ? 1 : -1;
-	}
-
-	int dateComparison = this.getIntervalStart().compareTo(other.getIntervalStart());
-	if (dateComparison != 0) {
-		return dateComparison;
-	}
+private void storeIntervalSketches(Session session) throws IOException {
+	int stored = 0;
+	for (int intervalDuration : intervalSketchMap.getIntervalDurations()) {
+		for (Map.Entry<Long, IntervalSketches> entry : intervalSketchMap.getIntervals(intervalDuration).entrySet()) {
+			Timestamp intervalStart = new Timestamp(entry.getKey());
+			SpaceSaving topTenants = entry.getValue().getTopTenants();
+			TDigest responseSizes = entry.getValue().getResponseSizes();
+
+			// Find out if the interval is already in the db
+			Query query =
+					session.createQuery("from IntervalSketch where intervalStart=:intervalstart and intervalDuration=:intervalduration");
+			query.setTimestamp("intervalstart", intervalStart);
+			query.setInteger("intervalduration", intervalDuration);
+
+			// Each interval is looked up once, so the sketches not written yet can't be it. Leaving them unwritten
+			// lets them be inserted in batches.
+			query.setFlushMode(FlushMode.MANUAL);
+			IntervalSketch intervalSketch = (IntervalSketch) query.uniqueResult();
+
+			if (intervalSketch == null) {
+				intervalSketch = new IntervalSketch();
+				intervalSketch.setIntervalStart(intervalStart);
+				intervalSketch.setIntervalDuration(intervalDuration);
+			} else if (addToStoredBytes) {
+				topTenants.merge(SpaceSaving.fromBytes(intervalSketch.getTopTenants()));
+				responseSizes.merge(TDigest.fromBytes(intervalSketch.getResponseSizes()));
+			}
+			intervalSketch.setTopTenants(topTenants.toBytes());
+			intervalSketch.setResponseSizes(responseSizes.toBytes());
+			session.saveOrUpdate(intervalSketch);
 
-	if (this.getInterval() != other.getInterval()) {
-		return this.getInterval() > other.getInterval() ? 1 : -1;
+			if (++stored % STORE_FLUSH_INTERVAL == 0) {
+				session.flush();
+				session.clear();
+			}
+		}
 	}
-
-	return 0;
-}
 }
 } // class
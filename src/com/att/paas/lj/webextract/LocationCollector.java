@@ -0,0 +1,501 @@
+package com.att.paas.lj.webextract;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+import com.att.paas.lj.webextract.db.HostConnection;
+import com.att.paas.lj.webextract.db.LogCheckpoint;
+import com.att.paas.lj.webextract.db.LogLocation;
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH;
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH.ExecuteThroughSSHException;
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH.RemoteFileHandler;
+
+/**
+ * Collects the bytes used from all the access logs in one log location of one host. Each instance aggregates into its
+ * own map, so instances can run on separate worker threads and be merged afterwards.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class LocationCollector implements Callable<CollectionResult> {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(LocationCollector.class);
+
+/**
+ * Orders log file names to make the earliest first, like: access_log.3.gz, access_log.2, access_log.1, access_log.
+ * Names that order the same, like access_log.1 and access_log.1.gz while logrotate is compressing, are told apart by
+ * the whole name, the plain file first, so each name is kept.
+ */
+private static final Comparator<String> LOG_FILE_NAME_COMPARATOR = new Comparator<String>() {
+
+	public int compare(String string1, String string2) {
+		long rank1 = rank(string1);
+		long rank2 = rank(string2);
+		if (rank1 != rank2) {
+			return rank1 < rank2 ? -1 : 1;
+		}
+
+		boolean compressed1 = ExecuteThroughSSH.isCompressed(string1);
+		if (compressed1 != ExecuteThroughSSH.isCompressed(string2)) {
+			return compressed1 ? 1 : -1;
+		}
+		return string1.compareTo(string2);
+	}
+
+	/**
+	 * Gets where a log file goes in the order, earliest first: numbered files, the highest number first, then files
+	 * with an extension that is not a number, then the current access_log, which has no extension. Compressed files
+	 * go where the name they had before they were compressed does.
+	 *
+	 * @param name File name
+	 * @return the rank
+	 */
+	private long rank(String name) {
+		if (ExecuteThroughSSH.isCompressed(name)) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+
+		int positionNumericExtension = name.lastIndexOf('.');
+		if (positionNumericExtension == -1 || positionNumericExtension == name.length() - 1) {
+			return Long.MAX_VALUE;
+		}
+		try {
+			return -Integer.parseInt(name.substring(positionNumericExtension + 1));
+		} catch (NumberFormatException ex) {
+			return Long.MAX_VALUE - 1;
+		}
+	}
+};
+
+/** Host to collect from */
+private final HostConnection hostConnection;
+
+/** Location on the host to collect from */
+private final LogLocation logLocation;
+
+/** Limits the number of concurrent SSH sessions to the host */
+private final Semaphore hostSessionLimit;
+
+/** Options controlling the collection */
+private final CollectionOptions collectionOptions;
+
+/** Checkpoints from the last run for this location, when collecting incrementally */
+private final List<LogCheckpoint> previousCheckpoints;
+
+/**
+ * Constructor.
+ *
+ * @param hostConnectionArg Host to collect from
+ * @param logLocationArg Location on the host to collect from
+ * @param hostSessionLimitArg Limits the number of concurrent SSH sessions to the host
+ * @param collectionOptionsArg Options controlling the collection
+ * @param previousCheckpointsArg Checkpoints from the last run for this location, when collecting incrementally
+ */
+public LocationCollector(HostConnection hostConnectionArg, LogLocation logLocationArg,
+		Semaphore hostSessionLimitArg, CollectionOptions collectionOptionsArg,
+		List<LogCheckpoint> previousCheckpointsArg) {
+	this.hostConnection = hostConnectionArg;
+	this.logLocation = logLocationArg;
+	this.hostSessionLimit = hostSessionLimitArg;
+	this.collectionOptions = collectionOptionsArg;
+	this.previousCheckpoints = previousCheckpointsArg;
+}
+
+/**
+ * Gets the access logs from the location and adds up the bytes used
+ *
+ * @return Bytes used in this location, and checkpoints
+ * @throws IOException On an error that should stop the whole collection
+ * @throws InterruptedException If interrupted while waiting for the host
+ */
+public CollectionResult call() throws IOException, InterruptedException {
+	hostSessionLimit.acquire();
+	try {
+		return collect();
+	} finally {
+		hostSessionLimit.release();
+	}
+}
+
+/**
+ * Does the work for call(), once a session to the host is available
+ *
+ * @return Bytes used in this location, and checkpoints
+ * @throws IOException On an error that should stop the whole collection
+ */
+private CollectionResult collect() throws IOException {
+
+	CollectionResult collectionResult =
+			new CollectionResult(collectionOptions.newBytesUsedMap(), collectionOptions.newIntervalSketchMap());
+
+	// Find the "access_log*" files (e.g. access_log, access_log.1, access_log.2.gz, ...) and what identifies each of
+	// them, earliest first
+	Map<String, RemoteLogFile> mapLogFiles = discover();
+
+	// If a local copy is wanted, each location has its own file, so locations can be fetched at the same time
+	File accessLogFile = null;
+	if (collectionOptions.getTeeDirectory() != null) {
+		accessLogFile =
+				new File(collectionOptions.getTeeDirectory(), "access_" + hostConnection.getIdhostconnection() + "_"
+						+ logLocation.getIdloglocation() + ".log");
+	}
+
+	// Lines are in the usual format, unless the location says which format they are in
+	LogFormat logFormat = null;
+	if (logLocation.getFormat() != null) {
+		try {
+			logFormat = LogFormat.compile(logLocation.getFormat());
+		} catch (IllegalArgumentException ex) {
+			throw new IOException("Log format of " + getLocationName() + ": " + ex.getMessage());
+		}
+	}
+
+	// Parse each file as it arrives, straight into the map, and the sketches if they are kept
+	AccessLogParser accessLogParser =
+			new AccessLogParser(collectionOptions.getIntervalDurations(), logFormat,
+					collectionResult.getIntervalSketchMap(), collectionOptions.getIpFilter());
+	ParsingHandler parsingHandler = new ParsingHandler(accessLogParser, collectionResult.getMapBytesUsed());
+
+	// Bucket the logs on the host, so only the totals are sent? No local copy can be kept then, and no sketches are
+	// made, as the lines are not sent. The script on the host only knows the usual format, and does not filter client
+	// addresses.
+	RemoteAggregator remoteAggregator = null;
+	if (collectionOptions.isRemoteAggregation() && logFormat == null && collectionOptions.getIpFilter() == null) {
+		remoteAggregator = new RemoteAggregator(hostConnection, collectionOptions.getIntervalDurations());
+	}
+
+	// Keep a compressed copy of what is read from each file, for parsing again later? Not possible when totalling on
+	// the hosts.
+	LogSpool logSpool = null;
+	if (collectionOptions.getSpoolDirectory() != null && remoteAggregator == null) {
+		logSpool =
+				new LogSpool(collectionOptions.getSpoolDirectory(), collectionOptions.getSpoolMaxMegabytes(),
+						collectionOptions.getSpoolMaxAgeDays());
+	}
+
+	// Compress plain files on the host before sending them? Not done through SFTP, which runs no commands there.
+	boolean compressTransfer = Boolean.TRUE.equals(logLocation.getCompresstransfer());
+
+	// Checkpoints not matched to a file are for files that are no longer here
+	List<LogCheckpoint> listUnmatchedCheckpoints = new ArrayList<LogCheckpoint>(previousCheckpoints);
+
+	boolean append = false;
+	for (RemoteLogFile remoteLogFile : mapLogFiles.values()) {
+		String filenameCurrent = remoteLogFile.name;
+		boolean compressed = ExecuteThroughSSH.isCompressed(filenameCurrent);
+
+		// Where to start reading the file, and the checkpoint to move on
+		long offset = 0;
+		LogCheckpoint checkpoint = null;
+
+		if (collectionOptions.isIncremental()) {
+			checkpoint = matchCheckpoint(remoteLogFile, listUnmatchedCheckpoints);
+
+			if (checkpoint == null) {
+				checkpoint = newCheckpoint(remoteLogFile);
+			} else if (checkpoint.getInode() == remoteLogFile.inode && checkpoint.getFilesize() == remoteLogFile.size
+					&& checkpoint.getMtime() == remoteLogFile.mtime) {
+				// The same file, unchanged since it was last collected, though it may have been renamed by rotation.
+				// Nothing to read; only the new name is recorded.
+				if (!remoteLogFile.name.equals(checkpoint.getFilename())) {
+					checkpoint.setFilename(remoteLogFile.name);
+					collectionResult.getCheckpoints().add(checkpoint);
+				}
+				continue;
+			} else if (compressed) {
+				// A compressed file never changes, so if it was read as a compressed file it is done. Otherwise it
+				// was read before it was compressed, and only the rest is needed. The offset is then in uncompressed
+				// bytes.
+				if (checkpoint.getInode() == remoteLogFile.inode) {
+					continue;
+				}
+				offset = checkpoint.getByteoffset();
+				checkpoint.setInode(remoteLogFile.inode);
+				checkpoint.setFilename(remoteLogFile.name);
+			} else {
+				// If the file is shorter than the checkpoint, it has been truncated and rewritten. Read it all again.
+				offset = checkpoint.getByteoffset() <= remoteLogFile.size ? checkpoint.getByteoffset() : 0;
+				checkpoint.setFilename(remoteLogFile.name);
+
+				// Nothing has been added since the last run, though the file has been touched
+				if (offset == remoteLogFile.size) {
+					checkpoint.setFilesize(remoteLogFile.size);
+					checkpoint.setMtime(remoteLogFile.mtime);
+					collectionResult.getCheckpoints().add(checkpoint);
+					continue;
+				}
+			}
+		}
+
+		// When collecting incrementally, a line still being written at the end of a plain log is left for the next
+		// run. A compressed log is complete.
+		boolean parseUnterminatedLine = !collectionOptions.isIncremental() || compressed;
+		parsingHandler.setParseUnterminatedLine(parseUnterminatedLine);
+
+		RemoteFileHandler handler = parsingHandler;
+		if (logSpool != null) {
+			handler =
+					logSpool.spoolingHandler(hostConnection.getHost(), logLocation.getDirectoryname(),
+							remoteLogFile.inode, offset, parseUnterminatedLine, parsingHandler);
+		}
+
+		long bytesParsed = 0;
+		try {
+			if (remoteAggregator != null) {
+				bytesParsed =
+						remoteAggregator.aggregate(filenameCurrent, offset, parseUnterminatedLine,
+								collectionResult.getMapBytesUsed());
+			} else if (collectionOptions.isSftpTransfer()) {
+				// Create(if first file)/append local access log file, if one is wanted
+				ExecuteThroughSSH.getRemoteFileSftp(hostConnection.getHost(), hostConnection.getUsername(),
+						hostConnection.getPassword(), null, filenameCurrent, offset, handler, accessLogFile, append);
+				bytesParsed = parsingHandler.getBytesParsed();
+			} else {
+				// Create(if first file)/append local access log file, if one is wanted
+				ExecuteThroughSSH.getRemoteFile(hostConnection.getHost(), hostConnection.getUsername(),
+						hostConnection.getPassword(), null, filenameCurrent, offset, compressTransfer, handler,
+						accessLogFile, append);
+				bytesParsed = parsingHandler.getBytesParsed();
+			}
+		} catch (ExecuteThroughSSHException ex) {
+			throw new IOException("Getting file " + hostConnection.getUsername() + "@" + hostConnection.getHost()
+					+ ":" + filenameCurrent + ": " + ex);
+		}
+
+		if (checkpoint != null) {
+			checkpoint.setByteoffset(offset + bytesParsed);
+			checkpoint.setFilesize(remoteLogFile.size);
+			checkpoint.setMtime(remoteLogFile.mtime);
+			collectionResult.getCheckpoints().add(checkpoint);
+		}
+
+		append = true;
+	}
+
+	collectionResult.getObsoleteCheckpoints().addAll(listUnmatchedCheckpoints);
+	collectionResult.getParseStatistics().merge(accessLogParser.getParseStatistics());
+
+	return collectionResult;
+}
+
+/**
+ * Finds the access logs in the location, and gets the inode, size, modification time and first line fingerprint of
+ * each, all in one command. The fingerprint of a compressed file is of its uncompressed first line, so it matches the
+ * fingerprint the file had before it was compressed.
+ *
+ * @return the files' identities, by name, earliest first
+ * @throws IOException On error finding the files, or if the directory does not exist
+ */
+private Map<String, RemoteLogFile> discover() throws IOException {
+	String directory = ExecuteThroughSSH.quoteArgument(logLocation.getDirectoryname());
+
+	// One line per file: <inode> <size> <mtime> <crc> <length of first line> <name>
+	String strCommand =
+			"if [ -d " + directory + " ]; then for f in " + directory + "/access_log*; do if [ -f \"$f\" ]; then "
+					+ "case \"$f\" in *.gz) c=\"gzip -dc\";; *) c=cat;; esac; "
+					+ "echo \"$(stat -c '%i %s %Y' \"$f\") $($c \"$f\" 2>/dev/null | head -n 1 | cksum) $f\"; "
+					+ "fi; done; else echo No directory " + directory + " >&2; fi";
+
+	String strOutput = null;
+	try {
+		strOutput =
+				ExecuteThroughSSH.getCommandOutput(hostConnection.getHost(), hostConnection.getUsername(),
+						hostConnection.getPassword(), null, strCommand);
+	} catch (ExecuteThroughSSHException ex) {
+		throw new IOException("Finding access logs in " + getLocationName() + ": " + ex);
+	}
+
+	// Ordered by name to make the earliest first, like: access_log.2, access_log.1, access_log
+	// NB: It's not necessary to put the files in time order, it just makes it easier to track when debugging.
+	Map<String, RemoteLogFile> mapLogFiles = new TreeMap<String, RemoteLogFile>(LOG_FILE_NAME_COMPARATOR);
+
+	for (String line : strOutput.split("\n")) {
+		if (line.trim().length() == 0) {
+			continue;
+		}
+
+		String[] fields = line.split(" ", 6);
+		if (fields.length != 6) {
+			throw new IOException("Unexpected output finding access logs in " + getLocationName() + ": " + line);
+		}
+
+		RemoteLogFile remoteLogFile = new RemoteLogFile();
+		try {
+			remoteLogFile.inode = Long.parseLong(fields[0]);
+			remoteLogFile.size = Long.parseLong(fields[1]);
+			remoteLogFile.mtime = Long.parseLong(fields[2]);
+		} catch (NumberFormatException ex) {
+			throw new IOException("Unexpected output finding access logs in " + getLocationName() + ": " + line);
+		}
+		remoteLogFile.fingerprint = fields[3] + " " + fields[4];
+		remoteLogFile.name = fields[5];
+
+		mapLogFiles.put(remoteLogFile.name, remoteLogFile);
+	}
+
+	// A compressed file whose plain file is still there is being written by logrotate. It is left for the next run,
+	// when it is complete, and the plain file is read now.
+	for (Iterator<String> iterator = mapLogFiles.keySet().iterator(); iterator.hasNext();) {
+		String name = iterator.next();
+		if (ExecuteThroughSSH.isCompressed(name) && mapLogFiles.containsKey(name.substring(0, name.lastIndexOf('.')))) {
+			logger.debug("Skipping " + name + " in " + getLocationName() + " until it has been compressed");
+			iterator.remove();
+		}
+	}
+
+	return mapLogFiles;
+}
+
+/**
+ * Finds the checkpoint for a file from the last run, by inode and fingerprint, so a file that has been renamed by
+ * rotation is still matched. A compressed file matched by fingerprint alone keeps the inode it had before it was
+ * compressed; the caller uses that to tell it has not been read as a compressed file.
+ *
+ * @param remoteLogFile the file's identity
+ * @param listUnmatchedCheckpoints checkpoints from the last run not matched yet. The one found is removed.
+ * @return the checkpoint, or null if the file has not been seen before
+ */
+private LogCheckpoint matchCheckpoint(RemoteLogFile remoteLogFile, List<LogCheckpoint> listUnmatchedCheckpoints) {
+	LogCheckpoint checkpoint = null;
+	for (Iterator<LogCheckpoint> iterator = listUnmatchedCheckpoints.iterator(); iterator.hasNext();) {
+		LogCheckpoint checkpointCurrent = iterator.next();
+		if (checkpointCurrent.getInode() == remoteLogFile.inode
+				&& remoteLogFile.fingerprint.equals(checkpointCurrent.getFingerprint())) {
+			iterator.remove();
+			checkpoint = checkpointCurrent;
+			break;
+		}
+	}
+
+	// Compressing a file makes a new file, with a new inode, so match a compressed file by fingerprint alone
+	if (checkpoint == null && ExecuteThroughSSH.isCompressed(remoteLogFile.name)) {
+		for (Iterator<LogCheckpoint> iterator = listUnmatchedCheckpoints.iterator(); iterator.hasNext();) {
+			LogCheckpoint checkpointCurrent = iterator.next();
+			if (remoteLogFile.fingerprint.equals(checkpointCurrent.getFingerprint())) {
+				iterator.remove();
+				checkpoint = checkpointCurrent;
+				break;
+			}
+		}
+	}
+
+	return checkpoint;
+}
+
+/**
+ * Makes a checkpoint at the start of a file not seen before
+ *
+ * @param remoteLogFile the file's identity
+ * @return the checkpoint
+ */
+private LogCheckpoint newCheckpoint(RemoteLogFile remoteLogFile) {
+	LogCheckpoint checkpoint = new LogCheckpoint();
+	checkpoint.setHost(hostConnection.getHost());
+	checkpoint.setDirectoryname(logLocation.getDirectoryname());
+	checkpoint.setFilename(remoteLogFile.name);
+	checkpoint.setInode(remoteLogFile.inode);
+	checkpoint.setFingerprint(remoteLogFile.fingerprint);
+	checkpoint.setByteoffset(0);
+	checkpoint.setFilesize(remoteLogFile.size);
+	checkpoint.setMtime(remoteLogFile.mtime);
+	return checkpoint;
+}
+
+/**
+ * Gets the location name for messages
+ *
+ * @return user@host:directory
+ */
+private String getLocationName() {
+	return hostConnection.getUsername() + "@" + hostConnection.getHost() + ":" + logLocation.getDirectoryname();
+}
+
+/**
+ * Identity of a remote log file
+ */
+private static class RemoteLogFile {
+
+/** File name */
+private String name;
+
+/** Inode */
+private long inode;
+
+/** Size in bytes */
+private long size;
+
+/** Modification time, in seconds since the epoch */
+private long mtime;
+
+/** Fingerprint of the first line */
+private String fingerprint;
+}
+
+/**
+ * Parses remote files as they arrive, and keeps the number of bytes parsed from the last one
+ */
+private static class ParsingHandler implements RemoteFileHandler {
+
+/** Parser */
+private final AccessLogParser accessLogParser;
+
+/** Map holding bytes used */
+private final BytesUsedMap mapBytesUsed;
+
+/** Parse a last line that does not end in a newline? */
+private boolean parseUnterminatedLine = true;
+
+/** Number of bytes parsed from the last file */
+private long bytesParsed = 0;
+
+/**
+ * Constructor.
+ *
+ * @param accessLogParserArg Parser
+ * @param mapBytesUsedArg Map holding bytes used
+ */
+ParsingHandler(AccessLogParser accessLogParserArg, BytesUsedMap mapBytesUsedArg) {
+	this.accessLogParser = accessLogParserArg;
+	this.mapBytesUsed = mapBytesUsedArg;
+}
+
+/**
+ * Sets parseUnterminatedLine, for the next file
+ *
+ * @param parseUnterminatedLine Parse a last line that does not end in a newline?
+ */
+void setParseUnterminatedLine(boolean parseUnterminatedLine) {
+	this.parseUnterminatedLine = parseUnterminatedLine;
+}
+
+/**
+ * Parses a remote file
+ *
+ * @param inputStream Remote file contents
+ * @throws IOException On error reading
+ */
+public void handle(InputStream inputStream) throws IOException {
+	bytesParsed = accessLogParser.parse(inputStream, mapBytesUsed, parseUnterminatedLine);
+}
+
+/**
+ * Gets bytesParsed
+ *
+ * @return bytesParsed
+ */
+long getBytesParsed() {
+	return bytesParsed;
+}
+}
+}
@@ -0,0 +1,77 @@
+package com.att.paas.lj.webextract;
+
+/**
+ * Finds the fields of a tenant request in an access log line held as bytes: its timestamp, byte count, tenant id and
+ * client address. The fields are given as positions in the line. An instance holds the fields of the last line, so it
+ * is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public interface LogFieldExtractor {
+
+/**
+ * Finds the fields of a line
+ *
+ * @param line Bytes holding the line from the access log
+ * @param start Start of the line
+ * @param end End of the line (exclusive), without its line terminator
+ * @return true if the line is a tenant request. The positions of its fields can then be got.
+ */
+boolean tokenize(byte[] line, int start, int end);
+
+/**
+ * Gets the start of the timestamp in the last line
+ *
+ * @return Position of the "[" starting the timestamp
+ */
+int getTimestampStartPosition();
+
+/**
+ * Gets the end of the timestamp in the last line
+ *
+ * @return Position after the "]" ending the timestamp
+ */
+int getTimestampEndPosition();
+
+/**
+ * Gets the start of the number of bytes in the last line
+ *
+ * @return Position of the first digit
+ */
+int getNumberOfBytesStartPosition();
+
+/**
+ * Gets the end of the number of bytes in the last line
+ *
+ * @return Position after the last digit
+ */
+int getNumberOfBytesEndPosition();
+
+/**
+ * Gets the start of the tenant id in the last line
+ *
+ * @return Position of the start of the tenant id
+ */
+int getTenantIdStartPosition();
+
+/**
+ * Gets the end of the tenant id in the last line
+ *
+ * @return Position after the end of the tenant id
+ */
+int getTenantIdEndPosition();
+
+/**
+ * Gets the start of the client address in the last line
+ *
+ * @return Position of the start of the client address, or -1 if the line does not have one
+ */
+int getRemoteAddressStartPosition();
+
+/**
+ * Gets the end of the client address in the last line
+ *
+ * @return Position after the end of the client address, or -1 if the line does not have one
+ */
+int getRemoteAddressEndPosition();
+}
@@ -0,0 +1,513 @@
+package com.att.paas.lj.webextract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.att.paas.lj.webextract.util.ByteSearcher;
+
+/**
+ * An Apache LogFormat (e.g. "%v %h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D"), compiled into what
+ * is needed to find the fields of a tenant request in lines written in it. A line is read from the start, checking
+ * the text between fields and finding the end of each field by the text that follows it, until the last field needed
+ * (timestamp, request, byte count, referer and client address) has been found; the rest of the line is not looked at.
+ * A quoted field ends at the first quote that is not escaped with a backslash, as Apache writes them, and %t ends at
+ * its "]".
+ * <p>
+ * The tenant id is the id parameter of the referer, if it is an http page under /networking/Service, or else of the
+ * request, if it is a GET of /networking/Service, found by the same rules as for the usual format. Lines that do not
+ * fit the format are skipped.
+ * <p>
+ * A compiled format does not change, so it can be shared; each parser gets its own extractor from it.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class LogFormat {
+
+/** What a field is */
+private enum FieldKind {
+	/** A field that is not needed */
+	OTHER,
+	/** %t */
+	TIMESTAMP,
+	/** %r */
+	REQUEST,
+	/** %b or %B */
+	BYTES,
+	/** %{Referer}i */
+	REFERER,
+	/** %h or %a */
+	REMOTE_ADDRESS
+}
+
+/** Path of the page that has the tenant id */
+private static final String SERVICE_PATH = "/networking/Service?";
+
+/** Start of a request that can have the tenant id */
+private static final byte[] SERVICE_REQUEST = toBytes("GET " + SERVICE_PATH);
+
+/** Start of a referer that can have the tenant id */
+private static final byte[] REFERER_SCHEME = toBytes("http://");
+
+/** Finds the tenant id parameter */
+private static final ByteSearcher TENANT_ID_PARAMETER_SEARCHER = new ByteSearcher("id=");
+
+/** Finds the service path in a referer */
+private static final ByteSearcher SERVICE_PATH_SEARCHER = new ByteSearcher(SERVICE_PATH);
+
+/** The format, as it was given */
+private final String format;
+
+/** Text before each field, and after the last one. There is one more of these than there are fields. */
+private final byte[][] literals;
+
+/** Finds the text after each field, or null if there is none */
+private final ByteSearcher[] literalSearchers;
+
+/** What each field is */
+private final FieldKind[] fields;
+
+/** Is each field in quotes? */
+private final boolean[] quoted;
+
+/** Index of the last field needed */
+private final int lastNeededField;
+
+/**
+ * Constructor.
+ *
+ * @param formatArg The format, as it was given
+ * @param literalsArg Text before each field, and after the last one
+ * @param fieldsArg What each field is
+ */
+private LogFormat(String formatArg, List<String> literalsArg, List<FieldKind> fieldsArg) {
+	this.format = formatArg;
+
+	literals = new byte[literalsArg.size()][];
+	for (int i = 0; i < literals.length; i++) {
+		literals[i] = toBytes(literalsArg.get(i));
+	}
+	fields = fieldsArg.toArray(new FieldKind[fieldsArg.size()]);
+
+	literalSearchers = new ByteSearcher[fields.length];
+	quoted = new boolean[fields.length];
+	int lastNeeded = -1;
+	for (int i = 0; i < fields.length; i++) {
+		String literalAfter = literalsArg.get(i + 1);
+		literalSearchers[i] = literalAfter.length() == 0 ? null : new ByteSearcher(literalAfter);
+		quoted[i] = literalsArg.get(i).endsWith("\"") && literalAfter.startsWith("\"");
+		if (fields[i] != FieldKind.OTHER) {
+			lastNeeded = i;
+		}
+	}
+	lastNeededField = lastNeeded;
+}
+
+/**
+ * Compiles a format
+ *
+ * @param format Apache LogFormat, with or without the backslashes it has in httpd.conf
+ * @return the compiled format
+ * @throws IllegalArgumentException If the format does not have the fields needed, has a field whose end can't be
+ *             found, or is not valid
+ */
+public static LogFormat compile(String format) {
+	List<String> literals = new ArrayList<String>();
+	List<FieldKind> fields = new ArrayList<FieldKind>();
+	StringBuffer sbLiteral = new StringBuffer();
+
+	for (int i = 0; i < format.length(); i++) {
+		char c = format.charAt(i);
+		if (c == '\\' && i + 1 < format.length()) {
+			char escaped = format.charAt(++i);
+			sbLiteral.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped);
+		} else if (c == '%') {
+			// %[<>][!][status codes][{name}]letter
+			int directiveStart = i++;
+			while (i < format.length() && "<>!,0123456789".indexOf(format.charAt(i)) != -1) {
+				i++;
+			}
+			String name = null;
+			if (i < format.length() && format.charAt(i) == '{') {
+				int nameEnd = format.indexOf('}', i);
+				if (nameEnd == -1) {
+					throw new IllegalArgumentException("Unterminated { in log format: " + format);
+				}
+				name = format.substring(i + 1, nameEnd);
+				i = nameEnd + 1;
+			}
+			if (i >= format.length()) {
+				throw new IllegalArgumentException("Incomplete % directive in log format: " + format);
+			}
+
+			char letter = format.charAt(i);
+			if (letter == '%') {
+				sbLiteral.append('%');
+				continue;
+			}
+			literals.add(sbLiteral.toString());
+			sbLiteral.setLength(0);
+			fields.add(getFieldKind(letter, name, format.substring(directiveStart, i + 1), format));
+		} else {
+			sbLiteral.append(c);
+		}
+	}
+	literals.add(sbLiteral.toString());
+
+	if (!fields.contains(FieldKind.TIMESTAMP) || !fields.contains(FieldKind.BYTES)
+			|| (!fields.contains(FieldKind.REQUEST) && !fields.contains(FieldKind.REFERER))) {
+		throw new IllegalArgumentException("Log format needs %t, %b and %r or %{Referer}i: " + format);
+	}
+	for (int i = 0; i < fields.size() - 1; i++) {
+		if (fields.get(i) != FieldKind.TIMESTAMP && literals.get(i + 1).length() == 0) {
+			throw new IllegalArgumentException("Field " + (i + 1) + " has no text after it in log format: " + format);
+		}
+	}
+
+	return new LogFormat(format, literals, fields);
+}
+
+/**
+ * Gets what a directive is
+ *
+ * @param letter Letter of the directive
+ * @param name Name in braces, or null
+ * @param directive The whole directive
+ * @param format The format, for the message if the directive is not supported
+ * @return what it is
+ */
+private static FieldKind getFieldKind(char letter, String name, String directive, String format) {
+	switch (letter) {
+	case 't':
+		if (name != null) {
+			throw new IllegalArgumentException("Log format must use %t, not " + directive + ": " + format);
+		}
+		return FieldKind.TIMESTAMP;
+	case 'r':
+		return FieldKind.REQUEST;
+	case 'b':
+	case 'B':
+		return FieldKind.BYTES;
+	case 'i':
+		return "Referer".equalsIgnoreCase(name) ? FieldKind.REFERER : FieldKind.OTHER;
+	case 'h':
+		return FieldKind.REMOTE_ADDRESS;
+	case 'a':
+		return name == null ? FieldKind.REMOTE_ADDRESS : FieldKind.OTHER;
+	default:
+		return FieldKind.OTHER;
+	}
+}
+
+/**
+ * Makes an extractor that finds the fields of lines in this format
+ *
+ * @return the extractor, for use by one thread
+ */
+public LogFieldExtractor createExtractor() {
+	return new Extractor();
+}
+
+/**
+ * Gets format
+ *
+ * @return The format, as it was given
+ */
+public String getFormat() {
+	return format;
+}
+
+/**
+ * Makes bytes of ASCII text
+ *
+ * @param text ASCII text
+ * @return its bytes
+ */
+private static byte[] toBytes(String text) {
+	byte[] bytes = new byte[text.length()];
+	for (int i = 0; i < bytes.length; i++) {
+		bytes[i] = (byte) text.charAt(i);
+	}
+	return bytes;
+}
+
+/**
+ * Are bytes at a position?
+ *
+ * @param line Bytes holding the line
+ * @param target Bytes to look for
+ * @param position Position to look at
+ * @param end End of the line (exclusive)
+ * @return true if the line has the bytes at the position
+ */
+private static boolean startsWith(byte[] line, byte[] target, int position, int end) {
+	if (position + target.length > end) {
+		return false;
+	}
+	for (int i = 0; i < target.length; i++) {
+		if (line[position + i] != target[i]) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+ * Finds the fields of lines in the format
+ */
+private class Extractor implements LogFieldExtractor {
+
+/** Start of the timestamp in the last line */
+private int timestampStart;
+
+/** End of the timestamp in the last line */
+private int timestampEnd;
+
+/** Start of the number of bytes in the last line */
+private int numberOfBytesStart;
+
+/** End of the number of bytes in the last line */
+private int numberOfBytesEnd;
+
+/** Start of the tenant id in the last line */
+private int tenantIdStart;
+
+/** End of the tenant id in the last line */
+private int tenantIdEnd;
+
+/** Start of the client address in the last line, or -1 if the format has none */
+private int remoteAddressStart = -1;
+
+/** End of the client address in the last line, or -1 if the format has none */
+private int remoteAddressEnd = -1;
+
+/**
+ * Finds the fields of a line
+ *
+ * @param line Bytes holding the line from the access log
+ * @param start Start of the line
+ * @param end End of the line (exclusive), without its line terminator
+ * @return true if the line is a tenant request
+ */
+public boolean tokenize(byte[] line, int start, int end) {
+	int requestStart = -1;
+	int requestEnd = -1;
+	int refererStart = -1;
+	int refererEnd = -1;
+
+	int position = start;
+	for (int i = 0; i <= lastNeededField; i++) {
+		if (!startsWith(line, literals[i], position, end)) {
+			return false;
+		}
+		position += literals[i].length;
+
+		int fieldEnd = findFieldEnd(i, line, position, end);
+		if (fieldEnd == -1) {
+			return false;
+		}
+
+		switch (fields[i]) {
+		case TIMESTAMP:
+			timestampStart = position;
+			timestampEnd = fieldEnd;
+			break;
+		case REQUEST:
+			requestStart = position;
+			requestEnd = fieldEnd;
+			break;
+		case BYTES:
+			numberOfBytesStart = position;
+			numberOfBytesEnd = fieldEnd;
+			break;
+		case REFERER:
+			refererStart = position;
+			refererEnd = fieldEnd;
+			break;
+		case REMOTE_ADDRESS:
+			remoteAddressStart = position;
+			remoteAddressEnd = fieldEnd;
+			break;
+		default:
+			break;
+		}
+		position = fieldEnd;
+	}
+
+	// The referer is looked at first, as the usual format does
+	return (refererStart != -1 && findRefererTenantId(line, refererStart, refererEnd))
+			|| (requestStart != -1 && findRequestTenantId(line, requestStart, requestEnd));
+}
+
+/**
+ * Finds the end of a field
+ *
+ * @param i Index of the field
+ * @param line Bytes holding the line
+ * @param position Start of the field
+ * @param end End of the line (exclusive)
+ * @return Position after the field, or -1 if the line does not fit the format
+ */
+private int findFieldEnd(int i, byte[] line, int position, int end) {
+	if (fields[i] == FieldKind.TIMESTAMP) {
+		if (position >= end || line[position] != '[') {
+			return -1;
+		}
+		for (int p = position + 1; p < end; p++) {
+			if (line[p] == ']') {
+				return p + 1;
+			}
+		}
+		return -1;
+	}
+
+	if (literalSearchers[i] == null) {
+		return end;
+	}
+
+	if (quoted[i]) {
+		for (int p = position; p < end; p++) {
+			if (line[p] == '\\') {
+				p++;
+			} else if (line[p] == '"') {
+				return p;
+			}
+		}
+		return -1;
+	}
+
+	return literalSearchers[i].indexOf(line, position, end);
+}
+
+/**
+ * Finds the tenant id in a referer of a page under the service path
+ *
+ * @param line Bytes holding the line
+ * @param start Start of the referer
+ * @param end End of the referer (exclusive)
+ * @return true if it has one
+ */
+private boolean findRefererTenantId(byte[] line, int start, int end) {
+	if (!startsWith(line, REFERER_SCHEME, start, end)) {
+		return false;
+	}
+	int servicePathStart = SERVICE_PATH_SEARCHER.indexOf(line, start, end);
+	if (servicePathStart == -1) {
+		return false;
+	}
+	return findTenantId(line, servicePathStart + SERVICE_PATH_SEARCHER.length(), end);
+}
+
+/**
+ * Finds the tenant id in a GET of the service path
+ *
+ * @param line Bytes holding the line
+ * @param start Start of the request
+ * @param end End of the request (exclusive)
+ * @return true if it has one
+ */
+private boolean findRequestTenantId(byte[] line, int start, int end) {
+	if (!startsWith(line, SERVICE_REQUEST, start, end)) {
+		return false;
+	}
+	return findTenantId(line, start + SERVICE_REQUEST.length, end);
+}
+
+/**
+ * Finds the tenant id as the usual format's patterns do: the first id parameter that follows a "&" or "?" after the
+ * start of the query, so not one that is the first parameter of the query. It ends at the next "&", or at the end of
+ * the field, which is where its closing quote is, so a request's id runs on to its protocol.
+ *
+ * @param line Bytes holding the line
+ * @param start Start of the query, after its "?"
+ * @param end End of the field (exclusive)
+ * @return true if it has one
+ */
+private boolean findTenantId(byte[] line, int start, int end) {
+	for (int position = TENANT_ID_PARAMETER_SEARCHER.indexOf(line, start + 1, end); position != -1; position =
+			TENANT_ID_PARAMETER_SEARCHER.indexOf(line, position + 1, end)) {
+		byte separator = line[position - 1];
+		if (separator == '&' || separator == '?') {
+			tenantIdStart = position + TENANT_ID_PARAMETER_SEARCHER.length();
+			tenantIdEnd = tenantIdStart;
+			while (tenantIdEnd < end && line[tenantIdEnd] != '&') {
+				tenantIdEnd++;
+			}
+			return true;
+		}
+	}
+	return false;
+}
+
+/**
+ * Gets timestampStart
+ *
+ * @return Start of the timestamp in the last line
+ */
+public int getTimestampStartPosition() {
+	return timestampStart;
+}
+
+/**
+ * Gets timestampEnd
+ *
+ * @return End of the timestamp in the last line
+ */
+public int getTimestampEndPosition() {
+	return timestampEnd;
+}
+
+/**
+ * Gets numberOfBytesStart
+ *
+ * @return Start of the number of bytes in the last line
+ */
+public int getNumberOfBytesStartPosition() {
+	return numberOfBytesStart;
+}
+
+/**
+ * Gets numberOfBytesEnd
+ *
+ * @return End of the number of bytes in the last line
+ */
+public int getNumberOfBytesEndPosition() {
+	return numberOfBytesEnd;
+}
+
+/**
+ * Gets tenantIdStart
+ *
+ * @return Start of the tenant id in the last line
+ */
+public int getTenantIdStartPosition() {
+	return tenantIdStart;
+}
+
+/**
+ * Gets tenantIdEnd
+ *
+ * @return End of the tenant id in the last line
+ */
+public int getTenantIdEndPosition() {
+	return tenantIdEnd;
+}
+
+/**
+ * Gets remoteAddressStart
+ *
+ * @return Start of the client address in the last line, or -1 if the format has none
+ */
+public int getRemoteAddressStartPosition() {
+	return remoteAddressStart;
+}
+
+/**
+ * Gets remoteAddressEnd
+ *
+ * @return End of the client address in the last line, or -1 if the format has none
+ */
+public int getRemoteAddressEndPosition() {
+	return remoteAddressEnd;
+}
+}
+}
@@ -0,0 +1,446 @@
+package com.att.paas.lj.webextract;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH.RemoteFileHandler;
+import com.att.paas.lj.webextract.util.TeeInputStream;
+
+/**
+ * Keeps a local, compressed copy of what is collected from each access log, so the logs can be parsed again (e.g.
+ * with another interval, or after a parsing fix) without fetching them from the hosts. There is one segment per host,
+ * directory and file; a file is identified by its inode, so it keeps its segment when it is renamed by rotation. A
+ * segment is a directory of gzip chunks, one per run that read more of the file, named by the offset the run started
+ * at. A run that is repeated after a failure overwrites its chunk, so a segment holds each byte collected from the
+ * file once. Segments that are too old, or over the size limit (oldest first), are evicted.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class LogSpool {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(LogSpool.class);
+
+/** Default size limit of the spool, in megabytes */
+public static final long DEFAULT_MAX_MEGABYTES = 10 * 1024;
+
+/** Default age limit of the spool segments, in days */
+public static final int DEFAULT_MAX_AGE_DAYS = 31;
+
+/** Suffix of chunk files */
+private static final String CHUNK_SUFFIX = ".log.gz";
+
+/** Suffix of a chunk file while it is written */
+private static final String TEMPORARY_SUFFIX = ".tmp";
+
+/** Size of buffers used when reading and writing segments */
+private static final int BUFFER_SIZE = 64 * 1024;
+
+/** Directory the spool is in */
+private final File directory;
+
+/** Size limit of the spool, in bytes */
+private final long maxBytes;
+
+/** Age limit of the segments, in milliseconds */
+private final long maxAge;
+
+/**
+ * Constructor.
+ *
+ * @param directoryArg Directory the spool is in
+ * @param maxMegabytesArg Size limit of the spool, in megabytes
+ * @param maxAgeDaysArg Age limit of the segments, in days
+ */
+public LogSpool(File directoryArg, long maxMegabytesArg, int maxAgeDaysArg) {
+	this.directory = directoryArg;
+	this.maxBytes = maxMegabytesArg * 1024 * 1024;
+	this.maxAge = maxAgeDaysArg * 24L * 60 * 60 * 1000;
+}
+
+/**
+ * Makes a handler that writes what another handler reads from a remote file to the file's segment, as it is read.
+ * Only the lines the other handler counts as read are written: a line still being written at the end of the file is
+ * left out unless writeUnterminatedLine is set, as it is read again on the next run. The chunk only becomes part of
+ * the segment once the other handler has read the whole file.
+ *
+ * @param host Host the file is on
+ * @param directoryName Directory the file is in
+ * @param inode Inode of the file
+ * @param offset Number of bytes at the start of the file that are not read. If 0, the segment is started again.
+ * @param writeUnterminatedLine Write a last line that does not end in a newline?
+ * @param handler Handler that reads the file
+ * @return the spooling handler
+ */
+public RemoteFileHandler spoolingHandler(String host, String directoryName, long inode, final long offset,
+		final boolean writeUnterminatedLine, final RemoteFileHandler handler) {
+
+	final File segment = getSegment(host, directoryName, inode);
+
+	return new RemoteFileHandler() {
+
+		public void handle(InputStream inputStream) throws IOException {
+			segment.mkdirs();
+			File chunk = new File(segment, offset + CHUNK_SUFFIX);
+			File chunkTemporary = new File(segment, offset + CHUNK_SUFFIX + TEMPORARY_SUFFIX);
+
+			LineAlignedOutputStream osChunk =
+					new LineAlignedOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(
+							chunkTemporary), BUFFER_SIZE), BUFFER_SIZE));
+			boolean complete = false;
+			try {
+				handler.handle(new TeeInputStream(inputStream, osChunk));
+				osChunk.finish(writeUnterminatedLine);
+				osChunk.close();
+				complete = true;
+			} finally {
+				if (!complete) {
+					try {
+						osChunk.close();
+					} catch (IOException ex) {
+						logger.warn("Closing spool chunk " + chunkTemporary + ": " + ex.getMessage());
+					}
+					chunkTemporary.delete();
+				}
+			}
+
+			// A file read from the start replaces whatever was kept of it
+			if (offset == 0) {
+				for (File chunkCurrent : listChunks(segment)) {
+					chunkCurrent.delete();
+				}
+			}
+			chunk.delete();
+			if (!chunkTemporary.renameTo(chunk)) {
+				throw new IOException("Could not rename spool chunk " + chunkTemporary + " to " + chunk);
+			}
+		}
+	};
+}
+
+/**
+ * Parses every segment in the spool into a map, as the collection would have parsed the files on the hosts. Each
+ * segment is parsed with the parser of its location, so lines in a custom format are parsed with that format.
+ *
+ * @param mapAccessLogParsers Parser of each location, by the key from getLocationKey
+ * @param mapBytesUsed Map holding bytes used
+ * @return Number of segments parsed
+ * @throws IOException If a segment is from a location that has no parser, as its format is not known
+ */
+public int replay(Map<String, AccessLogParser> mapAccessLogParsers, BytesUsedMap mapBytesUsed) throws IOException {
+
+	// Check every segment has a parser before any is parsed, so nothing is stored from part of the spool
+	List<File> listSegments = listSegments();
+	List<AccessLogParser> listAccessLogParsers = new ArrayList<AccessLogParser>();
+	for (File segment : listSegments) {
+		File logDirectory = segment.getParentFile();
+		String locationKey =
+				getLocationKey(decode(logDirectory.getParentFile().getName()), decode(logDirectory.getName()));
+		AccessLogParser accessLogParser = mapAccessLogParsers.get(locationKey);
+		if (accessLogParser == null) {
+			throw new IOException("Spool segment " + segment + " is not from a known log location");
+		}
+		listAccessLogParsers.add(accessLogParser);
+	}
+
+	for (int i = 0; i < listSegments.size(); i++) {
+		AccessLogParser accessLogParser = listAccessLogParsers.get(i);
+		for (File chunk : listChunks(listSegments.get(i))) {
+			try {
+				FileInputStream fisChunk = new FileInputStream(chunk);
+				FileChannel fcChunk = fisChunk.getChannel();
+				try {
+					InputStream isChunk = new GZIPInputStream(Channels.newInputStream(fcChunk), BUFFER_SIZE);
+					accessLogParser.parse(isChunk, mapBytesUsed, true);
+				} finally {
+					fcChunk.close();
+					fisChunk.close();
+				}
+			} catch (IOException ex) {
+				// A chunk cut short still has its complete lines parsed
+				logger.warn("Reading spool chunk " + chunk + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	return listSegments.size();
+}
+
+/**
+ * Deletes the segments older than the age limit, then the oldest segments until the spool is within its size limit.
+ * The age of a segment is the age of its newest chunk.
+ */
+public void evict() {
+	List<File> listSegments = listSegments();
+
+	// Size and time last written of each segment
+	final Map<File, Long> mapLastModified = new HashMap<File, Long>();
+	Map<File, Long> mapLength = new HashMap<File, Long>();
+	long totalBytes = 0;
+	for (File segment : listSegments) {
+		long lastModified = 0;
+		long length = 0;
+		for (File chunk : listChunks(segment)) {
+			lastModified = Math.max(lastModified, chunk.lastModified());
+			length += chunk.length();
+		}
+		mapLastModified.put(segment, lastModified);
+		mapLength.put(segment, length);
+		totalBytes += length;
+	}
+
+	// Oldest first
+	Collections.sort(listSegments, new Comparator<File>() {
+
+		public int compare(File file1, File file2) {
+			return mapLastModified.get(file1).compareTo(mapLastModified.get(file2));
+		}
+	});
+
+	long oldestAllowed = System.currentTimeMillis() - maxAge;
+	for (File segment : listSegments) {
+		if (mapLastModified.get(segment) >= oldestAllowed && totalBytes <= maxBytes) {
+			break;
+		}
+		File[] files = segment.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		if (segment.delete()) {
+			totalBytes -= mapLength.get(segment);
+			logger.info("Evicted spool segment " + segment);
+		} else {
+			logger.warn("Could not delete spool segment " + segment);
+		}
+	}
+}
+
+/**
+ * Gets the segment of a file
+ *
+ * @param host Host the file is on
+ * @param directoryName Directory the file is in
+ * @param inode Inode of the file
+ * @return the segment directory
+ */
+private File getSegment(String host, String directoryName, long inode) {
+	return new File(new File(new File(directory, encode(host)), encode(directoryName)), Long.toString(inode));
+}
+
+/**
+ * Gets the key a location's parser is found by when the spool is parsed again
+ *
+ * @param host Host the location is on
+ * @param directoryName Directory of the location
+ * @return the key
+ */
+public static String getLocationKey(String host, String directoryName) {
+	return host + "\n" + directoryName;
+}
+
+/**
+ * Makes a name safe to use as a single local file name
+ *
+ * @param name Name
+ * @return the name, URL encoded
+ */
+private static String encode(String name) {
+	try {
+		return URLEncoder.encode(name, "UTF-8");
+	} catch (UnsupportedEncodingException ex) {
+		throw new IllegalStateException("UTF-8 not supported", ex);
+	}
+}
+
+/**
+ * Gets a name back from a local file name made by encode
+ *
+ * @param name Local file name
+ * @return the name, URL decoded
+ */
+private static String decode(String name) {
+	try {
+		return URLDecoder.decode(name, "UTF-8");
+	} catch (UnsupportedEncodingException ex) {
+		throw new IllegalStateException("UTF-8 not supported", ex);
+	}
+}
+
+/**
+ * Lists all the segments in the spool
+ *
+ * @return the segment directories
+ */
+private List<File> listSegments() {
+	List<File> listSegments = new ArrayList<File>();
+	File[] hostDirectories = directory.listFiles();
+	if (hostDirectories == null) {
+		return listSegments;
+	}
+	for (File hostDirectory : hostDirectories) {
+		File[] logDirectories = hostDirectory.listFiles();
+		if (logDirectories == null) {
+			continue;
+		}
+		for (File logDirectory : logDirectories) {
+			File[] segments = logDirectory.listFiles();
+			if (segments == null) {
+				continue;
+			}
+			for (File segment : segments) {
+				if (segment.isDirectory()) {
+					listSegments.add(segment);
+				}
+			}
+		}
+	}
+	return listSegments;
+}
+
+/**
+ * Lists the chunks of a segment, in the order they were read from the file
+ *
+ * @param segment Segment directory
+ * @return the chunks
+ */
+private static List<File> listChunks(File segment) {
+	List<File> listChunks = new ArrayList<File>();
+	File[] chunks = segment.listFiles();
+	if (chunks == null) {
+		return listChunks;
+	}
+	for (File chunk : chunks) {
+		if (chunk.isFile() && chunk.getName().endsWith(CHUNK_SUFFIX)) {
+			listChunks.add(chunk);
+		}
+	}
+
+	// By the offset they start at
+	Collections.sort(listChunks, new Comparator<File>() {
+
+		public int compare(File file1, File file2) {
+			return Long.valueOf(getChunkOffset(file1)).compareTo(Long.valueOf(getChunkOffset(file2)));
+		}
+	});
+	return listChunks;
+}
+
+/**
+ * Gets the offset a chunk starts at, from its name
+ *
+ * @param chunk Chunk
+ * @return the offset, or -1 if the name is not a chunk name
+ */
+private static long getChunkOffset(File chunk) {
+	String name = chunk.getName();
+	try {
+		return Long.parseLong(name.substring(0, name.length() - CHUNK_SUFFIX.length()));
+	} catch (NumberFormatException ex) {
+		return -1;
+	}
+}
+
+/**
+ * Output stream that only passes on whole lines. The bytes after the last newline are held back until more of the
+ * line is written, or until finish() is told to write them.
+ */
+private static class LineAlignedOutputStream extends OutputStream {
+
+/** Stream whole lines are written to */
+private final GZIPOutputStream outputStream;
+
+/** The start of a line, not yet written */
+private final ByteArrayOutputStream baosPending = new ByteArrayOutputStream();
+
+/**
+ * Constructor.
+ *
+ * @param outputStreamArg Stream whole lines are written to
+ */
+LineAlignedOutputStream(GZIPOutputStream outputStreamArg) {
+	this.outputStream = outputStreamArg;
+}
+
+/**
+ * Writes a byte
+ *
+ * @param b the byte
+ * @throws IOException On error writing
+ */
+public void write(int b) throws IOException {
+	write(new byte[] { (byte) b }, 0, 1);
+}
+
+/**
+ * Writes the whole lines among the pending bytes and these, and holds back the rest
+ *
+ * @param b bytes
+ * @param off offset in b
+ * @param len number of bytes
+ * @throws IOException On error writing
+ */
+public void write(byte[] b, int off, int len) throws IOException {
+	int lastNewline = -1;
+	for (int i = off + len - 1; i >= off; i--) {
+		if (b[i] == '\n') {
+			lastNewline = i;
+			break;
+		}
+	}
+
+	if (lastNewline == -1) {
+		baosPending.write(b, off, len);
+		return;
+	}
+
+	baosPending.writeTo(outputStream);
+	baosPending.reset();
+	outputStream.write(b, off, lastNewline + 1 - off);
+	baosPending.write(b, lastNewline + 1, off + len - lastNewline - 1);
+}
+
+/**
+ * Ends the segment member
+ *
+ * @param writeUnterminatedLine Write the bytes after the last newline?
+ * @throws IOException On error writing
+ */
+void finish(boolean writeUnterminatedLine) throws IOException {
+	if (writeUnterminatedLine) {
+		baosPending.writeTo(outputStream);
+	}
+	baosPending.reset();
+	outputStream.finish();
+}
+
+/**
+ * Closes the segment
+ *
+ * @throws IOException On error closing
+ */
+public void close() throws IOException {
+	outputStream.close();
+}
+}
+}
@@ -0,0 +1,309 @@
+package com.att.paas.lj.webextract;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import com.att.paas.lj.webextract.util.ByteBufferInputStream;
+
+/**
+ * Parses a local access log file on several threads. The file is memory mapped and split into chunks that each start
+ * at the start of a line and end after a newline, so every line is parsed by exactly one chunk. Each chunk is parsed
+ * by its own AccessLogParser into its own map, and the maps are added together as the chunks finish, so the totals are
+ * the same as parsing the file from start to end. The chunks can instead all add into one ConcurrentBytesUsedMap,
+ * which is drained into the map at the end. Sketches of each interval, if they are wanted, are always kept per chunk
+ * and merged.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class ParallelLogParser {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(ParallelLogParser.class);
+
+/** Chunks to split a file into per thread, so threads that finish early can take on more */
+private static final int CHUNKS_PER_THREAD = 4;
+
+/** Smallest chunk worth parsing on its own */
+private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+/** Largest chunk mapped at once */
+private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+/** Size of the buffer read when looking for the end of a line */
+private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+/** Interval durations for data collection, in minutes */
+private final int[] intervalDurations;
+
+/** Number of threads to parse on */
+private final int threads;
+
+/** Add all the chunks into one concurrent map, rather than each into its own map? */
+private final boolean sharedMap;
+
+/** Client addresses whose requests are skipped, or null to skip none */
+private final IpFilter ipFilter;
+
+/** Most bytes of memory the maps of the chunks may take together, before they are spilled to disk */
+private final long memoryCap;
+
+/** Directory to spill the maps of the chunks to. If null, the default temporary directory. */
+private final File spillDirectory;
+
+/** Lines parsed over all files, and how long they took */
+private final ParseStatistics parseStatistics = new ParseStatistics();
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param threadsArg Number of threads to parse on
+ */
+public ParallelLogParser(int[] intervalDurationsArg, int threadsArg) {
+	this(intervalDurationsArg, threadsArg, false);
+}
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param threadsArg Number of threads to parse on
+ * @param sharedMapArg Add all the chunks into one concurrent map, rather than each into its own map?
+ */
+public ParallelLogParser(int[] intervalDurationsArg, int threadsArg, boolean sharedMapArg) {
+	this(intervalDurationsArg, threadsArg, sharedMapArg, null);
+}
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param threadsArg Number of threads to parse on
+ * @param sharedMapArg Add all the chunks into one concurrent map, rather than each into its own map?
+ * @param ipFilterArg Client addresses whose requests are skipped, or null to skip none
+ */
+public ParallelLogParser(int[] intervalDurationsArg, int threadsArg, boolean sharedMapArg, IpFilter ipFilterArg) {
+	this(intervalDurationsArg, threadsArg, sharedMapArg, ipFilterArg, BytesUsedMap.DEFAULT_MEMORY_CAP, null);
+}
+
+/**
+ * Constructor.
+ *
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ * @param threadsArg Number of threads to parse on
+ * @param sharedMapArg Add all the chunks into one concurrent map, rather than each into its own map?
+ * @param ipFilterArg Client addresses whose requests are skipped, or null to skip none
+ * @param memoryCapArg Most bytes of memory the maps of the chunks may take together, before they are spilled to disk.
+ *            Each of the chunks being parsed at the same time has an equal share.
+ * @param spillDirectoryArg Directory to spill the maps of the chunks to. If null, the default temporary directory.
+ */
+public ParallelLogParser(int[] intervalDurationsArg, int threadsArg, boolean sharedMapArg, IpFilter ipFilterArg,
+		long memoryCapArg, File spillDirectoryArg) {
+	this.intervalDurations = intervalDurationsArg;
+	this.threads = threadsArg;
+	this.sharedMap = sharedMapArg;
+	this.ipFilter = ipFilterArg;
+	this.memoryCap = memoryCapArg;
+	this.spillDirectory = spillDirectoryArg;
+}
+
+/**
+ * Parses a whole access log file, including a last line that does not end in a newline, and adds it to a map
+ *
+ * @param file Access log file
+ * @param mapBytesUsed Map holding bytes used
+ * @return Number of bytes parsed
+ * @throws IOException On error reading the file, or if interrupted
+ */
+public long parse(File file, BytesUsedMap mapBytesUsed) throws IOException {
+	return parse(file, mapBytesUsed, null);
+}
+
+/**
+ * Parses a whole access log file, including a last line that does not end in a newline, and adds it to a map and to
+ * the sketches of each interval
+ *
+ * @param file Access log file
+ * @param mapBytesUsed Map holding bytes used
+ * @param intervalSketchMap Sketches of each interval, or null if none are kept
+ * @return Number of bytes parsed
+ * @throws IOException On error reading the file, or if interrupted
+ */
+public long parse(File file, BytesUsedMap mapBytesUsed, IntervalSketchMap intervalSketchMap) throws IOException {
+	return parse(file, null, mapBytesUsed, intervalSketchMap);
+}
+
+/**
+ * Parses a whole access log file written in a custom format, including a last line that does not end in a newline,
+ * and adds it to a map and to the sketches of each interval
+ *
+ * @param file Access log file
+ * @param logFormat Format of the lines, or null for the usual format
+ * @param mapBytesUsed Map holding bytes used
+ * @param intervalSketchMap Sketches of each interval, or null if none are kept
+ * @return Number of bytes parsed
+ * @throws IOException On error reading the file, or if interrupted
+ */
+public long parse(File file, LogFormat logFormat, BytesUsedMap mapBytesUsed, IntervalSketchMap intervalSketchMap)
+		throws IOException {
+
+	RandomAccessFile rafLog = new RandomAccessFile(file, "r");
+	ExecutorService executorService = null;
+	try {
+		FileChannel fcLog = rafLog.getChannel();
+		long size = fcLog.size();
+
+		// Stripes are a few times the threads, so threads rarely wait for each other
+		ConcurrentBytesUsedMap concurrentBytesUsedMap =
+				sharedMap ? new ConcurrentBytesUsedMap(threads * 4, memoryCap, spillDirectory) : null;
+
+		List<ChunkParser> chunkParsers = new ArrayList<ChunkParser>();
+		long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / (threads * CHUNKS_PER_THREAD)));
+		for (long start = 0; start < size;) {
+			long end = start + chunkSize >= size ? size : findLineStart(fcLog, start + chunkSize);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new IOException("Line too long in " + file + " at " + start);
+			}
+			AccessLogParser accessLogParser =
+					new AccessLogParser(intervalDurations, logFormat, intervalSketchMap == null ? null
+							: new IntervalSketchMap(intervalDurations), ipFilter);
+			chunkParsers.add(new ChunkParser(fcLog.map(FileChannel.MapMode.READ_ONLY, start, end - start),
+					accessLogParser, sharedMap ? concurrentBytesUsedMap : new BytesUsedMap(memoryCap / threads,
+							spillDirectory)));
+			start = end;
+		}
+
+		executorService = Executors.newFixedThreadPool(threads);
+		CompletionService<ChunkParser> completionService = new ExecutorCompletionService<ChunkParser>(executorService);
+		for (ChunkParser chunkParser : chunkParsers) {
+			completionService.submit(chunkParser);
+		}
+
+		// Let go of the chunks, so the memory of each chunk's map is freed once it has been added in
+		int chunks = chunkParsers.size();
+		chunkParsers.clear();
+
+		// Add each chunk's buckets into the map as it finishes, unless they are all in the shared map
+		long bytesParsed = 0;
+		for (int i = 0; i < chunks; i++) {
+			ChunkParser chunkParser = completionService.take().get();
+			if (!sharedMap) {
+				mapBytesUsed.addAll((BytesUsedMap) chunkParser.mapBytesUsed);
+			}
+			if (intervalSketchMap != null) {
+				intervalSketchMap.addAll(chunkParser.accessLogParser.getIntervalSketchMap());
+			}
+			bytesParsed += chunkParser.bytesParsed;
+			parseStatistics.merge(chunkParser.accessLogParser.getParseStatistics());
+		}
+		if (sharedMap) {
+			concurrentBytesUsedMap.drainTo(mapBytesUsed);
+		}
+
+		logger.info("Parsed " + file + " in " + chunks + " chunks: " + bytesParsed + " bytes");
+		return bytesParsed;
+	} catch (ExecutionException ex) {
+		throw new IOException("Parsing " + file + ": " + ex.getCause().getMessage(), ex.getCause());
+	} catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		throw new InterruptedIOException("Interrupted while parsing " + file);
+	} finally {
+		if (executorService != null) {
+			executorService.shutdownNow();
+		}
+		rafLog.close();
+	}
+}
+
+/**
+ * Finds the start of the first line that starts at or after a position
+ *
+ * @param fcLog Access log file
+ * @param position Position
+ * @return Position just after the first newline at or after position - 1, or the size of the file if there is none
+ * @throws IOException On error reading the file
+ */
+private static long findLineStart(FileChannel fcLog, long position) throws IOException {
+	ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+	long scanPosition = position - 1;
+	while (true) {
+		scanBuffer.clear();
+		int count = fcLog.read(scanBuffer, scanPosition);
+		if (count == -1) {
+			return fcLog.size();
+		}
+		for (int i = 0; i < count; i++) {
+			if (scanBuffer.get(i) == '\n') {
+				return scanPosition + i + 1;
+			}
+		}
+		scanPosition += count;
+	}
+}
+
+/**
+ * Gets parseStatistics
+ *
+ * @return Lines parsed over all files, and how long they took
+ */
+public ParseStatistics getParseStatistics() {
+	return parseStatistics;
+}
+
+/**
+ * Parses one chunk of a file into its own map
+ */
+private static class ChunkParser implements Callable<ChunkParser> {
+
+/** Chunk, from the start of a line to the end of a line */
+private final MappedByteBuffer chunk;
+
+/** Parser used only for this chunk */
+private final AccessLogParser accessLogParser;
+
+/** Map the buckets of this chunk are added to: its own, or the one shared by all the chunks */
+private final BytesUsedAccumulator mapBytesUsed;
+
+/** Number of bytes parsed */
+private long bytesParsed = 0;
+
+/**
+ * Constructor.
+ *
+ * @param chunkArg Chunk, from the start of a line to the end of a line
+ * @param accessLogParserArg Parser used only for this chunk
+ * @param mapBytesUsedArg Map the buckets of this chunk are added to
+ */
+ChunkParser(MappedByteBuffer chunkArg, AccessLogParser accessLogParserArg, BytesUsedAccumulator mapBytesUsedArg) {
+	this.chunk = chunkArg;
+	this.accessLogParser = accessLogParserArg;
+	this.mapBytesUsed = mapBytesUsedArg;
+}
+
+/**
+ * Parses the chunk. Only the last chunk of a file can end part way through a line, and that line is parsed.
+ *
+ * @return this
+ * @throws IOException On error reading the file
+ */
+public ChunkParser call() throws IOException {
+	bytesParsed = accessLogParser.parse(new ByteBufferInputStream(chunk), mapBytesUsed, true);
+	return this;
+}
+}
+}
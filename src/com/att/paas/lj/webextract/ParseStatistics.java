@@ -0,0 +1,173 @@
+package com.att.paas.lj.webextract;
+
+/**
+ * Counts the access log lines parsed, and how long they took: separately for lines rejected by the prefilter, which
+ * most lines are, and lines accepted by it, which then have their fields found. Only one line in SAMPLE_INTERVAL is
+ * timed, as timing every line would take longer than rejecting it.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class ParseStatistics {
+
+/** One line in this many is timed. A power of 2. */
+public static final int SAMPLE_INTERVAL = 64;
+
+/** Number of lines rejected by the prefilter */
+private long linesRejected = 0;
+
+/** Number of lines accepted by the prefilter */
+private long linesAccepted = 0;
+
+/** Number of accepted lines that were added to a bucket */
+private long linesAdded = 0;
+
+/** Number of accepted lines that were not added because of their client address */
+private long linesFiltered = 0;
+
+/** Number of rejected lines that were timed */
+private long rejectedSamples = 0;
+
+/** Time taken by the rejected lines that were timed, in nanoseconds */
+private long rejectedNanos = 0;
+
+/** Number of accepted lines that were timed */
+private long acceptedSamples = 0;
+
+/** Time taken by the accepted lines that were timed, in nanoseconds */
+private long acceptedNanos = 0;
+
+/**
+ * Should the next line be timed?
+ *
+ * @return true for one line in SAMPLE_INTERVAL
+ */
+public boolean isSample() {
+	return ((linesRejected + linesAccepted) & (SAMPLE_INTERVAL - 1)) == 0;
+}
+
+/**
+ * Counts a line rejected by the prefilter
+ *
+ * @param nanos Time it took, or -1 if it was not timed
+ */
+public void addRejected(long nanos) {
+	linesRejected++;
+	if (nanos >= 0) {
+		rejectedSamples++;
+		rejectedNanos += nanos;
+	}
+}
+
+/**
+ * Counts a line accepted by the prefilter
+ *
+ * @param added Was it added to a bucket?
+ * @param nanos Time it took, or -1 if it was not timed
+ */
+public void addAccepted(boolean added, long nanos) {
+	linesAccepted++;
+	if (added) {
+		linesAdded++;
+	}
+	if (nanos >= 0) {
+		acceptedSamples++;
+		acceptedNanos += nanos;
+	}
+}
+
+/**
+ * Counts an accepted line that is not added because of its client address. It is counted by addAccepted() too.
+ */
+public void addFiltered() {
+	linesFiltered++;
+}
+
+/**
+ * Adds other statistics into these
+ *
+ * @param other other statistics
+ */
+public void merge(ParseStatistics other) {
+	linesRejected += other.linesRejected;
+	linesAccepted += other.linesAccepted;
+	linesAdded += other.linesAdded;
+	linesFiltered += other.linesFiltered;
+	rejectedSamples += other.rejectedSamples;
+	rejectedNanos += other.rejectedNanos;
+	acceptedSamples += other.acceptedSamples;
+	acceptedNanos += other.acceptedNanos;
+}
+
+/**
+ * Gets the number of lines parsed
+ *
+ * @return lines rejected and accepted
+ */
+public long getLinesParsed() {
+	return linesRejected + linesAccepted;
+}
+
+/**
+ * Gets linesRejected
+ *
+ * @return linesRejected
+ */
+public long getLinesRejected() {
+	return linesRejected;
+}
+
+/**
+ * Gets linesAccepted
+ *
+ * @return linesAccepted
+ */
+public long getLinesAccepted() {
+	return linesAccepted;
+}
+
+/**
+ * Gets linesAdded
+ *
+ * @return linesAdded
+ */
+public long getLinesAdded() {
+	return linesAdded;
+}
+
+/**
+ * Gets linesFiltered
+ *
+ * @return linesFiltered
+ */
+public long getLinesFiltered() {
+	return linesFiltered;
+}
+
+/**
+ * Describes the counts and rates, for logging
+ *
+ * @return e.g. "1000 lines: 900 rejected (12 ns/line, 83333333 lines/s), 100 accepted (250 ns/line, 4000000
+ *         lines/s), 95 added"
+ */
+public String toString() {
+	return getLinesParsed() + " lines: " + linesRejected + " rejected (" + describeRate(rejectedSamples, rejectedNanos)
+			+ "), " + linesAccepted + " accepted (" + describeRate(acceptedSamples, acceptedNanos) + "), "
+			+ linesAdded + " added" + (linesFiltered == 0 ? "" : ", " + linesFiltered + " filtered by client address");
+}
+
+/**
+ * Describes the time per line of some timed lines
+ *
+ * @param samples Number of lines timed
+ * @param nanos Time they took, in nanoseconds
+ * @return time per line and lines per second, or "not timed"
+ */
+private static String describeRate(long samples, long nanos) {
+	if (samples == 0) {
+		return "not timed";
+	}
+	double nanosPerLine = (double) nanos / samples;
+	return Math.round(nanosPerLine) + " ns/line, "
+			+ (nanosPerLine > 0 ? Long.toString(Math.round(1e9 / nanosPerLine)) : "-") + " lines/s";
+}
+}
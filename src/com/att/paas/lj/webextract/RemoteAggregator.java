@@ -0,0 +1,151 @@
+package com.att.paas.lj.webextract;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import com.att.paas.lj.webextract.db.HostConnection;
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH;
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH.ExecuteThroughSSHException;
+import com.att.paas.lj.webextract.util.ExecuteThroughSSH.RemoteFileHandler;
+
+/**
+ * Parses and buckets an access log on the host it is on, using a perl script sent with the command, so only the
+ * (tenant id, interval start, bytes) totals are sent back rather than the whole log. The script matches lines the same
+ * way AccessLogParser does.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class RemoteAggregator {
+
+/** Script run on the remote host */
+private static final String SCRIPT_RESOURCE = "remote_aggregate.pl";
+
+/** Script, without comment lines, loaded once */
+private static String script = null;
+
+/** Host the logs are on */
+private final HostConnection hostConnection;
+
+/** Interval durations for data collection, in minutes */
+private final int[] intervalDurations;
+
+/**
+ * Constructor.
+ *
+ * @param hostConnectionArg Host the logs are on
+ * @param intervalDurationsArg Interval durations for data collection, in minutes
+ */
+public RemoteAggregator(HostConnection hostConnectionArg, int[] intervalDurationsArg) {
+	this.hostConnection = hostConnectionArg;
+	this.intervalDurations = intervalDurationsArg;
+}
+
+/**
+ * Buckets the part of a remote access log after an offset, on the remote host, and adds the totals to a map
+ *
+ * @param strRemoteFileName Name of the remote access log
+ * @param offset Number of (uncompressed) bytes at the start of the file to leave out
+ * @param parseUnterminatedLine Parse a last line that does not end in a newline?
+ * @param mapBytesUsed Map holding bytes used
+ * @return Number of bytes read, up to and including the last newline (or to the end, if parseUnterminatedLine)
+ * @throws ExecuteThroughSSHException On error running the script or reading its output
+ */
+public long aggregate(String strRemoteFileName, long offset, boolean parseUnterminatedLine,
+		final BytesUsedMap mapBytesUsed) throws ExecuteThroughSSHException {
+
+	// The script buckets into intervals that fit inside an interval of every duration, so its totals can be added
+	// into each duration here
+	String strCommand =
+			ExecuteThroughSSH.getReadCommand(strRemoteFileName, offset) + " | perl -e '" + getScript() + "' "
+					+ (AccessLogTimestampParser.getCommonIntervalDuration(intervalDurations) * 60) + " "
+					+ (parseUnterminatedLine ? 1 : 0);
+
+	final long[] bytesParsed = new long[1];
+
+	ExecuteThroughSSH.streamCommandOutput(hostConnection.getHost(), hostConnection.getUsername(),
+			hostConnection.getPassword(), null, strCommand, new RemoteFileHandler() {
+
+				public void handle(InputStream inputStream) throws IOException {
+					bytesParsed[0] = readTotals(new BufferedReader(new InputStreamReader(inputStream)), mapBytesUsed);
+				}
+			}, null, false);
+
+	return bytesParsed[0];
+}
+
+/**
+ * Reads the totals sent back by the script into the map
+ *
+ * @param brTotals Script output
+ * @param mapBytesUsed Map holding bytes used
+ * @return Number of bytes the script read
+ * @throws IOException On error reading, or if the output is not complete
+ */
+private long readTotals(BufferedReader brTotals, BytesUsedMap mapBytesUsed) throws IOException {
+	String line = null;
+	while ((line = brTotals.readLine()) != null) {
+		String[] fields = line.trim().split(" ");
+		try {
+			// The last line is the number of bytes read
+			if (fields.length == 2 && "consumed".equals(fields[0])) {
+				return Long.parseLong(fields[1]);
+			}
+
+			if (fields.length != 3) {
+				throw new IOException("Unexpected line from remote aggregation: " + line);
+			}
+
+			int tenantId = Integer.parseInt(fields[0]);
+			long commonIntervalStart = Long.parseLong(fields[1]) * 1000;
+			long numberOfBytes = Long.parseLong(fields[2]);
+
+			for (int intervalDuration : intervalDurations) {
+				mapBytesUsed.add(tenantId, commonIntervalStart, intervalDuration, numberOfBytes);
+			}
+		} catch (NumberFormatException ex) {
+			throw new IOException("Unexpected line from remote aggregation: " + line);
+		}
+	}
+
+	// Without the last line, the script did not finish
+	throw new IOException("Remote aggregation ended without a byte count");
+}
+
+/**
+ * Gets the script, loading it the first time
+ *
+ * @return the script, without comment lines
+ * @throws ExecuteThroughSSHException If the script can't be loaded
+ */
+private static synchronized String getScript() throws ExecuteThroughSSHException {
+	if (script == null) {
+		InputStream isScript = RemoteAggregator.class.getResourceAsStream(SCRIPT_RESOURCE);
+		if (isScript == null) {
+			throw new ExecuteThroughSSHException("Remote aggregation script " + SCRIPT_RESOURCE + " not found", null,
+					"Loading script", SCRIPT_RESOURCE);
+		}
+
+		StringBuffer sbScript = new StringBuffer();
+		try {
+			BufferedReader brScript = new BufferedReader(new InputStreamReader(isScript, "UTF-8"));
+			try {
+				String line = null;
+				while ((line = brScript.readLine()) != null) {
+					if (!line.trim().startsWith("#")) {
+						sbScript.append(line).append('\n');
+					}
+				}
+			} finally {
+				brScript.close();
+			}
+		} catch (IOException ex) {
+			throw new ExecuteThroughSSHException("Loading remote aggregation script " + SCRIPT_RESOURCE + ": "
+					+ ex.getMessage(), ex, "Loading script", SCRIPT_RESOURCE);
+		}
+		script = sbScript.toString();
+	}
+	return script;
+}
+}
@@ -0,0 +1,94 @@
+package com.att.paas.lj.webextract;
+
+import java.util.Date;
+
+/**
+ * Holds the keys to the byte collecting buckets
+ *
+ * @author Amarpreet geadhoke
+ */
+public class TenantTimeIntervalKey implements Comparable<TenantTimeIntervalKey> {
+
+/** Tenant id */
+private final int tenantId;
+
+/** Interval start date/time */
+private final Date intervalStart;
+
+/** Interval duration */
+private final int intervalDuration;
+
+/**
+ *
+ * Constructor.
+ *
+ * @param tenantIdArg tenant id
+ * @param dateTimeStampArg timestamp
+ * @param intervalArg interval
+ */
+public TenantTimeIntervalKey(int tenantIdArg, Date dateTimeStampArg, int intervalArg) {
+	this.tenantId = tenantIdArg;
+	this.intervalStart = dateTimeStampArg;
+	this.intervalDuration = intervalArg;
+}
+
+/**
+ * Gets tenantId
+ *
+ * @return tenantId
+ */
+public int getTenantId() {
+	return tenantId;
+}
+
+/**
+ * Gets dateTimeStamp
+ *
+ * @return dateTimeStamp
+ */
+public Date getIntervalStart() {
+	return intervalStart;
+}
+
+/**
+ * Gets interval
+ *
+ * @return interval
+ */
+public int getInterval() {
+	return intervalDuration;
+}
+
+/**
+ * Is this object equal to another?
+ *
+ * @param other other object
+ * @return true if all the instance vars have the same value. false otherwise.
+ */
+public boolean equals(TenantTimeIntervalKey other) {
+	return compareTo(other) == 0;
+}
+
+/**
+ * compares objects of this type
+ *
+ * @param other other object to comapre to
+ * @return 1 if this object is greater than other, -1 if this object is less then other, 0 if they are equal.
+ */
+public int compareTo(TenantTimeIntervalKey other) {
+	if (this.getTenantId() != other.getTenantId()) {
+		return this.getTenantId() > other.getTenantId() ? 1 : -1;
+	}
+
+	int dateComparison = this.getIntervalStart().compareTo(other.getIntervalStart());
+	if (dateComparison != 0) {
+		return dateComparison;
+	}
+
+	if (this.getInterval() != other.getInterval()) {
+		return this.getInterval() > other.getInterval() ? 1 : -1;
+	}
+
+	return 0;
+}
+}
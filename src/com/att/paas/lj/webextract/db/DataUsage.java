@@ -21,7 +21,10 @@ private Timestamp intervalStart;
 private int intervalDuration;
 
 /** Number of bytes sent during interval */
-private int numberOfBytes;
+private long numberOfBytes;
+
+/** HyperLogLog sketch of the distinct client addresses during interval, or null if none was kept */
+private byte[] clientAddresses;
 
 /**
  * Gets idDataUsage
@@ -109,7 +112,7 @@ public void setIntervalDuration(int interval) {
  *
  * @return numberOfBytes
  */
-public int getNumberOfBytes() {
+public long getNumberOfBytes() {
 	return numberOfBytes;
 }
 
@@ -118,8 +121,26 @@ public int getNumberOfBytes() {
  *
  * @param numberOfBytes numberOfBytes
  */
-public void setNumberOfBytes(int numberOfBytes) {
+public void setNumberOfBytes(long numberOfBytes) {
 	this.numberOfBytes = numberOfBytes;
 }
 
+/**
+ * Gets clientAddresses
+ *
+ * @return clientAddresses
+ */
+public byte[] getClientAddresses() {
+	return clientAddresses;
+}
+
+/**
+ * Sets clientAddresses
+ *
+ * @param clientAddresses clientAddresses
+ */
+public void setClientAddresses(byte[] clientAddresses) {
+	this.clientAddresses = clientAddresses;
+}
+
 }
@@ -0,0 +1,117 @@
+package com.att.paas.lj.webextract.db;
+
+import java.sql.Timestamp;
+
+/**
+ * Sketches of the tenant requests in one interval, serialized so they can be merged with those of other hosts and
+ * runs. The distinct client addresses of each tenant are stored with its DataUsage.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class IntervalSketch {
+
+/** Key */
+private int idIntervalSketch;
+
+/** Start date/time for interval */
+private Timestamp intervalStart;
+
+/** Interval length */
+private int intervalDuration;
+
+/** Space-Saving sketch of the tenants with the most bytes */
+private byte[] topTenants;
+
+/** t-digest of the response sizes */
+private byte[] responseSizes;
+
+/**
+ * Gets idIntervalSketch
+ *
+ * @return idIntervalSketch
+ */
+public int getIdIntervalSketch() {
+	return idIntervalSketch;
+}
+
+/**
+ * Sets idIntervalSketch
+ *
+ * @param idIntervalSketch idIntervalSketch
+ */
+public void setIdIntervalSketch(int idIntervalSketch) {
+	this.idIntervalSketch = idIntervalSketch;
+}
+
+/**
+ * Gets intervalStart
+ *
+ * @return intervalStart
+ */
+public Timestamp getIntervalStart() {
+	return intervalStart;
+}
+
+/**
+ * Sets intervalStart
+ *
+ * @param intervalStart intervalStart
+ */
+public void setIntervalStart(Timestamp intervalStart) {
+	this.intervalStart = intervalStart;
+}
+
+/**
+ * Gets intervalDuration
+ *
+ * @return intervalDuration
+ */
+public int getIntervalDuration() {
+	return intervalDuration;
+}
+
+/**
+ * Sets intervalDuration
+ *
+ * @param intervalDuration intervalDuration
+ */
+public void setIntervalDuration(int intervalDuration) {
+	this.intervalDuration = intervalDuration;
+}
+
+/**
+ * Gets topTenants
+ *
+ * @return topTenants
+ */
+public byte[] getTopTenants() {
+	return topTenants;
+}
+
+/**
+ * Sets topTenants
+ *
+ * @param topTenants topTenants
+ */
+public void setTopTenants(byte[] topTenants) {
+	this.topTenants = topTenants;
+}
+
+/**
+ * Gets responseSizes
+ *
+ * @return responseSizes
+ */
+public byte[] getResponseSizes() {
+	return responseSizes;
+}
+
+/**
+ * Sets responseSizes
+ *
+ * @param responseSizes responseSizes
+ */
+public void setResponseSizes(byte[] responseSizes) {
+	this.responseSizes = responseSizes;
+}
+}
@@ -0,0 +1,72 @@
+package com.att.paas.lj.webextract.db;
+
+/**
+ * A client address prefix whose requests are not counted (e.g. AVPN)
+ *
+ * @author Amarpreet geadhoke
+ */
+public class IpFilterPrefix {
+
+/** Key */
+private int idipfilterprefix;
+
+/** IPv4 or IPv6 address and optional prefix length, e.g. "10.20.0.0/16" or "2001:db8::/32" */
+private String prefix;
+
+/** What the prefix is for */
+private String description;
+
+/**
+ * Gets idipfilterprefix
+ *
+ * @return idipfilterprefix
+ */
+public int getIdipfilterprefix() {
+	return idipfilterprefix;
+}
+
+/**
+ * Sets idipfilterprefix
+ *
+ * @param idipfilterprefix idipfilterprefix
+ */
+public void setIdipfilterprefix(int idipfilterprefix) {
+	this.idipfilterprefix = idipfilterprefix;
+}
+
+/**
+ * Gets prefix
+ *
+ * @return prefix
+ */
+public String getPrefix() {
+	return prefix;
+}
+
+/**
+ * Sets prefix
+ *
+ * @param prefix prefix
+ */
+public void setPrefix(String prefix) {
+	this.prefix = prefix;
+}
+
+/**
+ * Gets description
+ *
+ * @return description
+ */
+public String getDescription() {
+	return description;
+}
+
+/**
+ * Sets description
+ *
+ * @param description description
+ */
+public void setDescription(String description) {
+	this.description = description;
+}
+}
@@ -0,0 +1,204 @@
+package com.att.paas.lj.webextract.db;
+
+/**
+ * Records how far an access log file has been collected, so the next run only reads what has been added since. The
+ * file is identified by its inode and a fingerprint of its first line, rather than by its name, so it is still
+ * recognized after it has been rotated (e.g. access_log renamed to access_log.1).
+ *
+ * @author Amarpreet geadhoke
+ */
+public class LogCheckpoint {
+
+/** Index */
+private int idlogcheckpoint;
+
+/** Host name or address */
+private String host;
+
+/** Directory name */
+private String directoryname;
+
+/** File name when last collected */
+private String filename;
+
+/** Inode of the file */
+private long inode;
+
+/** Fingerprint of the first line of the file */
+private String fingerprint;
+
+/** Number of bytes of the file already collected */
+private long byteoffset;
+
+/** Size of the file when last collected */
+private long filesize;
+
+/** Modification time of the file when last collected, in seconds since the epoch */
+private long mtime;
+
+/**
+ * Gets idlogcheckpoint
+ *
+ * @return idlogcheckpoint
+ */
+public int getIdlogcheckpoint() {
+	return idlogcheckpoint;
+}
+
+/**
+ * Sets idlogcheckpoint
+ *
+ * @param idlogcheckpoint idlogcheckpoint
+ */
+public void setIdlogcheckpoint(int idlogcheckpoint) {
+	this.idlogcheckpoint = idlogcheckpoint;
+}
+
+/**
+ * Gets host
+ *
+ * @return host
+ */
+public String getHost() {
+	return host;
+}
+
+/**
+ * Sets host
+ *
+ * @param host host
+ */
+public void setHost(String host) {
+	this.host = host;
+}
+
+/**
+ * Gets directoryname
+ *
+ * @return directoryname
+ */
+public String getDirectoryname() {
+	return directoryname;
+}
+
+/**
+ * Sets directoryname
+ *
+ * @param directoryname directoryname
+ */
+public void setDirectoryname(String directoryname) {
+	this.directoryname = directoryname;
+}
+
+/**
+ * Gets filename
+ *
+ * @return filename
+ */
+public String getFilename() {
+	return filename;
+}
+
+/**
+ * Sets filename
+ *
+ * @param filename filename
+ */
+public void setFilename(String filename) {
+	this.filename = filename;
+}
+
+/**
+ * Gets inode
+ *
+ * @return inode
+ */
+public long getInode() {
+	return inode;
+}
+
+/**
+ * Sets inode
+ *
+ * @param inode inode
+ */
+public void setInode(long inode) {
+	this.inode = inode;
+}
+
+/**
+ * Gets fingerprint
+ *
+ * @return fingerprint
+ */
+public String getFingerprint() {
+	return fingerprint;
+}
+
+/**
+ * Sets fingerprint
+ *
+ * @param fingerprint fingerprint
+ */
+public void setFingerprint(String fingerprint) {
+	this.fingerprint = fingerprint;
+}
+
+/**
+ * Gets byteoffset
+ *
+ * @return byteoffset
+ */
+public long getByteoffset() {
+	return byteoffset;
+}
+
+/**
+ * Sets byteoffset
+ *
+ * @param byteoffset byteoffset
+ */
+public void setByteoffset(long byteoffset) {
+	this.byteoffset = byteoffset;
+}
+
+public String toString() {
+	return host + ":" + directoryname + "/" + filename + " inode=" + inode + " offset=" + byteoffset;
+}
+
+/**
+ * Gets filesize
+ *
+ * @return filesize
+ */
+public long getFilesize() {
+	return filesize;
+}
+
+/**
+ * Sets filesize
+ *
+ * @param filesize filesize
+ */
+public void setFilesize(long filesize) {
+	this.filesize = filesize;
+}
+
+/**
+ * Gets mtime
+ *
+ * @return mtime
+ */
+public long getMtime() {
+	return mtime;
+}
+
+/**
+ * Sets mtime
+ *
+ * @param mtime mtime
+ */
+public void setMtime(long mtime) {
+	this.mtime = mtime;
+}
+}
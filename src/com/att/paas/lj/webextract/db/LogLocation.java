@@ -15,6 +15,12 @@ private int idhostconnection;
 /** Directory name */
 private String directoryname;
 
+/** Compress access logs on the host before sending them? Null (not set) is false. */
+private Boolean compresstransfer;
+
+/** Apache LogFormat the access logs are written in. Null (not set) is the usual combined format. */
+private String format;
+
 /**
  * Gets idloglocation
  *
@@ -69,6 +75,42 @@ public void setDirectoryname(String directoryname) {
 	this.directoryname = directoryname;
 }
 
+/**
+ * Gets compresstransfer
+ *
+ * @return compresstransfer
+ */
+public Boolean getCompresstransfer() {
+	return compresstransfer;
+}
+
+/**
+ * Sets compresstransfer
+ *
+ * @param compresstransfer compresstransfer
+ */
+public void setCompresstransfer(Boolean compresstransfer) {
+	this.compresstransfer = compresstransfer;
+}
+
+/**
+ * Gets format
+ *
+ * @return format
+ */
+public String getFormat() {
+	return format;
+}
+
+/**
+ * Sets format
+ *
+ * @param format format
+ */
+public void setFormat(String format) {
+	this.format = format;
+}
+
 public String toString() {
 	return directoryname;
 }
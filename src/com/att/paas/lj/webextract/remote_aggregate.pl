@@ -0,0 +1,60 @@
+# Adds up the bytes delivered for each tenant into interval buckets, on the host the access log is on, so only the
+# totals are sent back. Started by RemoteAggregator as: perl -e <this script, quoted> <interval seconds> <parse unterminated>
+# with the access log on standard input. It must skip and match lines exactly as AccessLogParser does.
+#
+# Output is one line per bucket: <tenant id> <interval start, epoch seconds> <bytes>
+# followed by a last line: consumed <bytes of input read>
+#
+# This script is passed inside single quotes, so it must not contain any.
+use strict;
+use Time::Local;
+
+my ($interval, $parseUnterminated) = @ARGV;
+
+my %months = (Jan => 0, Feb => 1, Mar => 2, Apr => 3, May => 4, Jun => 5,
+		Jul => 6, Aug => 7, Sep => 8, Oct => 9, Nov => 10, Dec => 11);
+
+my %bytes;
+my $consumed = 0;
+
+while (my $line = <STDIN>) {
+
+	# A line still being written is left for the next run, unless told otherwise
+	my $terminated = ($line =~ /\n\z/);
+	last if (!$terminated && !$parseUnterminated);
+	$consumed += length($line);
+	$line =~ s/\r?\n\z//;
+
+	my ($time, $size, $tenant);
+
+	# The same two patterns as AccessLogParser
+	if ($line =~ /(.*?) - - (\[.*?\]) ".*?" \d*? (\d*?) "http:\/\/.*?\/networking\/Service\?.*?[\&\?]id=(.*?)[\&"].*/) {
+		($time, $size, $tenant) = ($2, $3, $4);
+	} elsif ($line =~ /(.*?) - - (\[.*?\]) "GET \/networking\/Service\?.*?[\&\?]id=(.*?)[\&"].*? \d*? (\d*?) .*/) {
+		($time, $tenant, $size) = ($2, $3, $4);
+	} else {
+		next;
+	}
+
+	# [dd/MMM/yyyy:HH:mm:ss Z
+	my ($day, $month, $year, $hour, $minute, $second, $sign, $zoneHours, $zoneMinutes) =
+			($time =~ /^\[(\d+)\/(\w{3})\/(\d+):(\d+):(\d+):(\d+) ([+-])(\d\d)(\d\d)/);
+	next unless (defined $zoneMinutes && exists $months{$month});
+	my $epoch = eval { timegm($second, $minute, $hour, $day, $months{$month}, $year) };
+	next unless (defined $epoch);
+	$epoch -= ($zoneHours * 3600 + $zoneMinutes * 60) * ($sign eq "-" ? -1 : 1);
+
+	# Byte count and tenant id must be valid ints
+	next unless ($size =~ /^\d+$/ && $size <= 2147483647);
+	next unless ($tenant =~ /^[+-]?\d+$/ && $tenant >= -2147483648 && $tenant <= 2147483647);
+	$tenant = $tenant + 0;
+	next if ($tenant == -1);
+
+	my $start = int($epoch / $interval) * $interval;
+	$bytes{"$tenant $start"} += $size;
+}
+
+foreach my $key (keys %bytes) {
+	print "$key $bytes{$key}\n";
+}
+print "consumed $consumed\n";
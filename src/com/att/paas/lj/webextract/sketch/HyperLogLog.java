@@ -0,0 +1,325 @@
+package com.att.paas.lj.webextract.sketch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Estimates the number of distinct values added (e.g. client addresses) in a fixed amount of memory, with the
+ * HyperLogLog algorithm. Each value is hashed; the first bits of the hash pick a register, which keeps the longest
+ * run of leading zeros seen in the rest. With 2^precision registers, the standard error is 1.04 / sqrt(2^precision):
+ * about 3% with the default of 1024 one byte registers. Until a few registers are set, only those are kept, in a small
+ * hash table, as most sketches (e.g. the client addresses of one tenant in one interval) see few values. Two sketches
+ * of the same precision are merged by taking the larger of each register, so sketches from different hosts and runs
+ * can be combined. An instance is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class HyperLogLog {
+
+/** Default number of bits of the hash that pick a register */
+public static final int DEFAULT_PRECISION = 10;
+
+/** Initial size of the table of registers set, while there are few */
+private static final int SPARSE_INITIAL_SIZE = 8;
+
+/** Form written for a sketch with every register */
+private static final int FORM_DENSE = 0;
+
+/** Form written for a sketch with only the registers set */
+private static final int FORM_SPARSE = 1;
+
+/** Number of bits of the hash that pick a register */
+private final int precision;
+
+/** Longest run of leading zeros (plus 1) seen by each register, or null while the sketch is sparse */
+private byte[] registers = null;
+
+/**
+ * Registers set, while there are few: an open addressing table of (register + 1) << 8 | rank, 0 where empty. Null
+ * once the sketch is dense.
+ */
+private int[] sparse = new int[SPARSE_INITIAL_SIZE];
+
+/** Number of registers in the sparse table */
+private int sparseCount = 0;
+
+/**
+ * Constructor, with the default precision
+ */
+public HyperLogLog() {
+	this(DEFAULT_PRECISION);
+}
+
+/**
+ * Constructor.
+ *
+ * @param precisionArg Number of bits of the hash that pick a register, 4 to 16
+ */
+public HyperLogLog(int precisionArg) {
+	if (precisionArg < 4 || precisionArg > 16) {
+		throw new IllegalArgumentException("HyperLogLog precision must be 4 to 16: " + precisionArg);
+	}
+	this.precision = precisionArg;
+}
+
+/**
+ * Adds a value held as bytes
+ *
+ * @param bytes Bytes holding the value
+ * @param start Start of the value
+ * @param end End of the value (exclusive)
+ */
+public void add(byte[] bytes, int start, int end) {
+	addHash(hash(bytes, start, end));
+}
+
+/**
+ * Adds a value already hashed with hash(), so a value added to several sketches is hashed once
+ *
+ * @param hash Hash of the value
+ */
+public void addHash(long hash) {
+	int register = (int) (hash >>> (64 - precision));
+
+	// A 1 bit after the hash bits stops the count at the end of the hash
+	int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+	setRegister(register, rank);
+}
+
+/**
+ * Merges another sketch into this one
+ *
+ * @param other Sketch of the same precision
+ */
+public void merge(HyperLogLog other) {
+	if (other.precision != precision) {
+		throw new IllegalArgumentException("Can't merge HyperLogLog of precision " + other.precision + " into "
+				+ precision);
+	}
+	if (other.registers == null) {
+		for (int entry : other.sparse) {
+			if (entry != 0) {
+				setRegister((entry >>> 8) - 1, entry & 0xff);
+			}
+		}
+		return;
+	}
+
+	toDense();
+	for (int i = 0; i < registers.length; i++) {
+		if (other.registers[i] > registers[i]) {
+			registers[i] = other.registers[i];
+		}
+	}
+}
+
+/**
+ * Estimates the number of distinct values added
+ *
+ * @return the estimate
+ */
+public long estimate() {
+	int m = 1 << precision;
+	double sum = 0;
+	int zeros = 0;
+	if (registers == null) {
+		// The registers not in the table are 0
+		zeros = m - sparseCount;
+		sum = zeros;
+		for (int entry : sparse) {
+			if (entry != 0) {
+				sum += 1.0 / (1L << (entry & 0xff));
+			}
+		}
+	} else {
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+	}
+
+	double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+	double estimate = alpha * m * m / sum;
+
+	// Few values: count the empty registers instead, which is more accurate there
+	if (estimate <= 2.5 * m && zeros > 0) {
+		estimate = m * Math.log((double) m / zeros);
+	}
+	return Math.round(estimate);
+}
+
+/**
+ * Writes the sketch as bytes, to be stored
+ *
+ * @return what write() writes
+ */
+public byte[] toBytes() {
+	ByteArrayOutputStream baos = new ByteArrayOutputStream(registers == null ? 4 + sparseCount * 3 : 2 << precision);
+	DataOutputStream dos = new DataOutputStream(baos);
+	try {
+		write(dos);
+		dos.close();
+	} catch (IOException ex) {
+		// A ByteArrayOutputStream does not throw
+		throw new IllegalStateException(ex);
+	}
+	return baos.toByteArray();
+}
+
+/**
+ * Writes the sketch to a stream
+ *
+ * @param dos Stream
+ * @throws IOException On error writing
+ */
+public void write(DataOutputStream dos) throws IOException {
+	dos.writeByte(precision);
+	if (registers == null) {
+		// The registers set, each as its number and rank
+		dos.writeByte(FORM_SPARSE);
+		dos.writeShort(sparseCount);
+		for (int entry : sparse) {
+			if (entry != 0) {
+				dos.writeShort((entry >>> 8) - 1);
+				dos.writeByte(entry & 0xff);
+			}
+		}
+	} else {
+		dos.writeByte(FORM_DENSE);
+		dos.write(registers);
+	}
+}
+
+/**
+ * Reads a sketch written by write() or toBytes()
+ *
+ * @param dis Stream
+ * @return the sketch
+ * @throws IOException On error reading, or if it is not a sketch
+ */
+public static HyperLogLog read(DataInputStream dis) throws IOException {
+	int precision = dis.readUnsignedByte();
+	if (precision < 4 || precision > 16) {
+		throw new IOException("Not a HyperLogLog: precision " + precision);
+	}
+	HyperLogLog hyperLogLog = new HyperLogLog(precision);
+	int form = dis.readUnsignedByte();
+	if (form == FORM_SPARSE) {
+		int count = dis.readUnsignedShort();
+		for (int i = 0; i < count; i++) {
+			int register = dis.readUnsignedShort();
+			int rank = dis.readUnsignedByte();
+			if (register >= 1 << precision || rank > 64 - precision + 1) {
+				throw new IOException("Not a HyperLogLog: register " + register + " rank " + rank);
+			}
+			hyperLogLog.setRegister(register, rank);
+		}
+	} else if (form == FORM_DENSE) {
+		hyperLogLog.toDense();
+		dis.readFully(hyperLogLog.registers);
+	} else {
+		throw new IOException("Not a HyperLogLog: form " + form);
+	}
+	return hyperLogLog;
+}
+
+/**
+ * Reads a sketch written by toBytes()
+ *
+ * @param bytes Bytes of the sketch
+ * @return the sketch
+ * @throws IOException If it is not a sketch
+ */
+public static HyperLogLog fromBytes(byte[] bytes) throws IOException {
+	return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+}
+
+/**
+ * Raises a register to a rank, if it is lower
+ *
+ * @param register Register
+ * @param rank Rank, 1 or more
+ */
+private void setRegister(int register, int rank) {
+	if (registers != null) {
+		if (rank > registers[register]) {
+			registers[register] = (byte) rank;
+		}
+		return;
+	}
+
+	// Linear probing from a hash of the register
+	int mask = sparse.length - 1;
+	int slot = (register * 0x9E3779B9) >>> 16 & mask;
+	while (sparse[slot] != 0) {
+		if ((sparse[slot] >>> 8) - 1 == register) {
+			if (rank > (sparse[slot] & 0xff)) {
+				sparse[slot] = (register + 1) << 8 | rank;
+			}
+			return;
+		}
+		slot = (slot + 1) & mask;
+	}
+	sparse[slot] = (register + 1) << 8 | rank;
+	sparseCount++;
+
+	// Once more than a sixteenth of the registers are set, the table would soon take as much memory as every register,
+	// so keep every register. Otherwise grow the table when it is three quarters full.
+	if (sparseCount > (1 << precision) / 16) {
+		toDense();
+	} else if (sparseCount * 4 > sparse.length * 3) {
+		int[] sparseOld = sparse;
+		sparse = new int[sparseOld.length * 2];
+		sparseCount = 0;
+		for (int entry : sparseOld) {
+			if (entry != 0) {
+				setRegister((entry >>> 8) - 1, entry & 0xff);
+			}
+		}
+	}
+}
+
+/**
+ * Keeps every register, rather than only those set
+ */
+private void toDense() {
+	if (registers != null) {
+		return;
+	}
+	registers = new byte[1 << precision];
+	for (int entry : sparse) {
+		if (entry != 0) {
+			registers[(entry >>> 8) - 1] = (byte) (entry & 0xff);
+		}
+	}
+	sparse = null;
+	sparseCount = 0;
+}
+
+/**
+ * Hashes bytes to 64 bits: FNV-1a, then a finalizer that spreads every input bit over all the output bits
+ *
+ * @param bytes Bytes
+ * @param start Start of the range
+ * @param end End of the range (exclusive)
+ * @return the hash
+ */
+public static long hash(byte[] bytes, int start, int end) {
+	long hash = 0xcbf29ce484222325L;
+	for (int i = start; i < end; i++) {
+		hash ^= bytes[i] & 0xff;
+		hash *= 0x100000001b3L;
+	}
+	hash ^= hash >>> 33;
+	hash *= 0xff51afd7ed558ccdL;
+	hash ^= hash >>> 33;
+	hash *= 0xc4ceb9fe1a85ec53L;
+	hash ^= hash >>> 33;
+	return hash;
+}
+}
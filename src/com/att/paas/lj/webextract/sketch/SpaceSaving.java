@@ -0,0 +1,294 @@
+package com.att.paas.lj.webextract.sketch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the items (e.g. tenants) with the largest weights (e.g. bytes) in a stream, in a fixed number of counters,
+ * with the Space-Saving algorithm. An item not being counted takes over the counter with the smallest count, and
+ * starts from that count, which is remembered as its error. Any item whose weight is more than the total divided by
+ * the number of counters is always counted, and an item's count is never less than its true weight nor more than that
+ * plus its error. With a few times more counters than items wanted, the top items are found exactly in practice.
+ * Sketches are merged as Agarwal et al. describe ("Mergeable summaries"), so sketches from different hosts and runs
+ * can be combined. An instance is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class SpaceSaving {
+
+/** Default number of counters */
+public static final int DEFAULT_CAPACITY = 100;
+
+/** Orders counters by count, largest first */
+private static final Comparator<Counter> COUNT_COMPARATOR = new Comparator<Counter>() {
+
+	public int compare(Counter counter1, Counter counter2) {
+		return counter1.count < counter2.count ? 1 : counter1.count > counter2.count ? -1 : 0;
+	}
+};
+
+/** Number of counters */
+private final int capacity;
+
+/** Item of each counter in use */
+private final int[] items;
+
+/** Count of each counter in use */
+private final long[] counts;
+
+/** Most the count of each counter in use may be over the item's true weight */
+private final long[] errors;
+
+/** Number of counters in use */
+private int size = 0;
+
+/** Counter last added to. Lines next to each other are mostly for the same item. */
+private int lastCounter = -1;
+
+/**
+ * Constructor, with the default number of counters
+ */
+public SpaceSaving() {
+	this(DEFAULT_CAPACITY);
+}
+
+/**
+ * Constructor.
+ *
+ * @param capacityArg Number of counters
+ */
+public SpaceSaving(int capacityArg) {
+	if (capacityArg <= 0) {
+		throw new IllegalArgumentException("Space-Saving capacity must be positive: " + capacityArg);
+	}
+	this.capacity = capacityArg;
+	this.items = new int[capacityArg];
+	this.counts = new long[capacityArg];
+	this.errors = new long[capacityArg];
+}
+
+/**
+ * Adds weight to an item
+ *
+ * @param item Item
+ * @param weight Weight to add
+ */
+public void add(int item, long weight) {
+	int counter = lastCounter;
+	if (counter == -1 || items[counter] != item) {
+		counter = indexOf(item);
+	}
+
+	if (counter == -1) {
+		if (size < capacity) {
+			counter = size++;
+			errors[counter] = 0;
+			counts[counter] = 0;
+		} else {
+			// Take over the smallest counter, starting from its count
+			counter = 0;
+			for (int i = 1; i < size; i++) {
+				if (counts[i] < counts[counter]) {
+					counter = i;
+				}
+			}
+			errors[counter] = counts[counter];
+		}
+		items[counter] = item;
+	}
+
+	counts[counter] += weight;
+	lastCounter = counter;
+}
+
+/**
+ * Merges another sketch into this one. An item counted in only one of them is taken to have the smallest count of the
+ * other, if the other is full, as its weight there may be up to that.
+ *
+ * @param other other sketch
+ */
+public void merge(SpaceSaving other) {
+	long minimumThis = size == capacity ? minimumCount() : 0;
+	long minimumOther = other.size == other.capacity ? other.minimumCount() : 0;
+
+	List<Counter> counters = new ArrayList<Counter>(size + other.size);
+	for (int i = 0; i < size; i++) {
+		int counterOther = other.indexOf(items[i]);
+		if (counterOther == -1) {
+			counters.add(new Counter(items[i], counts[i] + minimumOther, errors[i] + minimumOther));
+		} else {
+			counters.add(new Counter(items[i], counts[i] + other.counts[counterOther], errors[i]
+					+ other.errors[counterOther]));
+		}
+	}
+	for (int i = 0; i < other.size; i++) {
+		if (indexOf(other.items[i]) == -1) {
+			counters.add(new Counter(other.items[i], other.counts[i] + minimumThis, other.errors[i] + minimumThis));
+		}
+	}
+
+	// Keep the largest
+	Collections.sort(counters, COUNT_COMPARATOR);
+	size = Math.min(capacity, counters.size());
+	for (int i = 0; i < size; i++) {
+		Counter counter = counters.get(i);
+		items[i] = counter.item;
+		counts[i] = counter.count;
+		errors[i] = counter.error;
+	}
+	lastCounter = -1;
+}
+
+/**
+ * Gets the items with the largest counts
+ *
+ * @param n Number of items wanted
+ * @return up to n counters, largest count first
+ */
+public List<Counter> getTop(int n) {
+	List<Counter> counters = new ArrayList<Counter>(size);
+	for (int i = 0; i < size; i++) {
+		counters.add(new Counter(items[i], counts[i], errors[i]));
+	}
+	Collections.sort(counters, COUNT_COMPARATOR);
+	return counters.subList(0, Math.min(n, counters.size()));
+}
+
+/**
+ * Writes the sketch as bytes, to be stored
+ *
+ * @return the number of counters and the number in use, then the item, count and error of each
+ */
+public byte[] toBytes() {
+	ByteArrayOutputStream baos = new ByteArrayOutputStream(8 + size * 20);
+	DataOutputStream dos = new DataOutputStream(baos);
+	try {
+		dos.writeInt(capacity);
+		dos.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			dos.writeInt(items[i]);
+			dos.writeLong(counts[i]);
+			dos.writeLong(errors[i]);
+		}
+		dos.close();
+	} catch (IOException ex) {
+		// A ByteArrayOutputStream does not throw
+		throw new IllegalStateException(ex);
+	}
+	return baos.toByteArray();
+}
+
+/**
+ * Reads a sketch written by toBytes()
+ *
+ * @param bytes Bytes of the sketch
+ * @return the sketch
+ * @throws IOException If it is not a sketch
+ */
+public static SpaceSaving fromBytes(byte[] bytes) throws IOException {
+	DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+	int capacity = dis.readInt();
+	int size = dis.readInt();
+	if (capacity <= 0 || size < 0 || size > capacity) {
+		throw new IOException("Not a Space-Saving sketch: " + size + " of " + capacity + " counters");
+	}
+	SpaceSaving spaceSaving = new SpaceSaving(capacity);
+	for (int i = 0; i < size; i++) {
+		spaceSaving.items[i] = dis.readInt();
+		spaceSaving.counts[i] = dis.readLong();
+		spaceSaving.errors[i] = dis.readLong();
+	}
+	spaceSaving.size = size;
+	return spaceSaving;
+}
+
+/**
+ * Finds the counter of an item
+ *
+ * @param item Item
+ * @return its counter, or -1 if it is not counted
+ */
+private int indexOf(int item) {
+	for (int i = 0; i < size; i++) {
+		if (items[i] == item) {
+			return i;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Gets the smallest count
+ *
+ * @return the smallest count of the counters in use
+ */
+private long minimumCount() {
+	long minimum = Long.MAX_VALUE;
+	for (int i = 0; i < size; i++) {
+		minimum = Math.min(minimum, counts[i]);
+	}
+	return minimum;
+}
+
+/**
+ * An item and its count
+ */
+public static class Counter {
+
+/** Item */
+private final int item;
+
+/** Count. No less than the item's true weight. */
+private final long count;
+
+/** Most the count may be over the item's true weight */
+private final long error;
+
+/**
+ * Constructor.
+ *
+ * @param itemArg Item
+ * @param countArg Count
+ * @param errorArg Most the count may be over the item's true weight
+ */
+Counter(int itemArg, long countArg, long errorArg) {
+	this.item = itemArg;
+	this.count = countArg;
+	this.error = errorArg;
+}
+
+/**
+ * Gets item
+ *
+ * @return Item
+ */
+public int getItem() {
+	return item;
+}
+
+/**
+ * Gets count
+ *
+ * @return Count. No less than the item's true weight.
+ */
+public long getCount() {
+	return count;
+}
+
+/**
+ * Gets error
+ *
+ * @return Most the count may be over the item's true weight
+ */
+public long getError() {
+	return error;
+}
+}
+}
@@ -0,0 +1,311 @@
+package com.att.paas.lj.webextract.sketch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Estimates quantiles (e.g. the 95th percentile response size) of the values added, in a bounded amount of memory,
+ * with a merging t-digest (Dunning and Ertl). Values are buffered, and when the buffer is full they are sorted with the
+ * centroids and merged into as few centroids as the scale function allows: centroids near the ends hold few values and
+ * those in the middle many, so the extreme quantiles stay accurate. The number of centroids is about the compression
+ * at most. Digests are merged by adding the centroids of one to the other, so digests from different hosts and runs
+ * can be combined. An instance is not thread safe.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class TDigest {
+
+/** Default compression */
+public static final double DEFAULT_COMPRESSION = 100;
+
+/** Compression. More keeps more centroids and is more accurate. */
+private final double compression;
+
+/** Mean of each centroid, then of each buffered value */
+private final double[] means;
+
+/** Weight of each centroid, then of each buffered value */
+private final long[] weights;
+
+/** Number of centroids, which come first in the arrays, sorted by mean */
+private int centroids = 0;
+
+/** Number of centroids and buffered values */
+private int size = 0;
+
+/** Total weight */
+private long totalWeight = 0;
+
+/** Smallest value added */
+private double min = Double.POSITIVE_INFINITY;
+
+/** Largest value added */
+private double max = Double.NEGATIVE_INFINITY;
+
+/**
+ * Constructor, with the default compression
+ */
+public TDigest() {
+	this(DEFAULT_COMPRESSION);
+}
+
+/**
+ * Constructor.
+ *
+ * @param compressionArg Compression, at least 10
+ */
+public TDigest(double compressionArg) {
+	if (!(compressionArg >= 10)) {
+		throw new IllegalArgumentException("t-digest compression must be at least 10: " + compressionArg);
+	}
+	this.compression = compressionArg;
+
+	// Room for the centroids and a buffer of a few times as many values
+	int capacity = (int) Math.ceil(compressionArg) * 6 + 10;
+	this.means = new double[capacity];
+	this.weights = new long[capacity];
+}
+
+/**
+ * Adds a value
+ *
+ * @param value Value
+ */
+public void add(double value) {
+	add(value, 1);
+}
+
+/**
+ * Adds a value a number of times
+ *
+ * @param value Value
+ * @param weight Number of times, positive
+ */
+public void add(double value, long weight) {
+	if (size == means.length) {
+		compress();
+	}
+	means[size] = value;
+	weights[size] = weight;
+	size++;
+	totalWeight += weight;
+	min = Math.min(min, value);
+	max = Math.max(max, value);
+}
+
+/**
+ * Merges another digest into this one
+ *
+ * @param other other digest
+ */
+public void merge(TDigest other) {
+	other.compress();
+	for (int i = 0; i < other.centroids; i++) {
+		add(other.means[i], other.weights[i]);
+	}
+	min = Math.min(min, other.min);
+	max = Math.max(max, other.max);
+}
+
+/**
+ * Gets the total weight
+ *
+ * @return the number of values added
+ */
+public long getCount() {
+	return totalWeight;
+}
+
+/**
+ * Estimates a quantile, interpolating between the centroids around it
+ *
+ * @param q Quantile, 0 to 1 (e.g. 0.95 for the 95th percentile)
+ * @return the estimate, or NaN if no value was added
+ */
+public double quantile(double q) {
+	if (q < 0 || q > 1) {
+		throw new IllegalArgumentException("Quantile must be 0 to 1: " + q);
+	}
+	compress();
+	if (centroids == 0) {
+		return Double.NaN;
+	}
+	if (centroids == 1) {
+		return means[0];
+	}
+
+	// Each centroid's mean is taken to be at the middle of its weight
+	double index = q * totalWeight;
+	if (index < weights[0] / 2.0) {
+		return min + (means[0] - min) * index / (weights[0] / 2.0);
+	}
+	double weightSoFar = weights[0] / 2.0;
+	for (int i = 0; i < centroids - 1; i++) {
+		double gap = (weights[i] + weights[i + 1]) / 2.0;
+		if (weightSoFar + gap > index) {
+			return means[i] + (means[i + 1] - means[i]) * (index - weightSoFar) / gap;
+		}
+		weightSoFar += gap;
+	}
+	double lastHalf = weights[centroids - 1] / 2.0;
+	return means[centroids - 1] + (max - means[centroids - 1]) * Math.min(1, (index - weightSoFar) / lastHalf);
+}
+
+/**
+ * Writes the digest as bytes, to be stored
+ *
+ * @return the compression, min, max and number of centroids, then the mean and weight of each
+ */
+public byte[] toBytes() {
+	compress();
+	ByteArrayOutputStream baos = new ByteArrayOutputStream(28 + centroids * 16);
+	DataOutputStream dos = new DataOutputStream(baos);
+	try {
+		dos.writeDouble(compression);
+		dos.writeDouble(min);
+		dos.writeDouble(max);
+		dos.writeInt(centroids);
+		for (int i = 0; i < centroids; i++) {
+			dos.writeDouble(means[i]);
+			dos.writeLong(weights[i]);
+		}
+		dos.close();
+	} catch (IOException ex) {
+		// A ByteArrayOutputStream does not throw
+		throw new IllegalStateException(ex);
+	}
+	return baos.toByteArray();
+}
+
+/**
+ * Reads a digest written by toBytes()
+ *
+ * @param bytes Bytes of the digest
+ * @return the digest
+ * @throws IOException If it is not a digest
+ */
+public static TDigest fromBytes(byte[] bytes) throws IOException {
+	DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+	double compression = dis.readDouble();
+	double min = dis.readDouble();
+	double max = dis.readDouble();
+	int centroids = dis.readInt();
+	if (!(compression >= 10) || centroids < 0 || centroids > bytes.length / 16) {
+		throw new IOException("Not a t-digest: " + centroids + " centroids, compression " + compression);
+	}
+
+	TDigest tDigest = new TDigest(compression);
+	for (int i = 0; i < centroids; i++) {
+		tDigest.add(dis.readDouble(), dis.readLong());
+	}
+	tDigest.min = min;
+	tDigest.max = max;
+	return tDigest;
+}
+
+/**
+ * Sorts the buffered values in with the centroids, and merges neighbours as far as the scale function allows
+ */
+private void compress() {
+	if (size == centroids) {
+		return;
+	}
+	sort(means, weights, size);
+
+	int merged = 0;
+	long weightBefore = 0;
+	long limit = weightLimit(0);
+	for (int i = 1; i < size; i++) {
+		long weight = weights[merged] + weights[i];
+		if (weightBefore + weight <= limit) {
+			// Fold into the current centroid
+			means[merged] += (means[i] - means[merged]) * weights[i] / weight;
+			weights[merged] = weight;
+		} else {
+			weightBefore += weights[merged];
+			limit = weightLimit(weightBefore);
+			merged++;
+			means[merged] = means[i];
+			weights[merged] = weights[i];
+		}
+	}
+	centroids = merged + 1;
+	size = centroids;
+}
+
+/**
+ * Finds how far a centroid starting at a weight may reach: up to one more unit of the k1 scale function,
+ * k(q) = compression / (2 pi) * asin(2q - 1)
+ *
+ * @param weightBefore Weight of the centroids before
+ * @return the most the weight before plus the centroid's own weight may be
+ */
+private long weightLimit(long weightBefore) {
+	double q = (double) weightBefore / totalWeight;
+	double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+	if (k >= compression / 4) {
+		return totalWeight;
+	}
+	double qLimit = (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+	return Math.max(weightBefore + 1, (long) (qLimit * totalWeight));
+}
+
+/**
+ * Sorts values and their weights by value, with a heapsort, which needs no extra memory
+ *
+ * @param values Values
+ * @param valueWeights Weight of each value
+ * @param n Number of values to sort
+ */
+private static void sort(double[] values, long[] valueWeights, int n) {
+	for (int i = n / 2 - 1; i >= 0; i--) {
+		siftDown(values, valueWeights, i, n);
+	}
+	for (int end = n - 1; end > 0; end--) {
+		swap(values, valueWeights, 0, end);
+		siftDown(values, valueWeights, 0, end);
+	}
+}
+
+/**
+ * Moves a value down the heap until it is no smaller than its children
+ *
+ * @param values Values
+ * @param valueWeights Weight of each value
+ * @param i Position of the value
+ * @param n Size of the heap
+ */
+private static void siftDown(double[] values, long[] valueWeights, int i, int n) {
+	while (2 * i + 1 < n) {
+		int child = 2 * i + 1;
+		if (child + 1 < n && values[child + 1] > values[child]) {
+			child++;
+		}
+		if (values[i] >= values[child]) {
+			return;
+		}
+		swap(values, valueWeights, i, child);
+		i = child;
+	}
+}
+
+/**
+ * Swaps two values and their weights
+ *
+ * @param values Values
+ * @param valueWeights Weight of each value
+ * @param i Position of one
+ * @param j Position of the other
+ */
+private static void swap(double[] values, long[] valueWeights, int i, int j) {
+	double value = values[i];
+	values[i] = values[j];
+	values[j] = value;
+	long weight = valueWeights[i];
+	valueWeights[i] = valueWeights[j];
+	valueWeights[j] = weight;
+}
+}
@@ -0,0 +1,78 @@
+package com.att.paas.lj.webextract.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream that reads the bytes of a buffer (e.g. part of a memory mapped file), from its position to its limit,
+ * in bulk. Reading moves the buffer's position.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class ByteBufferInputStream extends InputStream {
+
+/** Buffer to read */
+private final ByteBuffer byteBuffer;
+
+/**
+ * Constructor.
+ *
+ * @param byteBufferArg Buffer to read
+ */
+public ByteBufferInputStream(ByteBuffer byteBufferArg) {
+	this.byteBuffer = byteBufferArg;
+}
+
+/**
+ * Reads a byte
+ *
+ * @return the byte, or -1 at the limit
+ */
+public int read() {
+	return byteBuffer.hasRemaining() ? byteBuffer.get() & 0xff : -1;
+}
+
+/**
+ * Reads bytes into an array
+ *
+ * @param b buffer
+ * @param off offset in buffer
+ * @param len maximum number of bytes to read
+ * @return number of bytes read, or -1 at the limit
+ */
+public int read(byte[] b, int off, int len) {
+	if (len == 0) {
+		return 0;
+	}
+	if (!byteBuffer.hasRemaining()) {
+		return -1;
+	}
+	int count = Math.min(len, byteBuffer.remaining());
+	byteBuffer.get(b, off, count);
+	return count;
+}
+
+/**
+ * Skips bytes
+ *
+ * @param n number of bytes to skip
+ * @return number of bytes skipped
+ */
+public long skip(long n) {
+	if (n <= 0) {
+		return 0;
+	}
+	int count = (int) Math.min(n, byteBuffer.remaining());
+	byteBuffer.position(byteBuffer.position() + count);
+	return count;
+}
+
+/**
+ * Gets the number of bytes left
+ *
+ * @return bytes between the position and the limit
+ */
+public int available() {
+	return byteBuffer.remaining();
+}
+}
@@ -0,0 +1,81 @@
+package com.att.paas.lj.webextract.util;
+
+/**
+ * Finds a fixed ASCII string in bytes with the Boyer-Moore-Horspool algorithm. The byte under the end of the string
+ * decides how far to move on, so bytes that are not in the string are passed over the whole length of the string at a
+ * time, and most of the bytes searched are never looked at. An instance can be shared by threads.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class ByteSearcher {
+
+/** Bytes to find */
+private final byte[] pattern;
+
+/** How far to move on, by the byte under the end of the pattern */
+private final int[] shifts = new int[256];
+
+/**
+ * Constructor.
+ *
+ * @param text ASCII text to find
+ */
+public ByteSearcher(String text) {
+	pattern = new byte[text.length()];
+	for (int i = 0; i < pattern.length; i++) {
+		pattern[i] = (byte) text.charAt(i);
+	}
+
+	for (int i = 0; i < shifts.length; i++) {
+		shifts[i] = pattern.length;
+	}
+	for (int i = 0; i < pattern.length - 1; i++) {
+		shifts[pattern[i] & 0xff] = pattern.length - 1 - i;
+	}
+}
+
+/**
+ * Finds the first occurrence in a range of bytes
+ *
+ * @param bytes Bytes to search
+ * @param from Position to start at
+ * @param end End of the range (exclusive)
+ * @return Position of the first occurrence, or -1 if there is none
+ */
+public int indexOf(byte[] bytes, int from, int end) {
+	int last = pattern.length - 1;
+	byte lastByte = pattern[last];
+	for (int position = from; position + last < end; position += shifts[bytes[position + last] & 0xff]) {
+		if (bytes[position + last] == lastByte && matchesAt(bytes, position, last)) {
+			return position;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Is the pattern, apart from its last byte, at a position?
+ *
+ * @param bytes Bytes to search
+ * @param position Position
+ * @param last Length of the pattern less 1
+ * @return true if it is
+ */
+private boolean matchesAt(byte[] bytes, int position, int last) {
+	for (int i = 0; i < last; i++) {
+		if (bytes[position + i] != pattern[i]) {
+			return false;
+		}
+	}
+	return true;
+}
+
+/**
+ * Gets the length of the pattern
+ *
+ * @return number of bytes to find
+ */
+public int length() {
+	return pattern.length;
+}
+}
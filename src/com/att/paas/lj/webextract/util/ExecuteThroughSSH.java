@@ -1,17 +1,30 @@
 package com.att.paas.lj.webextract.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.log4j.Logger;
 
+import ch.ethz.ssh2.ChannelCondition;
 import ch.ethz.ssh2.Connection;
+import ch.ethz.ssh2.SFTPv3Client;
 import ch.ethz.ssh2.Session;
 import ch.ethz.ssh2.StreamGobbler;
 
@@ -23,17 +36,66 @@ import ch.ethz.ssh2.StreamGobbler;
  */
 public class ExecuteThroughSSH {
 
-private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+/** Size of buffers used when copying remote files */
+private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+/** Suffix of gzip compressed files */
+private static final String GZIP_SUFFIX = ".gz";
+
+/** Time to wait for the exit status once standard out has ended, in milliseconds */
+private static final long EXIT_STATUS_WAIT = 30 * 1000;
 
 /** Log4j logger */
 private static Logger logger = Logger.getLogger(ExecuteThroughSSH.class);
 
+/** Closes the sessions of commands that run too long */
+private static final ScheduledExecutorService TIMEOUT_TIMER = Executors
+		.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ExecuteThroughSSH timeout");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+/** Time a command may run for before its session is closed, in milliseconds, for new instances. 0 is no limit. */
+private static volatile long defaultTimeout = 0;
+
 /** SSH connection */
 private Connection connection = null;
 
 /** SSH session */
 private Session session = null;
 
+/** Pool the connection comes from */
+private final SSHConnectionPool connectionPool;
+
+/** Time a command may run for before its session is closed, in milliseconds. 0 is no limit. */
+private long timeout = defaultTimeout;
+
+/** Closes the session if the command runs too long */
+private ScheduledFuture<?> timeoutTask = null;
+
+/** Was the session of the last command closed because it ran too long? */
+private volatile boolean timedOut = false;
+
+/**
+ * Constructor. Connections come from the shared pool.
+ */
+public ExecuteThroughSSH() {
+	this(SSHConnectionPool.getInstance());
+}
+
+/**
+ * Constructor.
+ *
+ * @param connectionPoolArg Pool the connection comes from
+ */
+public ExecuteThroughSSH(SSHConnectionPool connectionPoolArg) {
+	this.connectionPool = connectionPoolArg;
+}
+
 /**
  * Connect to a remote host via SSH and execute a command. Print standard out and standard error of the command
  * output to standard out and standard error of the local terminal. In addition to the required command line
@@ -84,65 +146,32 @@ public static void main(String[] args) {
 
 	ExecuteThroughSSH executeThroughSSH = new ExecuteThroughSSH();
 
-	Response response = null;
+	Integer exitStatus = null;
 	try {
-		response =
-				executeThroughSSH.executeCommand(strHostname, strUsername, strPassword, strPrivateKeyFile, strCommand);
 		if (bUsagePrint) {
 			throw new IllegalArgumentException();
 		}
+		exitStatus =
+				executeThroughSSH.executeCommand(strHostname, strUsername, strPassword, strPrivateKeyFile, strCommand,
+						System.out, System.err);
 	} catch (IOException ex) {
 		logger.error(ex.getMessage());
 		System.exit(-1);
 	} catch (IllegalArgumentException ex) {
-		if (ex.getMessage().length() > 0) {
+		if (ex.getMessage() != null && ex.getMessage().length() > 0) {
 			logger.error(ex.getMessage());
 		}
 		logger.fatal(strUsage);
 		System.exit(-1);
 	}
 
-	BufferedReader brStdout = new BufferedReader(new InputStreamReader(response.getStdOut()));
-
-	while (true) {
-		String line = null;
-		try {
-			line = brStdout.readLine();
-		} catch (IOException ex) {
-			logger.fatal("Error reading standard out from remote host: " + ex.getMessage());
-			System.exit(-1);
-		}
-
-		if (line == null) {
-			break;
-		}
-
-		System.out.println(line);
-	}
-
-	BufferedReader brStderr = new BufferedReader(new InputStreamReader(response.getStdErr()));
-
-	while (true) {
-		String line = null;
-		try {
-			line = brStderr.readLine();
-		} catch (IOException ex) {
-			logger.fatal("Error reading standard error from remote host: " + ex.getMessage());
-			System.exit(-1);
-		}
-
-		if (line == null) {
-			break;
-		}
-
-		System.err.println(line);
-	}
-
 	/* Show exit status, if available (otherwise "null") */
-	logger.info("ExitCode: " + response.getExitStatus());
+	logger.info("ExitCode: " + exitStatus);
 
 	executeThroughSSH.close();
 
+	SSHConnectionPool.closeInstance();
+
 }
 
 /**
@@ -162,9 +191,50 @@ public static void main(String[] args) {
  */
 public Response executeCommand(String hostname, String username, String password, String keyfile, String command)
 		throws IOException {
+	return executeCommand(hostname, username, password, keyfile, command, true);
+}
+
+/**
+ * Creates an SSH connection with a remote host and executes a command there, as executeCommand above. If bufferStdOut
+ * is false, standard out is the session's own stream rather than a StreamGobbler, which reads the whole output into
+ * memory in the background. Use it to process large output as it arrives. Standard error is always read in the
+ * background, so it cannot stall the session while standard out is being read.
+ *
+ * @param hostname Name or IP address of the remote host.
+ * @param username User name on the remote host.
+ * @param password Password for the user name on the remote host.
+ * @param keyfile Name of private key file. If there is none, specify null.
+ * @param command Command to be executed on the remote host.
+ * @param bufferStdOut Read standard out into memory in the background?
+ * @return Response object containing standard out and standard error input streams, along with the exit status code
+ *         from the SSH session.
+ * @throws IOException Each step of creating the session and executing the command can throw an exeception.
+ */
+public Response executeCommand(String hostname, String username, String password, String keyfile, String command,
+		boolean bufferStdOut) throws IOException {
+	return executeCommand(hostname, username, password, keyfile, command, bufferStdOut, true);
+}
+
+/**
+ * Creates an SSH connection with a remote host and executes a command there, as executeCommand above, optionally
+ * leaving standard error unread too, for a caller that reads both streams itself.
+ *
+ * @param hostname Name or IP address of the remote host.
+ * @param username User name on the remote host.
+ * @param password Password for the user name on the remote host.
+ * @param keyfile Name of private key file. If there is none, specify null.
+ * @param command Command to be executed on the remote host.
+ * @param bufferStdOut Read standard out into memory in the background?
+ * @param bufferStdErr Read standard error into memory in the background?
+ * @return Response object containing standard out and standard error input streams, along with the exit status code
+ *         from the SSH session.
+ * @throws IOException Each step of creating the session and executing the command can throw an exeception.
+ */
+private Response executeCommand(String hostname, String username, String password, String keyfile, String command,
+		boolean bufferStdOut, boolean bufferStdErr) throws IOException {
 
 	// Hostname.
-	String strHostname = hostname;
+	final String strHostname = hostname;
 
 	// Username.
 	String strUsername = username;
@@ -176,7 +246,7 @@ public Response executeCommand(String hostname, String username, String password
 	String strKeyFile = keyfile;
 
 	// Command.
-	String strCommand = command;
+	final String strCommand = command;
 
 	// Check that all args are not null.
 	if (strHostname == null) {
@@ -195,40 +265,26 @@ public Response executeCommand(String hostname, String username, String password
 		throw new IllegalArgumentException("Command not specified.");
 	}
 
-	/* Create a connection instance */
-	connection = new Connection(strHostname);
+	// Release the session and connection left from a previous command on this object, if any
+	close();
 
-	try {
-		/* Now connect */
-		connection.connect();
-	} catch (IOException ex) {
-		String strError = "Error connecting: " + ex.getMessage();
-		throw new IOException(strError);
-	}
+	// Get a connection from the pool, and open a session on it. If the pooled connection has gone bad, a session
+	// cannot be opened, so try once more with a new connection.
+	for (int attempt = 1; session == null; attempt++) {
+		connection = connectionPool.getConnection(strHostname, strUsername, strPassword, strKeyFile);
 
-	try {
-		// Authenticate. That is, log in. Use private key if specified. If not, just user/pw.
-		if (strKeyFile == null) {
-			if (!connection.authenticateWithPassword(strUsername, strPassword)) {
-				throw new IOException();
-			}
-		} else {
-			if (!connection.authenticateWithPublicKey(strUsername, new File(strKeyFile), strPassword)) {
-				throw new IOException();
+		try {
+			/* Create a session */
+			session = connection.openSession();
+		} catch (IOException ex) {
+			connectionPool.invalidateConnection(connection);
+			connectionPool.releaseConnection(connection);
+			connection = null;
+			if (attempt == 2) {
+				String strError = "Open session failed: " + ex.getMessage();
+				throw new IOException(strError);
 			}
 		}
-
-	} catch (IOException ex) {
-		String strError = "Authentication failed: " + ex.getMessage();
-		throw new IOException(strError);
-	}
-
-	try {
-		/* Create a session */
-		session = connection.openSession();
-	} catch (IOException ex) {
-		String strError = "Open session failed: " + ex.getMessage();
-		throw new IOException(strError);
 	}
 
 	try {
@@ -239,26 +295,166 @@ public Response executeCommand(String hostname, String username, String password
 		throw new IOException(strError);
 	}
 
+	// Close the session if the command runs too long. Reads of its output then end.
+	timedOut = false;
+	if (timeout > 0) {
+		final Session sessionToWatch = session;
+		timeoutTask = TIMEOUT_TIMER.schedule(new Runnable() {
+
+			public void run() {
+				timedOut = true;
+				logger.warn("Command '" + strCommand + "' on host '" + strHostname + "' timed out after " + timeout
+						+ " ms");
+				sessionToWatch.close();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
 	// Create the response object.
-	Response response =
-			new Response(new StreamGobbler(session.getStdout()), new StreamGobbler(session.getStderr()),
-					session.getExitStatus());
+	InputStream stdout = bufferStdOut ? new StreamGobbler(session.getStdout()) : session.getStdout();
+	InputStream stderr = bufferStdErr ? new StreamGobbler(session.getStderr()) : session.getStderr();
+	Response response = new Response(stdout, stderr, new ExitStatusFuture(session));
 
 	return response;
 }
 
 /**
- * Closes the SSH session and connection. After calling this method, the standard out and standard error input
- * streams will be unusable. ALWAYS INVOKE THIS METHOD TO RELEASE LOCAL RESOURCES AND PREVENT A MEMORY LEAK.
+ * Creates an SSH connection with a remote host, executes a command there and copies its standard out and standard
+ * error to local streams, until the command ends. Both are read at the same time, as data arrives on either, so a
+ * command with a lot of output on one cannot stall waiting for the other to be read. The session is closed
+ * afterwards.
+ *
+ * @param hostname Name or IP address of the remote host.
+ * @param username User name on the remote host.
+ * @param password Password for the user name on the remote host.
+ * @param keyfile Name of private key file. If there is none, specify null.
+ * @param command Command to be executed on the remote host.
+ * @param osStdOut Receives standard out. It is not closed.
+ * @param osStdErr Receives standard error. It is not closed.
+ * @return the exit status, or null if the remote host did not send one
+ * @throws IOException On error executing the command or copying its output, or if it timed out
+ */
+public Integer executeCommand(String hostname, String username, String password, String keyfile, String command,
+		OutputStream osStdOut, OutputStream osStdErr) throws IOException {
+
+	try {
+		Response response = executeCommand(hostname, username, password, keyfile, command, false, false);
+
+		InputStream isStdOut = response.getStdOut();
+		InputStream isStdErr = response.getStdErr();
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+		while (true) {
+			// Copy whatever has arrived, without blocking on either stream
+			boolean copied = false;
+			while (isStdOut.available() > 0) {
+				int count = isStdOut.read(buffer, 0, Math.min(buffer.length, isStdOut.available()));
+				osStdOut.write(buffer, 0, count);
+				copied = true;
+			}
+			while (isStdErr.available() > 0) {
+				int count = isStdErr.read(buffer, 0, Math.min(buffer.length, isStdErr.available()));
+				osStdErr.write(buffer, 0, count);
+				copied = true;
+			}
+			if (copied) {
+				continue;
+			}
+
+			// Wait for more output, or the end of both streams. The timeout task closes the session if needed.
+			int conditions =
+					session.waitForCondition(ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA
+							| ChannelCondition.EOF | ChannelCondition.CLOSED, 0);
+			if ((conditions & (ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA)) == 0
+					&& (conditions & (ChannelCondition.EOF | ChannelCondition.CLOSED)) != 0) {
+				break;
+			}
+		}
+
+		osStdOut.flush();
+		osStdErr.flush();
+
+		if (timedOut) {
+			throw new IOException("Command timed out after " + timeout + " ms");
+		}
+
+		try {
+			return response.getExitStatusFuture().get(EXIT_STATUS_WAIT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			return null;
+		} catch (ExecutionException ex) {
+			return null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the exit status");
+		}
+	} finally {
+		close();
+	}
+}
+
+/**
+ * Closes the SSH session and gives the connection back to the pool. After calling this method, the standard out and
+ * standard error input streams will be unusable. ALWAYS INVOKE THIS METHOD TO RELEASE LOCAL RESOURCES AND PREVENT A
+ * MEMORY LEAK.
  */
 public void close() {
 
+	/* The command has ended, or is not wanted any more */
+	if (timeoutTask != null) {
+		timeoutTask.cancel(false);
+		timeoutTask = null;
+	}
+
 	/* Close this session */
-	session.close();
+	if (session != null) {
+		session.close();
+		session = null;
+	}
+
+	/* Give the connection back */
+	if (connection != null) {
+		connectionPool.releaseConnection(connection);
+		connection = null;
+	}
+
+}
+
+/**
+ * Sets the time a command may run for, for new instances. The static methods of this class use it for every command.
+ *
+ * @param defaultTimeoutArg Time in milliseconds. 0 is no limit.
+ */
+public static void setDefaultTimeout(long defaultTimeoutArg) {
+	defaultTimeout = defaultTimeoutArg;
+}
+
+/**
+ * Sets the time the next commands on this instance may run for. Once it has passed, the session is closed, so reads
+ * of the command output end, and isTimedOut() returns true.
+ *
+ * @param timeoutArg Time in milliseconds. 0 is no limit.
+ */
+public void setTimeout(long timeoutArg) {
+	this.timeout = timeoutArg;
+}
 
-	/* Close the connection */
-	connection.close();
+/**
+ * Gets timeout
+ *
+ * @return Time a command may run for, in milliseconds. 0 is no limit.
+ */
+public long getTimeout() {
+	return timeout;
+}
 
+/**
+ * Was the session of the last command closed because the command ran too long? If so, its output is incomplete.
+ *
+ * @return true if the last command timed out
+ */
+public boolean isTimedOut() {
+	return timedOut;
 }
 
 /**
@@ -292,74 +488,470 @@ public static void getRemoteFile(String strHost, String strUser, String strPassw
 public static void getRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
 		String strRemoteFileName, File fileOutput, boolean append) throws ExecuteThroughSSHException {
 
-	String strFileContents = getRemoteFile(strHost, strUser, strPassword, strKeyFile, strRemoteFileName);
+	// Copy the remote file as it arrives, without holding it in memory
+	getRemoteFile(strHost, strUser, strPassword, strKeyFile, strRemoteFileName, new RemoteFileHandler() {
 
-	BufferedReader br = new BufferedReader(new StringReader(strFileContents));
+		public void handle(InputStream inputStream) throws IOException {
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			while (inputStream.read(buffer) != -1) {
+				// Reading through the tee is all that is needed
+			}
+		}
+	}, fileOutput, append);
+}
 
-	BufferedWriter bw;
-	try {
-		bw = new BufferedWriter(new FileWriter(fileOutput, append));
-	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Opening file '" + fileOutput + "' for writing after command 'cat "
-				+ strRemoteFileName + "' on host '" + strHost + "' as user '" + strUser + "': " + ex.getMessage(), ex,
-				"Opening output file", fileOutput.toString());
+/**
+ * Gets a remote file via an SSH connection, using the cat command on the remote host, and passes its stdout to a
+ * handler as it arrives. Memory use does not depend on the size of the file. Optionally, a copy of the file is
+ * written locally while the handler reads it.
+ *
+ * @param strHost Remote host file resides on
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strRemoteFileName Name of remote file to get.
+ * @param handler Reads the remote file contents
+ * @param fileTee File to be (over)written with a copy of the remote file contents. If none is wanted, specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error
+ */
+public static void getRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName, RemoteFileHandler handler, File fileTee, boolean append)
+		throws ExecuteThroughSSHException {
+	getRemoteFile(strHost, strUser, strPassword, strKeyFile, strRemoteFileName, 0, handler, fileTee, append);
+}
+
+/**
+ * Gets the part of a remote file after an offset via an SSH connection, and passes it to a handler as it arrives.
+ * Uses the tail command on the remote host, so only the bytes after the offset are sent.
+ *
+ * @param strHost Remote host file resides on
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strRemoteFileName Name of remote file to get.
+ * @param offset Number of bytes at the start of the file to leave out
+ * @param handler Reads the remote file contents
+ * @param fileTee File to be (over)written with a copy of the remote file contents. If none is wanted, specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error
+ */
+public static void getRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName, long offset, RemoteFileHandler handler, File fileTee, boolean append)
+		throws ExecuteThroughSSHException {
+
+	getRemoteFile(strHost, strUser, strPassword, strKeyFile, strRemoteFileName, offset, false, handler, fileTee,
+			append);
+}
+
+/**
+ * Gets the part of a remote file after an offset via an SSH connection, and passes it, uncompressed, to a handler as
+ * it arrives. A file ending in ".gz" is sent as it is and uncompressed locally; the offset is then counted in
+ * uncompressed bytes, and the bytes before it are skipped locally. Any other file can be compressed on the remote host
+ * with gzip before it is sent, which greatly reduces the bytes sent for access logs.
+ *
+ * @param strHost Remote host file resides on
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strRemoteFileName Name of remote file to get.
+ * @param offset Number of (uncompressed) bytes at the start of the file to leave out
+ * @param compressTransfer Compress a file that is not already compressed before sending it?
+ * @param handler Reads the remote file contents
+ * @param fileTee File to be (over)written with a copy of the remote file contents, uncompressed. If none is wanted,
+ *        specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error
+ */
+public static void getRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName, long offset, boolean compressTransfer, RemoteFileHandler handler, File fileTee,
+		boolean append) throws ExecuteThroughSSHException {
+
+	if (isCompressed(strRemoteFileName)) {
+		streamCommandOutput(strHost, strUser, strPassword, strKeyFile, "cat " + quoteArgument(strRemoteFileName),
+				true, offset, handler, fileTee, append);
+		return;
 	}
 
-	String strInput = null;
+	// tail counts from 1
+	String strQuotedFileName = quoteArgument(strRemoteFileName);
+	String strCommand = offset > 0 ? "tail -c +" + (offset + 1) + " " + strQuotedFileName : "cat " + strQuotedFileName;
+
+	if (compressTransfer) {
+		strCommand = offset > 0 ? strCommand + " | gzip -c" : "gzip -c " + strQuotedFileName;
+	}
+
+	streamCommandOutput(strHost, strUser, strPassword, strKeyFile, strCommand, compressTransfer, 0, handler,
+			fileTee, append);
+}
+
+/**
+ * Gets the part of a remote file after an offset through SFTP, and passes it, uncompressed, to a handler as it
+ * arrives. The bytes are sent as they are in the file, with no command run on the remote host, and the read starts at
+ * the offset, so nothing before it is sent. A file ending in ".gz" is uncompressed locally; the offset is then counted
+ * in uncompressed bytes, and the bytes before it are skipped locally. The remote host must have the SFTP subsystem
+ * enabled.
+ *
+ * @param strHost Remote host file resides on
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strRemoteFileName Name of remote file to get.
+ * @param offset Number of (uncompressed) bytes at the start of the file to leave out
+ * @param handler Reads the remote file contents
+ * @param fileTee File to be (over)written with a copy of the remote file contents, uncompressed. If none is wanted,
+ *        specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error
+ */
+public static void getRemoteFileSftp(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName, long offset, RemoteFileHandler handler, File fileTee, boolean append)
+		throws ExecuteThroughSSHException {
+	getRemoteFileSftp(strHost, strUser, strPassword, strKeyFile, strRemoteFileName, offset,
+			isCompressed(strRemoteFileName), handler, fileTee, append);
+}
+
+/**
+ * Gets the part of a remote file after an offset through SFTP, as above, uncompressing it locally only if asked.
+ *
+ * @param strHost Remote host file resides on
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strRemoteFileName Name of remote file to get.
+ * @param offset Number of (uncompressed, if gunzip) bytes at the start of the file to leave out
+ * @param gunzip Is the file gzip compressed, and to be uncompressed?
+ * @param handler Reads the remote file contents
+ * @param fileTee File to be (over)written with a copy of what the handler reads. If none is wanted, specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error
+ */
+private static void getRemoteFileSftp(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName, long offset, boolean gunzip, RemoteFileHandler handler, File fileTee,
+		boolean append) throws ExecuteThroughSSHException {
+
+	SSHConnectionPool connectionPool = SSHConnectionPool.getInstance();
+	Connection connection = null;
+	SFTPv3Client sftpClient = null;
+
 	try {
-		while ((strInput = br.readLine()) != null) {
+		// The SFTP client opens a session of its own. If the pooled connection has gone bad, a session cannot be
+		// opened, so try once more with a new connection.
+		for (int attempt = 1; sftpClient == null; attempt++) {
+			connection = connectionPool.getConnection(strHost, strUser, strPassword, strKeyFile);
 			try {
-				bw.write(strInput);
-				bw.write(LINE_SEPARATOR);
+				sftpClient = new SFTPv3Client(connection);
 			} catch (IOException ex) {
-				throw new ExecuteThroughSSHException("Writing file '" + fileOutput + "' after command 'cat "
-						+ strRemoteFileName + "' on host '" + strHost + "' as user '" + strUser + "': "
-						+ ex.getMessage(), ex, "Opening output file", fileOutput.toString());
+				connectionPool.invalidateConnection(connection);
+				connectionPool.releaseConnection(connection);
+				connection = null;
+				if (attempt == 2) {
+					throw ex;
+				}
 			}
 		}
 	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Unexpected error reading string output of results of command 'cat "
-				+ strRemoteFileName + "' on host '" + strHost + "' as user '" + strUser + "': " + ex.getMessage(), ex,
-				"Opening output file", fileOutput.toString());
+		throw new ExecuteThroughSSHException("Starting SFTP on host '" + strHost + "' as user '" + strUser + "': "
+				+ ex.getMessage(), ex, "Starting SFTP", strRemoteFileName);
 	}
 
 	try {
-		bw.close();
+		// A compressed file has to be read from the start
+		SFTPInputStream sftpInputStream = null;
+		try {
+			sftpInputStream = new SFTPInputStream(sftpClient, strRemoteFileName, gunzip ? 0 : offset);
+			passToHandler(sftpInputStream, gunzip, gunzip ? offset : 0, handler, fileTee, append);
+			sftpInputStream.close();
+			sftpInputStream = null;
+		} finally {
+			if (sftpInputStream != null) {
+				try {
+					sftpInputStream.close();
+				} catch (IOException ex) {
+					logger.warn("Closing remote file '" + strRemoteFileName + "' on host '" + strHost + "': "
+							+ ex.getMessage());
+				}
+			}
+		}
 	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Closing file '" + fileOutput + "' after command 'cat "
-				+ strRemoteFileName + "' on host '" + strHost + "' as user '" + strUser + "': " + ex.getMessage(), ex,
-				"Opening output file", fileOutput.toString());
+		throw new ExecuteThroughSSHException("Reading file '" + strRemoteFileName + "' through SFTP on host '"
+				+ strHost + "' as user '" + strUser + "': " + ex.getMessage(), ex, "Reading file", strRemoteFileName);
+	} finally {
+		sftpClient.close();
+		connectionPool.releaseConnection(connection);
 	}
 }
 
 /**
- * Gets a remote file via an SSH connection, using the cat command on the remote host, and capturing its stdout.
+ * Copies a whole remote file, byte for byte, to a stream through SFTP. No conversion of any kind is done on the
+ * contents; a compressed file is copied compressed.
  *
  * @param strHost Remote host file resides on
  * @param strUser User on remote host
  * @param strPassword Password for user on remote host
  * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
  * @param strRemoteFileName Name of remote file to get.
- * @return File contents as a string
- * @throws ExecuteThroughSSHException Problem with SSH session or remote cat command.
+ * @param outputStream Receives the remote file contents. It is not closed.
+ * @throws ExecuteThroughSSHException On error
  */
-public static String getRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
-		String strRemoteFileName) throws ExecuteThroughSSHException {
+public static void copyRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName, final OutputStream outputStream) throws ExecuteThroughSSHException {
+
+	getRemoteFileSftp(strHost, strUser, strPassword, strKeyFile, strRemoteFileName, 0, false, new RemoteFileHandler() {
+
+		public void handle(InputStream inputStream) throws IOException {
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			int count = 0;
+			while ((count = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, count);
+			}
+		}
+	}, null, false);
+}
+
+/**
+ * Makes a command that writes the part of a remote file after an offset, uncompressed, to standard out, so it can be
+ * piped into another command on the remote host.
+ *
+ * @param strRemoteFileName Name of remote file
+ * @param offset Number of (uncompressed) bytes at the start of the file to leave out
+ * @return the command
+ */
+public static String getReadCommand(String strRemoteFileName, long offset) {
+	String strQuotedFileName = quoteArgument(strRemoteFileName);
+	String strCommand = isCompressed(strRemoteFileName) ? "gzip -dc " + strQuotedFileName : null;
+
+	// tail counts from 1
+	if (offset > 0) {
+		return strCommand != null ? strCommand + " | tail -c +" + (offset + 1) : "tail -c +" + (offset + 1) + " "
+				+ strQuotedFileName;
+	}
+	return strCommand != null ? strCommand : "cat " + strQuotedFileName;
+}
+
+/**
+ * Quotes an argument for the shell on the remote host, so a file or directory name is passed as it is, whatever
+ * spaces, quotes or other characters the shell would act on are in it
+ *
+ * @param strArgument the argument
+ * @return the argument in single quotes, with each single quote in it closed, escaped and reopened
+ */
+public static String quoteArgument(String strArgument) {
+	return "'" + strArgument.replace("'", "'\\''") + "'";
+}
+
+/**
+ * Is a remote file compressed? Only gzip, the logrotate default, is recognized.
+ *
+ * @param strRemoteFileName Name of remote file
+ * @return true if the file name ends in ".gz"
+ */
+public static boolean isCompressed(String strRemoteFileName) {
+	return strRemoteFileName.endsWith(GZIP_SUFFIX);
+}
+
+/**
+ * Executes a command on a remote host and passes its standard out to a handler as it arrives. Optionally, a copy of
+ * standard out is written locally while the handler reads it.
+ *
+ * @param strHost Remote host
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strCommand Command to execute
+ * @param handler Reads standard out
+ * @param fileTee File to be (over)written with a copy of standard out. If none is wanted, specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error, including output on standard error
+ */
+public static void streamCommandOutput(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strCommand, RemoteFileHandler handler, File fileTee, boolean append) throws ExecuteThroughSSHException {
+	streamCommandOutput(strHost, strUser, strPassword, strKeyFile, strCommand, false, 0, handler, fileTee, append);
+}
+
+/**
+ * Executes a command on a remote host and passes its standard out to a handler as it arrives, as above, optionally
+ * uncompressing it first.
+ *
+ * @param strHost Remote host
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strCommand Command to execute
+ * @param gunzip Is standard out gzip compressed?
+ * @param skip Number of (uncompressed) bytes to skip before passing standard out to the handler
+ * @param handler Reads standard out
+ * @param fileTee File to be (over)written with a copy of standard out. If none is wanted, specify null.
+ * @param append Append to the tee file?
+ * @throws ExecuteThroughSSHException On error, including output on standard error
+ */
+private static void streamCommandOutput(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strCommand, boolean gunzip, long skip, RemoteFileHandler handler, File fileTee, boolean append)
+		throws ExecuteThroughSSHException {
 
 	ExecuteThroughSSH exec = new ExecuteThroughSSH();
 
 	ExecuteThroughSSH.Response response = null;
 
 	try {
-		response = exec.executeCommand(strHost, strUser, strPassword, null, "cat " + strRemoteFileName);
+		response = exec.executeCommand(strHost, strUser, strPassword, strKeyFile, strCommand, false);
 	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Executing command 'cat " + strRemoteFileName + "' on host '" + strHost
-				+ "' as user '" + strUser + "': " + ex.getMessage(), ex, "Executing command", "cat "
-				+ strRemoteFileName);
+		exec.close();
+		throw new ExecuteThroughSSHException("Executing command '" + strCommand + "' on host '" + strHost
+				+ "' as user '" + strUser + "': " + ex.getMessage(), ex, "Executing command", strCommand);
+	}
+
+	try {
+		try {
+			passToHandler(response.getStdOut(), gunzip, skip, handler, fileTee, append);
+		} catch (IOException ex) {
+			throw new ExecuteThroughSSHException("Reading standard out from command '" + strCommand
+					+ "' on host '" + strHost + ": " + ex.getMessage(), ex, "Reading standard out", strCommand);
+		}
+
+		// Standard out ends early if the session is closed because the command ran too long
+		if (exec.isTimedOut()) {
+			throw new ExecuteThroughSSHException("Command '" + strCommand + "' on host '" + strHost
+					+ "' timed out after " + exec.getTimeout() + " ms", null, "Executing command", strCommand);
+		}
+
+		// Standard error was read in the background, so it is complete once standard out is
+		String strStdErr = null;
+		try {
+			strStdErr = readStdErr(response);
+		} catch (IOException ex) {
+			throw new ExecuteThroughSSHException("Reading standard error from command '" + strCommand
+					+ "' on host '" + strHost + ": " + ex.getMessage(), ex, "Reading standard error", strCommand);
+		}
+
+		if (strStdErr.length() > 0) {
+			throw new ExecuteThroughSSHException("Error on results while executing command '" + strCommand
+					+ "' on host '" + strHost + ": " + strStdErr, null, "Results from command", strCommand);
+		}
+
+		// Standard out has ended, so the exit status should follow. Not every server sends one.
+		Integer exitStatus = null;
+		try {
+			exitStatus = response.getExitStatusFuture().get(EXIT_STATUS_WAIT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			logger.warn("No exit status from command '" + strCommand + "' on host '" + strHost + "': "
+					+ ex.getMessage());
+		} catch (ExecutionException ex) {
+			logger.warn("No exit status from command '" + strCommand + "' on host '" + strHost + "': "
+					+ ex.getMessage());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ExecuteThroughSSHException("Interrupted waiting for command '" + strCommand + "' on host '"
+					+ strHost + "' to end", ex, "Results from command", strCommand);
+		}
+
+		if (exitStatus != null && exitStatus.intValue() != 0) {
+			throw new ExecuteThroughSSHException("Command '" + strCommand + "' on host '" + strHost
+					+ "' ended with exit status " + exitStatus, null, "Results from command", strCommand);
+		}
+	} finally {
+		exec.close();
 	}
+}
+
+/**
+ * Passes a stream to a handler, optionally uncompressing it and skipping its start first, and optionally writing a
+ * copy of what the handler reads to a local file.
+ *
+ * @param inputStream Stream to pass on
+ * @param gunzip Is the stream gzip compressed?
+ * @param skip Number of (uncompressed) bytes to skip before passing the stream to the handler
+ * @param handler Reads the stream
+ * @param fileTee File to be (over)written with a copy of what the handler reads. If none is wanted, specify null.
+ * @param append Append to the tee file?
+ * @throws IOException On error reading, or opening or writing the tee file
+ */
+private static void passToHandler(InputStream inputStream, boolean gunzip, long skip, RemoteFileHandler handler,
+		File fileTee, boolean append) throws IOException {
+
+	OutputStream osTee = null;
+	try {
+		InputStream isToHandle = new BufferedInputStream(inputStream, COPY_BUFFER_SIZE);
+		if (gunzip) {
+			isToHandle = new BufferedInputStream(new GZIPInputStream(isToHandle, COPY_BUFFER_SIZE), COPY_BUFFER_SIZE);
+		}
+
+		// skip() may skip less than asked, so keep going until done or at the end
+		for (long skipped = 0; skipped < skip;) {
+			long count = isToHandle.skip(skip - skipped);
+			if (count <= 0) {
+				if (isToHandle.read() == -1) {
+					break;
+				}
+				count = 1;
+			}
+			skipped += count;
+		}
+
+		if (fileTee != null) {
+			try {
+				osTee = new BufferedOutputStream(new FileOutputStream(fileTee, append), COPY_BUFFER_SIZE);
+			} catch (IOException ex) {
+				throw new IOException("Opening file '" + fileTee + "' for writing: " + ex.getMessage());
+			}
+			isToHandle = new TeeInputStream(isToHandle, osTee);
+		}
+
+		handler.handle(isToHandle);
 
-	BufferedReader brStdOut = new BufferedReader(new InputStreamReader(response.getStdOut()));
+		if (osTee != null) {
+			osTee.close();
+			osTee = null;
+		}
+	} finally {
+		if (osTee != null) {
+			try {
+				osTee.close();
+			} catch (IOException ex) {
+				logger.warn("Closing file '" + fileTee + "': " + ex.getMessage());
+			}
+		}
+	}
+}
 
+/**
+ * Executes a command on a remote host and gets its standard out. Use for commands with short output.
+ *
+ * @param strHost Remote host
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strCommand Command to execute
+ * @return Standard out of the command
+ * @throws ExecuteThroughSSHException On error, including output on standard error
+ */
+public static String getCommandOutput(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strCommand) throws ExecuteThroughSSHException {
+
+	final StringBuffer sbStdOut = new StringBuffer();
+
+	streamCommandOutput(strHost, strUser, strPassword, strKeyFile, strCommand, new RemoteFileHandler() {
+
+		public void handle(InputStream inputStream) throws IOException {
+			BufferedReader brStdOut = new BufferedReader(new InputStreamReader(inputStream));
+			String strLineStdOut = null;
+			while ((strLineStdOut = brStdOut.readLine()) != null) {
+				sbStdOut.append(strLineStdOut).append('\n');
+			}
+		}
+	}, null, false);
+
+	return sbStdOut.toString();
+}
+
+/**
+ * Reads all of standard error from a response
+ *
+ * @param response Response from executeCommand
+ * @return Standard error, lines separated by newlines
+ * @throws IOException On error reading
+ */
+private static String readStdErr(Response response) throws IOException {
 	BufferedReader brStdErr = new BufferedReader(new InputStreamReader(response.getStdErr()));
 
 	StringBuffer sbStdErr = new StringBuffer();
@@ -371,49 +963,47 @@ public static String getRemoteFile(String strHost, String strUser, String strPas
 			}
 			sbStdErr.append(strLineStdErr);
 		}
-	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Reading standard error from command 'cat " + strRemoteFileName
-				+ "' on host '" + strHost + ": " + ex.getMessage(), ex, "Reading standard error", "cat "
-				+ strRemoteFileName);
+	} finally {
+		brStdErr.close();
 	}
 
-	StringBuffer sbRemoteFileContents = new StringBuffer();
-	String strLineStdOut = null;
-	try {
-		for (boolean bFirst = true; (strLineStdOut = brStdOut.readLine()) != null; bFirst = false) {
-			if (!bFirst) {
-				sbRemoteFileContents.append('\n');
-			}
-			sbRemoteFileContents.append(strLineStdOut).append('\n');
-		}
-	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Reading standard out from command 'cat " + strRemoteFileName
-				+ "' on host '" + strHost + ": " + ex.getMessage(), ex, "Reading standard error", "cat "
-				+ strRemoteFileName);
-	}
+	return sbStdErr.toString();
+}
 
-	try {
-		brStdOut.close();
-	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Closing standard out from command 'cat " + strRemoteFileName
-				+ "' on host '" + strHost + ": " + ex.getMessage(), ex, "Reading standard error", "cat "
-				+ strRemoteFileName);
-	}
+/**
+ * Gets a remote file via an SSH connection, using SFTP, and decodes it with the platform default charset. The contents
+ * are returned exactly as they are in the file. Use for small files only; the whole file is held in memory.
+ *
+ * @param strHost Remote host file resides on
+ * @param strUser User on remote host
+ * @param strPassword Password for user on remote host
+ * @param strKeyFile Name of key file for SSH connection. If there is none, specify null.
+ * @param strRemoteFileName Name of remote file to get.
+ * @return File contents as a string
+ * @throws ExecuteThroughSSHException Problem with SSH session or SFTP.
+ */
+public static String getRemoteFile(String strHost, String strUser, String strPassword, String strKeyFile,
+		String strRemoteFileName) throws ExecuteThroughSSHException {
 
-	try {
-		brStdErr.close();
-	} catch (IOException ex) {
-		throw new ExecuteThroughSSHException("Closing standard error from command 'cat " + strRemoteFileName
-				+ "' on host '" + strHost + ": " + ex.getMessage(), ex, "Reading standard error", "cat "
-				+ strRemoteFileName);
-	}
+	ByteArrayOutputStream baosRemoteFileContents = new ByteArrayOutputStream();
 
-	if (sbStdErr.length() > 0) {
-		throw new ExecuteThroughSSHException("Error on results while executing command 'cat " + strRemoteFileName
-				+ "' on host '" + strHost + ": " + sbStdErr, null, "Results from command", "cat " + strRemoteFileName);
-	}
+	copyRemoteFile(strHost, strUser, strPassword, strKeyFile, strRemoteFileName, baosRemoteFileContents);
 
-	return sbRemoteFileContents.toString();
+	return baosRemoteFileContents.toString();
+}
+
+/**
+ * Reads the contents of a remote file as it arrives.
+ */
+public interface RemoteFileHandler {
+
+/**
+ * Reads the remote file contents. The stream does not need to be closed.
+ *
+ * @param inputStream Remote file contents
+ * @throws IOException On error reading or processing the contents
+ */
+void handle(InputStream inputStream) throws IOException;
 }
 
 /**
@@ -427,17 +1017,17 @@ private InputStream stdout = null;
 /** Standard error stream. */
 private InputStream stderr = null;
 
-/** Exit status from last command executed. */
-private Integer exitStatus = null;
+/** Exit status of the command, once it has ended. */
+private Future<Integer> exitStatus = null;
 
 /**
  * Constructor.
  * 
  * @param stdout Standard out stream from the SSH session.
  * @param stderr Standard error stream from the SSH session.
- * @param exitStatus Exit status code from the SSH session.
+ * @param exitStatus Exit status code from the SSH session, once the command has ended.
  */
-public Response(InputStream stdout, InputStream stderr, Integer exitStatus) {
+public Response(InputStream stdout, InputStream stderr, Future<Integer> exitStatus) {
 	this.stdout = stdout;
 	this.stderr = stderr;
 	this.exitStatus = exitStatus;
@@ -458,10 +1048,100 @@ public InputStream getStdErr() {
 }
 
 /**
- * @return Returns the exit status.
+ * @return Returns the exit status, once the command has ended. Its value is null if the remote host did not send
+ *         one.
+ */
+public Future<Integer> getExitStatusFuture() {
+	return exitStatus;
+}
+
+/**
+ * Waits for the command to end, and gets its exit status.
+ * 
+ * @return Returns the exit status, or 0 if the remote host did not send one.
  */
 public int getExitStatus() {
-	return exitStatus == null ? 0 : exitStatus.intValue();
+	try {
+		Integer status = exitStatus.get();
+		return status == null ? 0 : status.intValue();
+	} catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		return 0;
+	} catch (ExecutionException ex) {
+		return 0;
+	}
+}
+}
+
+/**
+ * Exit status of a command, waited for on its session. It is done once the exit status has arrived or the session has
+ * closed.
+ */
+private static class ExitStatusFuture implements Future<Integer> {
+
+/** Session the command runs in */
+private final Session session;
+
+/**
+ * Constructor.
+ *
+ * @param sessionArg Session the command runs in
+ */
+ExitStatusFuture(Session sessionArg) {
+	this.session = sessionArg;
+}
+
+/**
+ * A remote command cannot be cancelled through its exit status; close the session instead.
+ *
+ * @param mayInterruptIfRunning ignored
+ * @return false
+ */
+public boolean cancel(boolean mayInterruptIfRunning) {
+	return false;
+}
+
+/**
+ * @return false
+ */
+public boolean isCancelled() {
+	return false;
+}
+
+/**
+ * @return true if the exit status has arrived or the session has closed
+ */
+public boolean isDone() {
+	int conditions = session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED, 1);
+	return (conditions & (ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED)) != 0;
+}
+
+/**
+ * Waits for the command to end
+ *
+ * @return the exit status, or null if the remote host did not send one
+ */
+public Integer get() {
+	session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED, 0);
+	return session.getExitStatus();
+}
+
+/**
+ * Waits for the command to end, for at most a given time
+ *
+ * @param timeout time to wait
+ * @param unit unit of timeout
+ * @return the exit status, or null if the remote host did not send one
+ * @throws TimeoutException If the command has not ended in time
+ */
+public Integer get(long timeout, TimeUnit unit) throws TimeoutException {
+	// A wait of 0 is no limit
+	long timeoutMillis = Math.max(unit.toMillis(timeout), 1);
+	int conditions = session.waitForCondition(ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED, timeoutMillis);
+	if ((conditions & (ChannelCondition.EXIT_STATUS | ChannelCondition.CLOSED)) == 0) {
+		throw new TimeoutException("No exit status after " + timeoutMillis + " ms");
+	}
+	return session.getExitStatus();
 }
 }
 
@@ -0,0 +1,331 @@
+package com.att.paas.lj.webextract.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.ConnectionProviderFactory;
+import org.hibernate.util.PropertiesHelper;
+import org.hibernate.util.ReflectHelper;
+
+/**
+ * Hibernate connection provider keeping JDBC connections open so they can be reused, in place of Hibernate's
+ * DriverManager provider, which is not meant for production. Up to max_size connections are handed out at the same
+ * time, each to one caller, so that many threads can work with the db at once without waiting on each other. Idle
+ * connections are handed out most recently used first, and are validated before they are reused when they have been
+ * idle a while, so ones the server has dropped are replaced. Each connection keeps its prepared statements in the
+ * driver's statement cache, which pays off because the connection stays open. Configured with these properties:
+ * <ul>
+ * <li>hibernate.pool.min_size: connections opened up front (default 1)</li>
+ * <li>hibernate.pool.max_size: connections open at the same time (default 10)</li>
+ * <li>hibernate.pool.checkout_timeout: how long to wait for a connection when all are in use, in milliseconds
+ * (default 30000)</li>
+ * <li>hibernate.pool.validation_query: query run to validate a connection. If not set, Connection.isValid is used.</li>
+ * <li>hibernate.pool.validation_interval: how long a connection may be idle before it is validated, in milliseconds.
+ * 0 validates it every time. (default 5000)</li>
+ * <li>hibernate.pool.statement_cache_size: prepared statements cached per connection. 0 caches none. (default 100)</li>
+ * </ul>
+ * The url, driver, user, password, isolation, autocommit and other hibernate.connection properties are the same as
+ * for the DriverManager provider.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class PooledConnectionProvider implements ConnectionProvider {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(PooledConnectionProvider.class);
+
+/** Property with the number of connections opened up front */
+public static final String MIN_SIZE = "hibernate.pool.min_size";
+
+/** Property with the number of connections open at the same time */
+public static final String MAX_SIZE = "hibernate.pool.max_size";
+
+/** Property with how long to wait for a connection when all are in use, in milliseconds */
+public static final String CHECKOUT_TIMEOUT = "hibernate.pool.checkout_timeout";
+
+/** Property with the query run to validate a connection */
+public static final String VALIDATION_QUERY = "hibernate.pool.validation_query";
+
+/** Property with how long a connection may be idle before it is validated, in milliseconds */
+public static final String VALIDATION_INTERVAL = "hibernate.pool.validation_interval";
+
+/** Property with the number of prepared statements cached per connection */
+public static final String STATEMENT_CACHE_SIZE = "hibernate.pool.statement_cache_size";
+
+/** Default number of connections open at the same time */
+public static final int DEFAULT_MAX_SIZE = 10;
+
+/** Time a connection may take to answer when it is validated with Connection.isValid, in seconds */
+private static final int VALIDATION_TIMEOUT = 5;
+
+/** Url to connect to */
+private String url;
+
+/** Properties given to the driver when connecting, including the user and password */
+private Properties connectionProperties;
+
+/** Isolation level of each connection, or null to leave the driver's */
+private Integer isolation;
+
+/** Autocommit setting of each connection */
+private boolean autocommit;
+
+/** How long to wait for a connection when all are in use, in milliseconds */
+private long checkoutTimeout;
+
+/** Query run to validate a connection, or null to use Connection.isValid */
+private String validationQuery;
+
+/** How long a connection may be idle before it is validated, in milliseconds */
+private long validationInterval;
+
+/** One permit for each connection that may be handed out */
+private Semaphore permits;
+
+/** Idle connections, the most recently used first */
+private final LinkedBlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<IdleConnection>();
+
+/** Set when the pool has been closed. Connections given back after that are closed. */
+private volatile boolean closed = false;
+
+/**
+ * Reads the configuration, and opens the first connections
+ *
+ * @param props Hibernate properties
+ * @throws HibernateException If the driver can't be loaded or a setting is not valid
+ */
+public void configure(Properties props) throws HibernateException {
+	String driverClass = props.getProperty(Environment.DRIVER);
+	if (driverClass != null) {
+		try {
+			ReflectHelper.classForName(driverClass);
+		} catch (ClassNotFoundException ex) {
+			throw new HibernateException("JDBC driver class not found: " + driverClass, ex);
+		}
+	}
+
+	url = props.getProperty(Environment.URL);
+	if (url == null) {
+		throw new HibernateException("No JDBC url given with " + Environment.URL);
+	}
+	connectionProperties = ConnectionProviderFactory.getConnectionProperties(props);
+	isolation = PropertiesHelper.getInteger(Environment.ISOLATION, props);
+	autocommit = PropertiesHelper.getBoolean(Environment.AUTOCOMMIT, props);
+
+	int minSize = PropertiesHelper.getInt(MIN_SIZE, props, 1);
+	int maxSize = PropertiesHelper.getInt(MAX_SIZE, props, DEFAULT_MAX_SIZE);
+	checkoutTimeout = PropertiesHelper.getInt(CHECKOUT_TIMEOUT, props, 30000);
+	validationQuery = props.getProperty(VALIDATION_QUERY);
+	validationInterval = PropertiesHelper.getInt(VALIDATION_INTERVAL, props, 5000);
+	int statementCacheSize = PropertiesHelper.getInt(STATEMENT_CACHE_SIZE, props, 100);
+	if (maxSize <= 0 || minSize < 0 || minSize > maxSize || checkoutTimeout < 0 || validationInterval < 0
+			|| statementCacheSize < 0) {
+		throw new HibernateException("Connection pool settings not valid: min " + minSize + ", max " + maxSize
+				+ ", checkout timeout " + checkoutTimeout + ", validation interval " + validationInterval
+				+ ", statement cache size " + statementCacheSize);
+	}
+
+	// The driver caches the statements prepared on each connection, unless it has been set up some other way
+	if (statementCacheSize > 0 && !connectionProperties.containsKey("cachePrepStmts")) {
+		connectionProperties.setProperty("cachePrepStmts", "true");
+		connectionProperties.setProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+		connectionProperties.setProperty("prepStmtCacheSqlLimit", "2048");
+	}
+
+	permits = new Semaphore(maxSize, true);
+
+	// Failing here is not fatal: Hibernate carries on without a connection, and they are opened when needed
+	try {
+		for (int i = 0; i < minSize; i++) {
+			idleConnections.addLast(new IdleConnection(connect()));
+		}
+	} catch (SQLException ex) {
+		logger.warn("Opening the first connections to " + url + ": " + ex.getMessage());
+	}
+
+	logger.info("Connection pool for " + url + ": min " + minSize + ", max " + maxSize + ", statement cache "
+			+ statementCacheSize);
+}
+
+/**
+ * Gets a connection, reusing an idle one if there is one, waiting for one to be given back if all are in use
+ *
+ * @return the connection
+ * @throws SQLException If no connection is given back within the checkout timeout, or on error connecting
+ */
+public Connection getConnection() throws SQLException {
+	if (closed) {
+		throw new SQLException("Connection pool for " + url + " is closed");
+	}
+
+	try {
+		if (!permits.tryAcquire(checkoutTimeout, TimeUnit.MILLISECONDS)) {
+			throw new SQLException("No connection to " + url + " free after " + checkoutTimeout + " ms");
+		}
+	} catch (InterruptedException ex) {
+		Thread.currentThread().interrupt();
+		throw new SQLException("Interrupted waiting for a connection to " + url);
+	}
+
+	try {
+		IdleConnection idle;
+		while ((idle = idleConnections.pollFirst()) != null) {
+			if (System.currentTimeMillis() - idle.lastReleased < validationInterval || isValid(idle.connection)) {
+				return idle.connection;
+			}
+			closeQuietly(idle.connection);
+		}
+
+		// Connect outside any lock, so other threads are not held up by a slow connect
+		return connect();
+	} catch (SQLException ex) {
+		permits.release();
+		throw ex;
+	} catch (RuntimeException ex) {
+		permits.release();
+		throw ex;
+	}
+}
+
+/**
+ * Gives back a connection that was got with getConnection
+ *
+ * @param connection the connection
+ * @throws SQLException On error closing it, once the pool is closed
+ */
+public void closeConnection(Connection connection) throws SQLException {
+	try {
+		if (connection.isClosed()) {
+			return;
+		}
+		if (closed) {
+			connection.close();
+			return;
+		}
+
+		// Hand it out again as it was first handed out
+		try {
+			if (connection.getAutoCommit() != autocommit) {
+				connection.setAutoCommit(autocommit);
+			}
+			idleConnections.addFirst(new IdleConnection(connection));
+		} catch (SQLException ex) {
+			logger.debug("Dropping pooled connection: " + ex.getMessage());
+			closeQuietly(connection);
+		}
+	} finally {
+		permits.release();
+	}
+}
+
+/**
+ * Closes the idle connections. Connections still handed out are closed when they are given back.
+ */
+public void close() {
+	closed = true;
+	IdleConnection idle;
+	while ((idle = idleConnections.pollFirst()) != null) {
+		closeQuietly(idle.connection);
+	}
+}
+
+/**
+ * Connections are cheap to give back and get again, so Hibernate may give them back after each statement
+ *
+ * @return true
+ */
+public boolean supportsAggressiveRelease() {
+	return true;
+}
+
+/**
+ * Opens a new connection, set up with the isolation and autocommit configured
+ *
+ * @return the connection
+ * @throws SQLException On error connecting
+ */
+private Connection connect() throws SQLException {
+	Connection connection = DriverManager.getConnection(url, connectionProperties);
+	try {
+		if (isolation != null) {
+			connection.setTransactionIsolation(isolation.intValue());
+		}
+		if (connection.getAutoCommit() != autocommit) {
+			connection.setAutoCommit(autocommit);
+		}
+	} catch (SQLException ex) {
+		closeQuietly(connection);
+		throw ex;
+	}
+	logger.debug("Connected to " + url);
+	return connection;
+}
+
+/**
+ * Checks an idle connection before it is reused, for example because the server closed it while it was idle
+ *
+ * @param connection the connection
+ * @return true if the connection can be used
+ */
+private boolean isValid(Connection connection) {
+	try {
+		if (validationQuery == null) {
+			return connection.isValid(VALIDATION_TIMEOUT);
+		}
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(validationQuery);
+		} finally {
+			statement.close();
+		}
+		return true;
+	} catch (SQLException ex) {
+		logger.debug("Dropping pooled connection: " + ex.getMessage());
+		return false;
+	}
+}
+
+/**
+ * Closes a connection, only logging an error
+ *
+ * @param connection the connection
+ */
+private static void closeQuietly(Connection connection) {
+	try {
+		connection.close();
+	} catch (SQLException ex) {
+		logger.debug("Closing pooled connection: " + ex.getMessage());
+	}
+}
+
+/**
+ * An idle connection, with when it was given back.
+ */
+private static class IdleConnection {
+
+/** The connection */
+private final Connection connection;
+
+/** When the connection was given back */
+private final long lastReleased = System.currentTimeMillis();
+
+/**
+ * Constructor.
+ *
+ * @param connectionArg the connection
+ */
+IdleConnection(Connection connectionArg) {
+	this.connection = connectionArg;
+}
+}
+}
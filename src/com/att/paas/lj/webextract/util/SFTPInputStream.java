@@ -0,0 +1,123 @@
+package com.att.paas.lj.webextract.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import ch.ethz.ssh2.SFTPv3Client;
+import ch.ethz.ssh2.SFTPv3FileHandle;
+
+/**
+ * Input stream that reads a remote file through SFTP, from any offset. The bytes are read as they are, in the largest
+ * requests the SFTP client allows. Skipping only moves the read position, so nothing before an offset is sent. Closing
+ * this stream closes the remote file; the SFTP client is left for the caller to close.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class SFTPInputStream extends InputStream {
+
+/** Largest read SFTPv3Client allows in one request */
+public static final int MAX_READ_SIZE = 32768;
+
+/** SFTP client the file is open on */
+private final SFTPv3Client sftpClient;
+
+/** Remote file */
+private SFTPv3FileHandle fileHandle;
+
+/** Position in the remote file of the next byte to read */
+private long position;
+
+/** Has the end of the file been read? */
+private boolean eof = false;
+
+/**
+ * Constructor. Opens the remote file for reading.
+ *
+ * @param sftpClientArg SFTP client to read through
+ * @param strRemoteFileName Name of remote file
+ * @param offset Position in the remote file to start reading at
+ * @throws IOException If the file cannot be opened
+ */
+public SFTPInputStream(SFTPv3Client sftpClientArg, String strRemoteFileName, long offset) throws IOException {
+	this.sftpClient = sftpClientArg;
+	this.fileHandle = sftpClient.openFileRO(strRemoteFileName);
+	this.position = offset;
+}
+
+/**
+ * Reads a byte
+ *
+ * @return the byte, or -1 at end of file
+ * @throws IOException On error reading
+ */
+public int read() throws IOException {
+	byte[] b = new byte[1];
+	return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+}
+
+/**
+ * Reads bytes into an array, in one request of at most MAX_READ_SIZE bytes
+ *
+ * @param b buffer
+ * @param off offset in buffer
+ * @param len maximum number of bytes to read
+ * @return number of bytes read, or -1 at end of file
+ * @throws IOException On error reading
+ */
+public int read(byte[] b, int off, int len) throws IOException {
+	if (fileHandle == null) {
+		throw new IOException("Stream closed");
+	}
+	if (len == 0) {
+		return 0;
+	}
+	if (eof) {
+		return -1;
+	}
+
+	int count = sftpClient.read(fileHandle, position, b, off, Math.min(len, MAX_READ_SIZE));
+	if (count <= 0) {
+		eof = true;
+		return -1;
+	}
+	position += count;
+	return count;
+}
+
+/**
+ * Moves the read position on, without reading. The position may end up past the end of the file, in which case the
+ * next read returns -1.
+ *
+ * @param n number of bytes to skip
+ * @return n, or 0 if n is negative
+ */
+public long skip(long n) {
+	if (n <= 0) {
+		return 0;
+	}
+	position += n;
+	return n;
+}
+
+/**
+ * Gets the position in the remote file of the next byte to read
+ *
+ * @return position
+ */
+public long getPosition() {
+	return position;
+}
+
+/**
+ * Closes the remote file
+ *
+ * @throws IOException On error closing
+ */
+public void close() throws IOException {
+	if (fileHandle != null) {
+		SFTPv3FileHandle fileHandleToClose = fileHandle;
+		fileHandle = null;
+		sftpClient.closeFile(fileHandleToClose);
+	}
+}
+}
@@ -0,0 +1,326 @@
+package com.att.paas.lj.webextract.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import ch.ethz.ssh2.Connection;
+
+/**
+ * Keeps authenticated SSH connections open so they can be reused, keyed by host and user. Several sessions can be
+ * open on one connection at the same time, so a host is connected to and authenticated with once, rather than once
+ * per command. Connections that have been idle too long are closed in the background, and idle connections are
+ * checked before they are reused, so ones that have gone bad are dropped and replaced.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class SSHConnectionPool {
+
+/** Log4j logger */
+private static final Logger logger = Logger.getLogger(SSHConnectionPool.class);
+
+/** Default time a connection may be idle before it is closed, in milliseconds */
+public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+/** Default number of sessions open at the same time on one connection */
+public static final int DEFAULT_MAX_SESSIONS_PER_CONNECTION = 8;
+
+/** The shared instance */
+private static SSHConnectionPool instance = null;
+
+/** Time a connection may be idle before it is closed, in milliseconds */
+private final long idleTimeout;
+
+/** Number of sessions open at the same time on one connection */
+private final int maxSessionsPerConnection;
+
+/** Connections, by host and user */
+private final Map<String, List<PooledConnection>> mapConnections = new HashMap<String, List<PooledConnection>>();
+
+/** Connections that are leased, to find their pool entry when they are released */
+private final Map<Connection, PooledConnection> mapLeased = new IdentityHashMap<Connection, PooledConnection>();
+
+/** Closes idle connections */
+private final ScheduledExecutorService evictor;
+
+/**
+ * Constructor.
+ *
+ * @param idleTimeoutArg Time a connection may be idle before it is closed, in milliseconds
+ * @param maxSessionsPerConnectionArg Number of sessions open at the same time on one connection
+ */
+public SSHConnectionPool(long idleTimeoutArg, int maxSessionsPerConnectionArg) {
+	this.idleTimeout = idleTimeoutArg;
+	this.maxSessionsPerConnection = maxSessionsPerConnectionArg;
+
+	evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SSHConnectionPool evictor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	long evictionPeriod = Math.max(idleTimeout / 2, 1000);
+	evictor.scheduleWithFixedDelay(new Runnable() {
+
+		public void run() {
+			evictIdle();
+		}
+	}, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+}
+
+/**
+ * Gets the shared instance, creating it with the default settings if needed
+ *
+ * @return the shared instance
+ */
+public static synchronized SSHConnectionPool getInstance() {
+	if (instance == null) {
+		instance = new SSHConnectionPool(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_SESSIONS_PER_CONNECTION);
+	}
+	return instance;
+}
+
+/**
+ * Closes the shared instance, if there is one
+ */
+public static synchronized void closeInstance() {
+	if (instance != null) {
+		instance.close();
+	}
+	instance = null;
+}
+
+/**
+ * Gets an authenticated connection to a host. The connection must be given back with releaseConnection when the
+ * sessions opened on it are closed.
+ *
+ * @param hostname Name or IP address of the remote host.
+ * @param username User name on the remote host.
+ * @param password Password for the user name on the remote host.
+ * @param keyfile Name of private key file. If there is none, specify null.
+ * @return Authenticated connection
+ * @throws IOException On error connecting or authenticating
+ */
+public Connection getConnection(String hostname, String username, String password, String keyfile)
+		throws IOException {
+
+	String key = username + "@" + hostname + (keyfile == null ? "" : "#" + keyfile);
+
+	synchronized (this) {
+		List<PooledConnection> listPooled = mapConnections.get(key);
+		if (listPooled != null) {
+			for (Iterator<PooledConnection> iterator = listPooled.iterator(); iterator.hasNext();) {
+				PooledConnection pooled = iterator.next();
+
+				// Drop connections that have gone bad
+				if (pooled.lost || (pooled.leases == 0 && !isHealthy(pooled.connection))) {
+					iterator.remove();
+					if (pooled.leases == 0) {
+						pooled.connection.close();
+					}
+					continue;
+				}
+
+				if (pooled.leases < maxSessionsPerConnection) {
+					pooled.leases++;
+					mapLeased.put(pooled.connection, pooled);
+					return pooled.connection;
+				}
+			}
+		}
+	}
+
+	// Connect outside the lock, so other hosts are not held up by a slow one
+	PooledConnection pooled = new PooledConnection(connect(hostname, username, password, keyfile));
+
+	synchronized (this) {
+		List<PooledConnection> listPooled = mapConnections.get(key);
+		if (listPooled == null) {
+			listPooled = new ArrayList<PooledConnection>();
+			mapConnections.put(key, listPooled);
+		}
+		listPooled.add(pooled);
+		pooled.leases++;
+		mapLeased.put(pooled.connection, pooled);
+	}
+
+	return pooled.connection;
+}
+
+/**
+ * Gives back a connection that was got with getConnection
+ *
+ * @param connection the connection
+ */
+public synchronized void releaseConnection(Connection connection) {
+	PooledConnection pooled = mapLeased.get(connection);
+	if (pooled == null) {
+		// Not leased from this pool: made elsewhere, released more times than it was leased, or leased before the
+		// pool was closed. An invalidated connection is still leased until its last lease is released.
+		connection.close();
+		return;
+	}
+
+	pooled.leases--;
+	if (pooled.leases == 0) {
+		mapLeased.remove(connection);
+		pooled.lastReleased = System.currentTimeMillis();
+		if (pooled.lost) {
+			connection.close();
+		}
+	}
+}
+
+/**
+ * Marks a connection as unusable, for example because a session could not be opened on it. It is not handed out
+ * again, and is closed when its last lease is released.
+ *
+ * @param connection the connection
+ */
+public synchronized void invalidateConnection(Connection connection) {
+	PooledConnection pooled = mapLeased.get(connection);
+	if (pooled != null) {
+		pooled.lost = true;
+	}
+}
+
+/**
+ * Closes connections that have no leases and have been idle longer than the idle timeout
+ */
+synchronized void evictIdle() {
+	long now = System.currentTimeMillis();
+	for (Iterator<List<PooledConnection>> iteratorLists = mapConnections.values().iterator(); iteratorLists
+			.hasNext();) {
+		List<PooledConnection> listPooled = iteratorLists.next();
+		for (Iterator<PooledConnection> iterator = listPooled.iterator(); iterator.hasNext();) {
+			PooledConnection pooled = iterator.next();
+			if (pooled.leases == 0 && (pooled.lost || now - pooled.lastReleased > idleTimeout)) {
+				iterator.remove();
+				pooled.connection.close();
+			}
+		}
+		if (listPooled.isEmpty()) {
+			iteratorLists.remove();
+		}
+	}
+}
+
+/**
+ * Closes all connections and stops the evictor. Connections still leased are closed too.
+ */
+public synchronized void close() {
+	evictor.shutdownNow();
+	for (List<PooledConnection> listPooled : mapConnections.values()) {
+		for (PooledConnection pooled : listPooled) {
+			pooled.connection.close();
+		}
+	}
+	mapConnections.clear();
+	mapLeased.clear();
+}
+
+/**
+ * Checks an idle connection before it is reused. The transport throws if it has been closed or has failed, for
+ * example because the host dropped the TCP connection while it was idle. A connection that passes this check can
+ * still fail when a session is opened; ExecuteThroughSSH then invalidates it and tries a new one.
+ *
+ * @param connection the connection
+ * @return true if the connection can be used
+ */
+private static boolean isHealthy(Connection connection) {
+	try {
+		connection.getConnectionInfo();
+		return connection.isAuthenticationComplete();
+	} catch (IOException ex) {
+		logger.debug("Dropping pooled connection: " + ex.getMessage());
+		return false;
+	}
+}
+
+/**
+ * Connects to a host and authenticates
+ *
+ * @param hostname Name or IP address of the remote host.
+ * @param username User name on the remote host.
+ * @param password Password for the user name on the remote host.
+ * @param keyfile Name of private key file. If there is none, specify null.
+ * @return Authenticated connection
+ * @throws IOException On error connecting or authenticating
+ */
+private static Connection connect(String hostname, String username, String password, String keyfile)
+		throws IOException {
+
+	/* Create a connection instance */
+	Connection connection = new Connection(hostname);
+
+	try {
+		/* Now connect */
+		connection.connect();
+	} catch (IOException ex) {
+		String strError = "Error connecting: " + ex.getMessage();
+		throw new IOException(strError);
+	}
+
+	try {
+		// Authenticate. That is, log in. Use private key if specified. If not, just user/pw.
+		if (keyfile == null) {
+			if (!connection.authenticateWithPassword(username, password)) {
+				throw new IOException();
+			}
+		} else {
+			if (!connection.authenticateWithPublicKey(username, new File(keyfile), password)) {
+				throw new IOException();
+			}
+		}
+
+	} catch (IOException ex) {
+		connection.close();
+		String strError = "Authentication failed: " + ex.getMessage();
+		throw new IOException(strError);
+	}
+
+	logger.debug("Connected to " + username + "@" + hostname);
+
+	return connection;
+}
+
+/**
+ * A connection in the pool, with its usage.
+ */
+private static class PooledConnection {
+
+/** The connection */
+private final Connection connection;
+
+/** Number of sessions using the connection */
+private int leases = 0;
+
+/** When the last lease was released */
+private long lastReleased = System.currentTimeMillis();
+
+/** Set when the connection has been found to be unusable */
+private boolean lost = false;
+
+/**
+ * Constructor.
+ *
+ * @param connectionArg the connection
+ */
+PooledConnection(Connection connectionArg) {
+	this.connection = connectionArg;
+}
+}
+}
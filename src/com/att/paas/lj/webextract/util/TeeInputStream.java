@@ -0,0 +1,89 @@
+package com.att.paas.lj.webextract.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream that writes a copy of everything read from it to an output stream. Closing this stream closes the input
+ * stream only; the output stream is left for the caller to close.
+ *
+ * @author Amarpreet geadhoke
+ */
+public class TeeInputStream extends FilterInputStream {
+
+/** Receives a copy of everything read */
+private final OutputStream outputStream;
+
+/**
+ * Constructor.
+ *
+ * @param inputStream Stream to read from
+ * @param outputStreamArg Receives a copy of everything read
+ */
+public TeeInputStream(InputStream inputStream, OutputStream outputStreamArg) {
+	super(inputStream);
+	this.outputStream = outputStreamArg;
+}
+
+/**
+ * Reads a byte and copies it
+ *
+ * @return the byte, or -1 at end of stream
+ * @throws IOException On error reading or copying
+ */
+public int read() throws IOException {
+	int b = super.read();
+	if (b != -1) {
+		outputStream.write(b);
+	}
+	return b;
+}
+
+/**
+ * Reads bytes into an array and copies them
+ *
+ * @param b buffer
+ * @param off offset in buffer
+ * @param len maximum number of bytes to read
+ * @return number of bytes read, or -1 at end of stream
+ * @throws IOException On error reading or copying
+ */
+public int read(byte[] b, int off, int len) throws IOException {
+	int n = super.read(b, off, len);
+	if (n > 0) {
+		outputStream.write(b, off, n);
+	}
+	return n;
+}
+
+/**
+ * Skipped bytes would not be copied, so skipping reads instead
+ *
+ * @param n number of bytes to skip
+ * @return number of bytes skipped
+ * @throws IOException On error reading or copying
+ */
+public long skip(long n) throws IOException {
+	byte[] buffer = new byte[(int) Math.min(n, 8192)];
+	long skipped = 0;
+	while (skipped < n) {
+		int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+		if (count == -1) {
+			break;
+		}
+		skipped += count;
+	}
+	return skipped;
+}
+
+/**
+ * Mark and reset would copy bytes twice, so they are not supported
+ *
+ * @return false
+ */
+public boolean markSupported() {
+	return false;
+}
+}